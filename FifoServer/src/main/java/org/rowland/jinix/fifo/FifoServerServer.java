@@ -1,28 +1,59 @@
 package org.rowland.jinix.fifo;
 
-import org.rowland.jinix.JinixKernelUnicastRemoteObject;
 import org.rowland.jinix.io.JinixFile;
 import org.rowland.jinix.io.JinixFileDescriptor;
 import org.rowland.jinix.lang.JinixRuntime;
 import org.rowland.jinix.lang.ProcessSignalHandler;
+import org.rowland.jinix.naming.JinixContext;
 import org.rowland.jinix.naming.NameSpace;
+import org.rowland.jinix.naming.RemoteFileHandle;
 import org.rowland.jinix.proc.ProcessManager;
+import org.rowland.jinix.stats.StatsDirectory;
+import org.rowland.jinix.stats.StatsRenderer;
 
+import javax.naming.NamingException;
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.rmi.RemoteException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Server that provides Fifo pipes. A Fifo pipe can be used to connect two processes.
+ * Server that provides Fifo pipes. A Fifo pipe can be used to connect two processes. The server's namespace is a read
+ * only stats directory with a pipes file.
  */
-public class FifoServerServer extends JinixKernelUnicastRemoteObject implements FifoServer {
+public class FifoServerServer extends StatsDirectory implements FifoServer {
 
     private static FifoServerServer server;
     private static Thread mainThread;
 
+    private Set<PipedInputStreamFileChannelServer> openPipes = ConcurrentHashMap.newKeySet();
+    private AtomicLong openedPipeCount = new AtomicLong();
+    AtomicLong bytesWritten = new AtomicLong();
+    AtomicLong bytesRead = new AtomicLong();
+
     private FifoServerServer() throws RemoteException {
         super();
+        addFile("pipes", out -> {
+            long buffered = 0;
+            for (PipedInputStreamFileChannelServer p : openPipes) {
+                buffered += p.getBufferedBytes();
+            }
+            StatsRenderer.value(out, "open", openPipes.size());
+            StatsRenderer.value(out, "opened", openedPipeCount.get());
+            StatsRenderer.value(out, "buffered_bytes", buffered);
+            StatsRenderer.value(out, "written_bytes", bytesWritten.get());
+            StatsRenderer.value(out, "read_bytes", bytesRead.get());
+        });
+    }
+
+    /**
+     * A pipe is open until the last duplicate of its read end is closed.
+     */
+    void pipeClosed(PipedInputStreamFileChannelServer p) {
+        openPipes.remove(p);
     }
 
     @Override
@@ -31,11 +62,14 @@ public class FifoServerServer extends JinixKernelUnicastRemoteObject implements
             PipedOutputStream os = new PipedOutputStream();
             PipedInputStream is = new PipedInputStream(os);
 
+            PipedInputStreamFileChannelServer in = new PipedInputStreamFileChannelServer(this, is);
             FileChannelPair rtrn = new FileChannelPair(
-                    new PipedInputStreamFileChannelServer(is),
-                    new PipedOutputStreamFileChannelServer(os)
+                    in,
+                    new PipedOutputStreamFileChannelServer(this, os)
             );
 
+            openPipes.add(in);
+            openedPipeCount.incrementAndGet();
             return rtrn;
         } catch (IOException e) {
             throw new RemoteException("FifoServer: failed to create pipe", e);
@@ -53,7 +87,9 @@ public class FifoServerServer extends JinixKernelUnicastRemoteObject implements
 
         try {
             server = new FifoServerServer();
-        } catch (RemoteException e) {
+            RemoteFileHandle file = (RemoteFileHandle) (new JinixContext()).lookup(translatorFile.getAbsolutePath());
+            server.attach(file.getParent(), file.getPath());
+        } catch (NamingException | RemoteException e) {
             throw new RuntimeException("FifoServer: failed initialization",e);
         }
 
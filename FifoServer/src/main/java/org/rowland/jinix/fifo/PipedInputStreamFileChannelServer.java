@@ -17,15 +17,28 @@ import java.rmi.server.UnicastRemoteObject;
  */
 public class PipedInputStreamFileChannelServer extends JinixKernelUnicastRemoteObject implements RemoteFileAccessor {
 
+    private FifoServerServer server;
     private PipedInputStream is;
     private int openCount;
 
-    PipedInputStreamFileChannelServer(PipedInputStream pipedInputStream) throws IOException {
+    PipedInputStreamFileChannelServer(FifoServerServer server, PipedInputStream pipedInputStream) throws IOException {
         super();
+        this.server = server;
         openCount = 1;
         is = pipedInputStream;
     }
 
+    /**
+     * The number of bytes written to the pipe and not yet read, for stats.
+     */
+    int getBufferedBytes() {
+        try {
+            return is.available();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
     @Override
     public byte[] read(int processGroupId, int len) throws RemoteException {
         try {
@@ -34,6 +47,7 @@ public class PipedInputStreamFileChannelServer extends JinixKernelUnicastRemoteO
             if (r == -1) {
                 return null;
             }
+            server.bytesRead.addAndGet(r);
 
             byte[] rb = new byte[r];
             System.arraycopy(b, 0, rb, 0, r);
@@ -92,6 +106,7 @@ public class PipedInputStreamFileChannelServer extends JinixKernelUnicastRemoteO
             openCount--;
             if (openCount == 0) {
                 try {
+                    server.pipeClosed(this);
                     is.close();
                     unexport();
                 } catch (IOException e) {
@@ -18,11 +18,13 @@ import java.rmi.server.UnicastRemoteObject;
  */
 public class PipedOutputStreamFileChannelServer extends JinixKernelUnicastRemoteObject implements RemoteFileAccessor {
 
+    private FifoServerServer server;
     private PipedOutputStream os;
     private int openCount;
 
-    PipedOutputStreamFileChannelServer(PipedOutputStream pipedOutputStream) throws RemoteException {
+    PipedOutputStreamFileChannelServer(FifoServerServer server, PipedOutputStream pipedOutputStream) throws RemoteException {
         super();
+        this.server = server;
         openCount = 1;
         os = pipedOutputStream;
     }
@@ -41,6 +43,7 @@ public class PipedOutputStreamFileChannelServer extends JinixKernelUnicastRemote
     public int write(int processGroupId, byte[] b) throws RemoteException {
         try {
             os.write(b);
+            server.bytesWritten.addAndGet(b.length);
             return b.length;
         } catch (IOException e) {
             throw new RemoteException("Internal error", e);
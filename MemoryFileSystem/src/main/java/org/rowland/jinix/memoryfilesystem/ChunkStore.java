@@ -0,0 +1,70 @@
+package org.rowland.jinix.memoryfilesystem;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Allocates the fixed size chunks that hold file data outside of the Java heap. Chunks are carved from direct buffer
+ * slabs as they are needed, up to the capacity of the file system, and freed chunks are reused. The slabs themselves
+ * are never released.
+ */
+class ChunkStore {
+
+    private static final int CHUNKS_PER_SLAB = 16;
+
+    final int chunkSize;
+    private final long maxChunks;
+    private final ByteBuffer zeros;
+    private final ArrayDeque<ByteBuffer> freeChunks = new ArrayDeque<>();
+    private long allocatedChunks; // The chunks carved from slabs so far
+    private long usedChunks;
+
+    ChunkStore(long capacity, int chunkSize) {
+        this.chunkSize = chunkSize;
+        this.maxChunks = Math.max(capacity / chunkSize, 1);
+        this.zeros = ByteBuffer.allocateDirect(chunkSize).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a zero filled chunk, or null if the file system is at capacity
+     */
+    synchronized ByteBuffer allocate() {
+        ByteBuffer chunk = freeChunks.poll();
+        if (chunk != null) {
+            chunk.clear();
+            chunk.put(zeros.duplicate());
+            chunk.clear();
+        } else {
+            if (allocatedChunks >= maxChunks) {
+                return null;
+            }
+            int n = (int) Math.min(CHUNKS_PER_SLAB, maxChunks - allocatedChunks);
+            ByteBuffer slab = ByteBuffer.allocateDirect(n * chunkSize);
+            for (int i = 0; i < n; i++) {
+                slab.limit((i + 1) * chunkSize).position(i * chunkSize);
+                freeChunks.add(slab.slice());
+            }
+            allocatedChunks += n;
+            chunk = freeChunks.poll();
+        }
+        usedChunks++;
+        return chunk;
+    }
+
+    synchronized void free(ByteBuffer chunk) {
+        freeChunks.add(chunk);
+        usedChunks--;
+    }
+
+    long getCapacity() {
+        return maxChunks * chunkSize;
+    }
+
+    synchronized long getUsedBytes() {
+        return usedChunks * chunkSize;
+    }
+
+    synchronized long getAllocatedBytes() {
+        return allocatedChunks * chunkSize;
+    }
+}
@@ -0,0 +1,153 @@
+package org.rowland.jinix.memoryfilesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * File data held in ChunkStore chunks. Chunk i holds the bytes from i * chunkSize. Chunks that have never been written
+ * are not allocated, and read as zeros, so sparse files only use memory for the data they contain.
+ */
+class ChunkedFileContent implements FileContent {
+
+    private final ChunkStore store;
+    private final int chunkSize;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private long size;
+
+    ChunkedFileContent(ChunkStore store) {
+        this.store = store;
+        this.chunkSize = store.chunkSize;
+    }
+
+    @Override
+    public int read(long position, byte[] b, int off, int len) {
+        if (position >= size) {
+            return -1;
+        }
+        int n = (int) Math.min(len, size - position);
+        int done = 0;
+        while (done < n) {
+            long p = position + done;
+            int index = (int) (p / chunkSize);
+            int chunkOffset = (int) (p % chunkSize);
+            int count = Math.min(n - done, chunkSize - chunkOffset);
+            ByteBuffer chunk = (index < chunks.size() ? chunks.get(index) : null);
+            if (chunk == null) {
+                Arrays.fill(b, off + done, off + done + count, (byte) 0);
+            } else {
+                ByteBuffer view = chunk.duplicate();
+                view.position(chunkOffset);
+                view.get(b, off + done, count);
+            }
+            done += count;
+        }
+        return n;
+    }
+
+    @Override
+    public void write(long position, byte[] b, int off, int len) throws OutOfCapacityException {
+        int done = 0;
+        while (done < len) {
+            long p = position + done;
+            int index = (int) (p / chunkSize);
+            int chunkOffset = (int) (p % chunkSize);
+            int count = Math.min(len - done, chunkSize - chunkOffset);
+            ByteBuffer view = getChunk(index).duplicate();
+            view.position(chunkOffset);
+            view.put(b, off + done, count);
+            done += count;
+        }
+        size = Math.max(size, position + len);
+    }
+
+    private ByteBuffer getChunk(int index) throws OutOfCapacityException {
+        while (chunks.size() <= index) {
+            chunks.add(null);
+        }
+        ByteBuffer chunk = chunks.get(index);
+        if (chunk == null) {
+            chunk = store.allocate();
+            if (chunk == null) {
+                throw new OutOfCapacityException();
+            }
+            chunks.set(index, chunk);
+        }
+        return chunk;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void setSize(long newSize) {
+        if (newSize < size) {
+            int keep = (int) ((newSize + chunkSize - 1) / chunkSize);
+            while (chunks.size() > keep) {
+                ByteBuffer chunk = chunks.remove(chunks.size() - 1);
+                if (chunk != null) {
+                    store.free(chunk);
+                }
+            }
+            // Zero the tail of the last chunk, so that it reads as zeros if the file is extended again
+            int tail = (int) (newSize % chunkSize);
+            if (tail != 0 && keep > 0 && chunks.size() == keep && chunks.get(keep - 1) != null) {
+                ByteBuffer view = chunks.get(keep - 1).duplicate();
+                view.position(tail);
+                while (view.hasRemaining()) {
+                    view.put((byte) 0);
+                }
+            }
+        }
+        size = newSize;
+    }
+
+    /**
+     * @return the number of chunks allocated to the file
+     */
+    int getChunkCount() {
+        int count = 0;
+        for (ByteBuffer chunk : chunks) {
+            if (chunk != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copy the data to another content, skipping the chunks that have never been written.
+     */
+    void copyTo(FileContent target) throws IOException {
+        byte[] b = new byte[chunkSize];
+        for (int i = 0; i < chunks.size(); i++) {
+            ByteBuffer chunk = chunks.get(i);
+            if (chunk == null) {
+                continue;
+            }
+            long position = (long) i * chunkSize;
+            int count = (int) Math.min(chunkSize, size - position);
+            if (count <= 0) {
+                break;
+            }
+            chunk.duplicate().get(b, 0, count);
+            target.write(position, b, 0, count);
+        }
+        target.setSize(size);
+    }
+
+    @Override
+    public void release() {
+        for (ByteBuffer chunk : chunks) {
+            if (chunk != null) {
+                store.free(chunk);
+            }
+        }
+        chunks.clear();
+        size = 0;
+    }
+}
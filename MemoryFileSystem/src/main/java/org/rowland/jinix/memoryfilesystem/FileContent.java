@@ -0,0 +1,32 @@
+package org.rowland.jinix.memoryfilesystem;
+
+import java.io.IOException;
+
+/**
+ * The data of a regular file. Implementations are not thread safe, callers hold the lock of the file's Inode.
+ */
+interface FileContent {
+
+    /**
+     * @return the number of bytes read, or -1 if position is at or beyond the end of the file
+     */
+    int read(long position, byte[] b, int off, int len) throws IOException;
+
+    /**
+     * Write the bytes at the given position, extending the file if necessary. A write that fails with
+     * OutOfCapacityException may have been partially applied, and can be retried once space is available.
+     */
+    void write(long position, byte[] b, int off, int len) throws IOException;
+
+    long size();
+
+    /**
+     * Truncate or extend the file. An extension reads as zeros.
+     */
+    void setSize(long size) throws IOException;
+
+    /**
+     * Free the storage held by the content. The content must not be used afterwards.
+     */
+    void release() throws IOException;
+}
@@ -0,0 +1,67 @@
+package org.rowland.jinix.memoryfilesystem;
+
+import org.rowland.jinix.naming.DirectoryFileData;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A file or directory in the memory file system. The entries of a directory are guarded by the InodeTable namespace
+ * lock. The content and open count of a file are guarded by the inode's own lock. A file that is deleted while it is
+ * open keeps its content until it is closed.
+ */
+class Inode {
+
+    final long number;
+    final boolean directory;
+    final ReentrantLock lock = new ReentrantLock();
+    final Map<String, Inode> entries; // null for files
+
+    volatile long lastModified;
+    volatile long lastAccess; // Used to choose the files to spill
+    FileContent content; // null for directories
+    int openCount;
+    boolean unlinked;
+
+    Inode(long number, boolean directory, FileContent content) {
+        this.number = number;
+        this.directory = directory;
+        this.entries = (directory ? new TreeMap<>() : null);
+        this.content = content;
+        this.lastModified = System.currentTimeMillis();
+        this.lastAccess = lastModified;
+    }
+
+    long size() {
+        if (directory) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            return content.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    DirectoryFileData toDirectoryFileData(String name) {
+        DirectoryFileData dfd = new DirectoryFileData();
+        dfd.name = name;
+        dfd.length = size();
+        dfd.type = (directory ? DirectoryFileData.FileType.DIRECTORY : DirectoryFileData.FileType.FILE);
+        dfd.lastModified = lastModified;
+        return dfd;
+    }
+
+    /**
+     * Release the content of a file that has been deleted, once it is no longer open. Called with the lock held.
+     */
+    void releaseIfUnused() throws IOException {
+        if (unlinked && openCount == 0 && content != null) {
+            content.release();
+            content = null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.rowland.jinix.memoryfilesystem;
+
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The inodes of the memory file system, and the resolution of path names to inodes. Changes to the directory tree are
+ * made with the write lock of namespaceLock held, and lookups with its read lock held.
+ */
+class InodeTable {
+
+    final ReadWriteLock namespaceLock = new ReentrantReadWriteLock();
+    final Inode root;
+
+    private final AtomicLong nextNumber = new AtomicLong();
+    private final Map<Long, Inode> inodeMap = new ConcurrentHashMap<>();
+
+    InodeTable() {
+        root = newDirectory();
+    }
+
+    Inode newDirectory() {
+        Inode inode = new Inode(nextNumber.incrementAndGet(), true, null);
+        inodeMap.put(inode.number, inode);
+        return inode;
+    }
+
+    Inode newFile(FileContent content) {
+        Inode inode = new Inode(nextNumber.incrementAndGet(), false, content);
+        inodeMap.put(inode.number, inode);
+        return inode;
+    }
+
+    /**
+     * Forget an inode that has been removed from the directory tree.
+     */
+    void remove(Inode inode) {
+        inodeMap.remove(inode.number);
+    }
+
+    Collection<Inode> getInodes() {
+        return inodeMap.values();
+    }
+
+    int getInodeCount() {
+        return inodeMap.size();
+    }
+
+    /**
+     * Split an absolute path name into its names, resolving '.' and '..'.
+     *
+     * @throws NoSuchFileException if the path is not absolute, or goes above the root
+     */
+    static List<String> parse(String pathName) throws NoSuchFileException {
+        if (!pathName.startsWith("/")) {
+            throw new NoSuchFileException(pathName);
+        }
+        List<String> names = new ArrayList<>();
+        for (String name : pathName.split("/")) {
+            if (name.isEmpty() || name.equals(".")) {
+                continue;
+            }
+            if (name.equals("..")) {
+                if (names.isEmpty()) {
+                    throw new NoSuchFileException(pathName);
+                }
+                names.remove(names.size() - 1);
+                continue;
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * @return the inode at the path, or null if there is none. Called with the namespace lock held.
+     */
+    Inode resolve(List<String> names) {
+        return resolve(names, names.size());
+    }
+
+    /**
+     * @return the inode of the directory containing the last name of the path, or null if there is no such directory.
+     * Called with the namespace lock held.
+     */
+    Inode resolveParent(List<String> names) {
+        Inode parent = resolve(names, names.size() - 1);
+        return (parent != null && parent.directory ? parent : null);
+    }
+
+    private Inode resolve(List<String> names, int count) {
+        Inode inode = root;
+        for (int i = 0; i < count; i++) {
+            if (!inode.directory) {
+                return null;
+            }
+            inode = inode.entries.get(names.get(i));
+            if (inode == null) {
+                return null;
+            }
+        }
+        return inode;
+    }
+}
@@ -0,0 +1,184 @@
+package org.rowland.jinix.memoryfilesystem;
+
+import org.rowland.jinix.JinixKernelUnicastRemoteObject;
+import org.rowland.jinix.io.BaseRemoteFileHandleImpl;
+import org.rowland.jinix.naming.FileAccessorStatistics;
+import org.rowland.jinix.naming.RemoteFileAccessor;
+import org.rowland.jinix.naming.RemoteFileHandle;
+
+import java.io.IOException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.rmi.RemoteException;
+
+/**
+ * A RemoteFileAccessor for a file in the memory file system. Each accessor has its own file pointer.
+ */
+public class MemoryFileAccessor extends JinixKernelUnicastRemoteObject
+        implements RemoteFileAccessor, FileAccessorStatistics {
+
+    private MemoryFileSystemServer server;
+    private int pid;
+    private String jinixPath;
+    private Inode inode;
+    private boolean readable;
+    private boolean writable;
+    private boolean append;
+    private long position;
+    private int openCount;
+
+    MemoryFileAccessor(MemoryFileSystemServer server, int pid, String jinixPath, Inode inode, boolean readable,
+                       boolean writable, boolean append) throws RemoteException {
+        super();
+        this.server = server;
+        this.pid = pid;
+        this.jinixPath = jinixPath;
+        this.inode = inode;
+        this.readable = readable;
+        this.writable = writable;
+        this.append = append;
+        this.openCount = 1;
+        MemoryFileSystemServer.logger.fine("Opening MFA: " + this.toString());
+    }
+
+    public String toString() {
+        return jinixPath + ":" + inode.number;
+    }
+
+    @Override
+    public RemoteFileHandle getRemoteFileHandle() throws RemoteException {
+        return new BaseRemoteFileHandleImpl(server, jinixPath);
+    }
+
+    @Override
+    public synchronized byte[] read(int pid, int len) throws RemoteException {
+        if (!readable) {
+            throw new NonReadableChannelException();
+        }
+        byte[] b = new byte[len];
+        int r;
+        inode.lock.lock();
+        try {
+            r = inode.content.read(position, b, 0, len);
+            inode.lastAccess = System.currentTimeMillis();
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        } finally {
+            inode.lock.unlock();
+        }
+        if (r == -1) {
+            return null;
+        }
+        position += r;
+        if (r < len) {
+            byte[] rb = new byte[r];
+            System.arraycopy(b, 0, rb, 0, r);
+            return rb;
+        }
+        return b;
+    }
+
+    @Override
+    public synchronized int write(int pid, byte[] b) throws NonWritableChannelException, RemoteException {
+        if (!writable) {
+            throw new NonWritableChannelException();
+        }
+        inode.lock.lock();
+        try {
+            if (append) {
+                position = inode.content.size();
+            }
+            server.writeContent(inode, position, b);
+        } catch (IOException e) {
+            throw new RemoteException(e.getMessage(), e);
+        } finally {
+            inode.lock.unlock();
+        }
+        position += b.length;
+        return b.length;
+    }
+
+    @Override
+    public synchronized long skip(long n) throws RemoteException {
+        position = Math.max(position + n, 0);
+        return position;
+    }
+
+    @Override
+    public synchronized int available() throws RemoteException {
+        return (int) Math.max(Math.min(inode.size() - position, Integer.MAX_VALUE), 0);
+    }
+
+    @Override
+    public synchronized long getFilePointer() throws RemoteException {
+        return position;
+    }
+
+    @Override
+    public synchronized void seek(long l) throws RemoteException {
+        position = l;
+    }
+
+    @Override
+    public long length() throws RemoteException {
+        return inode.size();
+    }
+
+    /**
+     * Truncate or extend the file. As with RandomAccessFile.setLength(), the file pointer is moved to the new end of
+     * the file only if it was beyond it. An extension reads as zeros and does not use memory until it is written.
+     */
+    @Override
+    public synchronized void setLength(long l) throws RemoteException {
+        if (!writable) {
+            throw new NonWritableChannelException();
+        }
+        inode.lock.lock();
+        try {
+            inode.content.setSize(l);
+            inode.lastModified = System.currentTimeMillis();
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        } finally {
+            inode.lock.unlock();
+        }
+        if (position > l) {
+            position = l;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws RemoteException {
+        if (openCount > 0) {
+            openCount--;
+            if (openCount == 0) {
+                MemoryFileSystemServer.logger.fine("Closing MFA: " + this.toString());
+                try {
+                    server.closeInode(inode);
+                } finally {
+                    server.removeAccessor(pid, this);
+                    if (!unexport()) {
+                        MemoryFileSystemServer.logger.severe("MFA unexport failed: " + this.toString());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void duplicate() throws RemoteException {
+        openCount++;
+    }
+
+    /**
+     * The data of a memory file system file does not survive the server, so there is nothing to force.
+     */
+    @Override
+    public void force(boolean metaData) throws RemoteException {
+    }
+
+    @Override
+    public String getAbsolutePathName() throws RemoteException {
+        return jinixPath;
+    }
+}
@@ -0,0 +1,649 @@
+package org.rowland.jinix.memoryfilesystem;
+
+import org.rowland.jinix.JinixKernelUnicastRemoteObject;
+import org.rowland.jinix.io.BaseRemoteFileHandleImpl;
+import org.rowland.jinix.io.JinixFile;
+import org.rowland.jinix.lang.JinixRuntime;
+import org.rowland.jinix.lang.ProcessSignalHandler;
+import org.rowland.jinix.naming.*;
+import org.rowland.jinix.proc.ProcessManager;
+
+import javax.naming.NamingException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.*;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Logger;
+
+/**
+ * A FileNameSpace that keeps its files in memory outside of the Java heap, for short lived files such as those in
+ * /tmp. File data is held in fixed size chunks allocated from a ChunkStore up to the capacity of the file system.
+ * When the file system is full, the least recently used files that are not open can be spilled to a directory in the
+ * native file system. The contents of the file system are lost when the translator exits.
+ */
+public class MemoryFileSystemServer extends JinixKernelUnicastRemoteObject implements FileNameSpace {
+
+    static Logger logger = Logger.getLogger("jinix.memoryfilesystem");
+    private static MemoryFileSystemServer server;
+    private static Thread mainThread;
+
+    static final long DEFAULT_CAPACITY_MB = 256;
+    static final int DEFAULT_CHUNK_KB = 64;
+
+    private FileNameSpace parent;
+    private String attachPointPathWithinParent;
+
+    private Map<Integer, List<FileAccessorStatistics>> openFileMap = Collections.synchronizedMap(
+            new HashMap<Integer, List<FileAccessorStatistics>>());
+
+    private ChunkStore chunkStore;
+    private InodeTable inodeTable = new InodeTable();
+    private SpillManager spillManager;
+
+    MemoryFileSystemServer(FileNameSpace parent, String attachPointPathWithinParent, Map<String, String> mountOptions)
+            throws RemoteException {
+        super();
+        this.parent = parent;
+        this.attachPointPathWithinParent = attachPointPathWithinParent;
+
+        long capacity = getNumericMountOption(mountOptions, "capacity", DEFAULT_CAPACITY_MB, 1,
+                Long.MAX_VALUE / (1024 * 1024)) * 1024 * 1024;
+        int chunkSize = (int) getNumericMountOption(mountOptions, "chunk", DEFAULT_CHUNK_KB, 1,
+                Integer.MAX_VALUE / 1024) * 1024;
+        chunkStore = new ChunkStore(capacity, chunkSize);
+
+        Path spillDirectory = null;
+        if (mountOptions.containsKey("spill")) {
+            spillDirectory = Paths.get(mountOptions.get("spill"));
+            try {
+                Files.createDirectories(spillDirectory);
+            } catch (IOException e) {
+                throw new RemoteException("Failed to create spill directory: " + spillDirectory, e);
+            }
+        }
+        spillManager = new SpillManager(spillDirectory, inodeTable);
+    }
+
+    @Override
+    public URI getURI() throws RemoteException {
+        try {
+            String parentURIPath = "";
+            if (parent != null) {
+                parentURIPath = parent.getURI().getPath();
+            }
+            return new URI("file", null, parentURIPath+"/"+getPathWithinParent(), null);
+        } catch (URISyntaxException e) {
+            throw new RemoteException("Unexpected failure creating FileNameSpace URI", e);
+        }
+    }
+
+    @Override
+    public DirectoryFileData getFileAttributes(String filePathName) throws NoSuchFileException, RemoteException {
+        List<String> names = InodeTable.parse(filePathName);
+        Inode inode = resolve(names);
+        if (inode == null) {
+            throw new NoSuchFileException(filePathName);
+        }
+        return inode.toDirectoryFileData(names.isEmpty() ? "/" : names.get(names.size() - 1));
+    }
+
+    @Override
+    public void setFileAttributes(String filePathName, DirectoryFileData attributes) throws NoSuchFileException, RemoteException {
+
+        // We only support setting the lastModified time
+        if (attributes.lastModified <= 0) {
+            return;
+        }
+
+        Inode inode = resolve(InodeTable.parse(filePathName));
+        if (inode == null) {
+            throw new NoSuchFileException(filePathName);
+        }
+        inode.lastModified = attributes.lastModified;
+    }
+
+    @Override
+    public String[] list(String directoryPathName) throws RemoteException {
+        inodeTable.namespaceLock.readLock().lock();
+        try {
+            Inode inode = inodeTable.resolve(InodeTable.parse(directoryPathName));
+            if (inode == null) {
+                throw new RemoteException("MemoryFileSystem: no such directory: "+directoryPathName);
+            }
+            if (!inode.directory) {
+                return null;
+            }
+            return inode.entries.keySet().toArray(new String[0]);
+        } catch (NoSuchFileException e) {
+            return new String[0];
+        } finally {
+            inodeTable.namespaceLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean createFileAtomically(String directoryPathName, String fileName) throws FileAlreadyExistsException, RemoteException {
+        return create(directoryPathName, fileName, false);
+    }
+
+    @Override
+    public boolean createDirectory(String parentDirectory, String directoryName) throws FileAlreadyExistsException, RemoteException {
+        return create(parentDirectory, directoryName, true);
+    }
+
+    private boolean create(String directoryPathName, String name, boolean directory) throws RemoteException {
+        inodeTable.namespaceLock.writeLock().lock();
+        try {
+            List<String> names = InodeTable.parse(directoryPathName + "/" + name);
+            if (names.isEmpty()) {
+                return false;
+            }
+            Inode parentInode = inodeTable.resolveParent(names);
+            if (parentInode == null) {
+                throw new RemoteException("MemoryFileSystem: no such directory: "+directoryPathName);
+            }
+            String entryName = names.get(names.size() - 1);
+            if (parentInode.entries.containsKey(entryName)) {
+                return false;
+            }
+            parentInode.entries.put(entryName, (directory ? inodeTable.newDirectory() :
+                    inodeTable.newFile(new ChunkedFileContent(chunkStore))));
+            parentInode.lastModified = System.currentTimeMillis();
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } finally {
+            inodeTable.namespaceLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(String filePathName) throws NoSuchFileException, DirectoryNotEmptyException, RemoteException {
+        inodeTable.namespaceLock.writeLock().lock();
+        try {
+            List<String> names = InodeTable.parse(filePathName);
+            if (names.isEmpty()) {
+                throw new RemoteException("MemoryFileSystem: the root directory cannot be deleted");
+            }
+            Inode parentInode = inodeTable.resolveParent(names);
+            String name = names.get(names.size() - 1);
+            Inode inode = (parentInode != null ? parentInode.entries.get(name) : null);
+            if (inode == null) {
+                throw new NoSuchFileException(filePathName);
+            }
+            if (inode.directory && !inode.entries.isEmpty()) {
+                throw new DirectoryNotEmptyException(filePathName);
+            }
+            parentInode.entries.remove(name);
+            parentInode.lastModified = System.currentTimeMillis();
+            unlink(inode);
+        } finally {
+            inodeTable.namespaceLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove an inode that is no longer in the directory tree. The content of a file that is open is released when
+     * it is closed.
+     */
+    private void unlink(Inode inode) throws RemoteException {
+        inodeTable.remove(inode);
+        if (inode.directory) {
+            return;
+        }
+        inode.lock.lock();
+        try {
+            inode.unlinked = true;
+            inode.releaseIfUnused();
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        } finally {
+            inode.lock.unlock();
+        }
+    }
+
+    @Override
+    public void copy(RemoteFileHandle sourceFile, RemoteFileHandle destinationDirectory, String fileName, CopyOption... options)
+            throws NoSuchFileException, FileAlreadyExistsException, UnsupportedOperationException, RemoteException {
+
+        if (destinationDirectory.getParent().getURI().equals(this.getURI())) {
+            Inode source = resolve(InodeTable.parse(sourceFile.getPath()));
+            if (source == null) {
+                throw new NoSuchFileException(sourceFile.getPath());
+            }
+            boolean replace = Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING);
+            Inode target = link(destinationDirectory.getPath(), fileName, source.directory, replace);
+            if (source.directory) {
+                return; // As with Files.copy(), the entries of a directory are not copied
+            }
+
+            byte[] b = new byte[chunkStore.chunkSize];
+            long position = 0;
+            // The files are counted as open while they are copied, so that a spill to make room skips them
+            source.lock.lock();
+            source.openCount++;
+            try {
+                target.lock.lock();
+                target.openCount++;
+                try {
+                    int r;
+                    while ((r = source.content.read(position, b, 0, b.length)) != -1) {
+                        writeContent(target, position, (r == b.length ? b : Arrays.copyOf(b, r)));
+                        position += r;
+                    }
+                    target.content.setSize(source.content.size());
+                    if (Arrays.asList(options).contains(StandardCopyOption.COPY_ATTRIBUTES)) {
+                        target.lastModified = source.lastModified;
+                    }
+                } finally {
+                    target.openCount--;
+                    target.lock.unlock();
+                }
+            } catch (IOException e) {
+                throw new RemoteException("IOException copying file " + sourceFile + " to " + destinationDirectory + "/" + fileName, e);
+            } finally {
+                source.openCount--;
+                source.lock.unlock();
+            }
+        } else {
+            RemoteFileAccessor sourceFileAccessor = getRemoteFileAccessor(0, sourceFile.getPath(), EnumSet.of(StandardOpenOption.READ));
+            try {
+                RemoteFileAccessor destinationFileAccessor = destinationDirectory.getParent().getRemoteFileAccessor(0,
+                        destinationDirectory.getPath() + "/" + fileName,
+                        EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
+                try {
+                    byte[] buffer = sourceFileAccessor.read(0, chunkStore.chunkSize);
+                    while (buffer != null) {
+                        destinationFileAccessor.write(0, buffer);
+                        buffer = sourceFileAccessor.read(0, chunkStore.chunkSize);
+                    }
+                } finally {
+                    destinationFileAccessor.close();
+                }
+            } finally {
+                sourceFileAccessor.close();
+            }
+        }
+    }
+
+    /**
+     * Create a new empty file or directory for a copy, replacing an existing file or empty directory if requested.
+     */
+    private Inode link(String directoryPathName, String name, boolean directory, boolean replace)
+            throws NoSuchFileException, FileAlreadyExistsException, RemoteException {
+        inodeTable.namespaceLock.writeLock().lock();
+        try {
+            List<String> names = InodeTable.parse(directoryPathName + "/" + name);
+            Inode parentInode = (names.isEmpty() ? null : inodeTable.resolveParent(names));
+            if (parentInode == null) {
+                throw new NoSuchFileException(directoryPathName);
+            }
+            String entryName = names.get(names.size() - 1);
+            Inode existing = parentInode.entries.get(entryName);
+            if (existing != null) {
+                if (!replace || (existing.directory && !existing.entries.isEmpty())) {
+                    throw new FileAlreadyExistsException(directoryPathName + "/" + name);
+                }
+                unlink(existing);
+            }
+            Inode inode = (directory ? inodeTable.newDirectory() : inodeTable.newFile(new ChunkedFileContent(chunkStore)));
+            parentInode.entries.put(entryName, inode);
+            parentInode.lastModified = System.currentTimeMillis();
+            return inode;
+        } finally {
+            inodeTable.namespaceLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void move(RemoteFileHandle sourceFile, RemoteFileHandle destinationDirectory, String fileName, CopyOption... options)
+            throws DirectoryNotEmptyException, NoSuchFileException, FileAlreadyExistsException, UnsupportedOperationException, RemoteException {
+
+        if (!destinationDirectory.getParent().getURI().equals(this.getURI())) {
+            throw new UnsupportedOperationException("Moving between filesystems is not supported");
+        }
+
+        inodeTable.namespaceLock.writeLock().lock();
+        try {
+            List<String> sourceNames = InodeTable.parse(sourceFile.getPath());
+            List<String> targetNames = InodeTable.parse(destinationDirectory.getPath() + "/" + fileName);
+            if (sourceNames.isEmpty() || targetNames.isEmpty()) {
+                throw new RemoteException("MemoryFileSystem: the root directory cannot be moved");
+            }
+            Inode sourceParent = inodeTable.resolveParent(sourceNames);
+            String sourceName = sourceNames.get(sourceNames.size() - 1);
+            Inode source = (sourceParent != null ? sourceParent.entries.get(sourceName) : null);
+            if (source == null) {
+                throw new NoSuchFileException(sourceFile.getPath());
+            }
+            Inode targetParent = inodeTable.resolveParent(targetNames);
+            if (targetParent == null) {
+                throw new NoSuchFileException(destinationDirectory.getPath());
+            }
+            if (source.directory && targetNames.size() > sourceNames.size() &&
+                    targetNames.subList(0, sourceNames.size()).equals(sourceNames)) {
+                throw new RemoteException("MemoryFileSystem: cannot move a directory into itself: " + sourceFile.getPath());
+            }
+            String targetName = targetNames.get(targetNames.size() - 1);
+            Inode existing = targetParent.entries.get(targetName);
+            if (existing == source) {
+                return;
+            }
+            if (existing != null) {
+                if (!Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING)) {
+                    throw new FileAlreadyExistsException(destinationDirectory.getPath() + "/" + fileName);
+                }
+                if (existing.directory && !existing.entries.isEmpty()) {
+                    throw new DirectoryNotEmptyException(destinationDirectory.getPath() + "/" + fileName);
+                }
+                unlink(existing);
+            }
+            sourceParent.entries.remove(sourceName);
+            targetParent.entries.put(targetName, source);
+            long now = System.currentTimeMillis();
+            sourceParent.lastModified = now;
+            targetParent.lastModified = now;
+        } finally {
+            inodeTable.namespaceLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public RemoteFileAccessor getRemoteFileAccessor(int pid, String name, Set<? extends OpenOption> options)
+            throws FileAlreadyExistsException, NoSuchFileException, RemoteException {
+
+        boolean append = options.contains(StandardOpenOption.APPEND);
+        boolean writable = append || options.contains(StandardOpenOption.WRITE);
+        boolean readable = options.contains(StandardOpenOption.READ) || !writable;
+        boolean create = writable && (options.contains(StandardOpenOption.CREATE) ||
+                options.contains(StandardOpenOption.CREATE_NEW));
+
+        List<String> names = InodeTable.parse(name);
+        Inode inode;
+        // The inode is opened with the namespace lock held, so that it cannot be deleted and released in between
+        Lock namespaceLock = (create ? inodeTable.namespaceLock.writeLock() : inodeTable.namespaceLock.readLock());
+        namespaceLock.lock();
+        try {
+            inode = inodeTable.resolve(names);
+            if (inode != null && writable && options.contains(StandardOpenOption.CREATE_NEW)) {
+                throw new FileAlreadyExistsException(name);
+            }
+            if (inode == null) {
+                Inode parentInode = (create && !names.isEmpty() ? inodeTable.resolveParent(names) : null);
+                if (parentInode == null) {
+                    throw new NoSuchFileException(name);
+                }
+                inode = inodeTable.newFile(new ChunkedFileContent(chunkStore));
+                parentInode.entries.put(names.get(names.size() - 1), inode);
+                parentInode.lastModified = System.currentTimeMillis();
+            }
+            if (inode.directory) {
+                throw new RemoteException("MemoryFileSystem: cannot open a directory: " + name);
+            }
+
+            inode.lock.lock();
+            try {
+                inode.openCount++;
+                if (writable && options.contains(StandardOpenOption.TRUNCATE_EXISTING)) {
+                    inode.content.setSize(0);
+                    inode.lastModified = System.currentTimeMillis();
+                }
+            } catch (IOException e) {
+                inode.openCount--;
+                throw new RemoteException("Internal error", e);
+            } finally {
+                inode.lock.unlock();
+            }
+        } finally {
+            namespaceLock.unlock();
+        }
+
+        MemoryFileAccessor accessor;
+        try {
+            accessor = new MemoryFileAccessor(this, pid, name, inode, readable, writable, append);
+        } catch (RemoteException e) {
+            closeInode(inode);
+            throw e;
+        }
+
+        List<FileAccessorStatistics> l = openFileMap.get(pid);
+        if (l == null) {
+            l = new LinkedList<FileAccessorStatistics>();
+            openFileMap.put(pid, l);
+        }
+        l.add(accessor);
+        return accessor;
+    }
+
+    @Override
+    public RemoteFileAccessor getRemoteFileAccessor(int pid, RemoteFileHandle remoteFileHandle, Set<? extends OpenOption> options) throws FileAlreadyExistsException, NoSuchFileException, RemoteException {
+        return getRemoteFileAccessor(pid, remoteFileHandle.getPath(), options);
+    }
+
+    @Override
+    public Object lookup(int pid, String path) {
+        try {
+            if (resolve(InodeTable.parse(path)) != null) {
+                return new BaseRemoteFileHandleImpl(this, path);
+            }
+        } catch (NoSuchFileException e) {
+            // Fall through
+        }
+        return null;
+    }
+
+    @Override
+    public FileNameSpace getParent() throws RemoteException {
+        return parent;
+    }
+
+    @Override
+    public String getPathWithinParent() throws RemoteException {
+        return attachPointPathWithinParent;
+    }
+
+    @Override
+    public List<FileAccessorStatistics> getOpenFiles(int pid) throws RemoteException {
+        return this.openFileMap.get(pid);
+    }
+
+    private Inode resolve(List<String> names) {
+        inodeTable.namespaceLock.readLock().lock();
+        try {
+            return inodeTable.resolve(names);
+        } finally {
+            inodeTable.namespaceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write to a file, spilling files to disk to make room if the file system is full. Called with the inode lock held.
+     */
+    void writeContent(Inode inode, long position, byte[] b) throws IOException {
+        while (true) {
+            try {
+                inode.content.write(position, b, 0, b.length);
+                break;
+            } catch (OutOfCapacityException e) {
+                if (!spillManager.spill()) {
+                    throw e;
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        inode.lastModified = now;
+        inode.lastAccess = now;
+    }
+
+    void closeInode(Inode inode) throws RemoteException {
+        inode.lock.lock();
+        try {
+            inode.openCount--;
+            inode.releaseIfUnused();
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        } finally {
+            inode.lock.unlock();
+        }
+    }
+
+    void removeAccessor(int pid, MemoryFileAccessor accessor) {
+        List<FileAccessorStatistics> l = openFileMap.get(pid);
+        if (l != null) {
+            l.remove(accessor);
+        }
+    }
+
+    /**
+     * Release the content of every file, deleting any spill files.
+     */
+    void shutdown() {
+        for (Inode inode : inodeTable.getInodes()) {
+            if (inode.directory) {
+                continue;
+            }
+            inode.lock.lock();
+            try {
+                if (inode.content != null) {
+                    inode.content.release();
+                    inode.content = null;
+                }
+            } catch (IOException e) {
+                logger.warning("Failed to release inode " + inode.number + ": " + e);
+            } finally {
+                inode.lock.unlock();
+            }
+        }
+    }
+
+    long getCapacity() {
+        return chunkStore.getCapacity();
+    }
+
+    long getUsedBytes() {
+        return chunkStore.getUsedBytes();
+    }
+
+    int getInodeCount() {
+        return inodeTable.getInodeCount();
+    }
+
+    long getSpilledFileCount() {
+        return spillManager.getSpilledFileCount();
+    }
+
+    long getSpilledBytes() {
+        return spillManager.getSpilledBytes();
+    }
+
+    /**
+     * Parse the translator arguments into a map of mount options. Options are given as comma separated name or
+     * name=value pairs, in the style of mount -o. Options without a value map to the empty string.
+     *
+     * Supported options:
+     *   capacity=MB  the memory available for file data, 256MB by default
+     *   chunk=KB     the size of the chunks file data is allocated in, 64KB by default
+     *   spill=dir    spill the least recently used files to the native directory dir when the capacity is reached
+     *
+     * The values of numeric options are checked by getNumericMountOption() when the server is created, and the
+     * translator exits with a message if one is invalid.
+     *
+     * @param args the translator arguments
+     * @return
+     */
+    static Map<String, String> parseMountOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        if (args == null) {
+            return options;
+        }
+        for (String arg : args) {
+            for (String option : arg.split(",")) {
+                option = option.trim();
+                if (option.isEmpty()) {
+                    continue;
+                }
+                int eq = option.indexOf('=');
+                if (eq == -1) {
+                    options.put(option, "");
+                } else {
+                    options.put(option.substring(0, eq), option.substring(eq + 1));
+                }
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Get the value of a numeric mount option.
+     *
+     * @return defaultValue if the option is not given, or is given without a value
+     * @throws IllegalArgumentException if the value is not a whole number from minimum to maximum
+     */
+    static long getNumericMountOption(Map<String, String> mountOptions, String name, long defaultValue, long minimum,
+                                      long maximum) {
+        String value = mountOptions.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            long l = Long.parseLong(value);
+            if (l >= minimum && l <= maximum) {
+                return l;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        throw new IllegalArgumentException("Invalid value for mount option " + name + ": " + value +
+                " (must be a whole number from " + minimum + " to " + maximum + ")");
+    }
+
+    public static void main(String[] args) {
+
+        JinixFile translatorFile = JinixRuntime.getRuntime().getTranslatorFile();
+
+        if (translatorFile == null) {
+            System.err.println("Translator must be started with settrans");
+            return;
+        }
+
+        try {
+            RemoteFileHandle file = (RemoteFileHandle) (new JinixContext()).lookup(translatorFile.getAbsolutePath());
+            server = new MemoryFileSystemServer(file.getParent(), file.getPath(), parseMountOptions(args));
+        } catch (IllegalArgumentException e) {
+            System.err.println("MemoryFileSystemServer: " + e.getMessage());
+            return;
+        } catch (NamingException e) {
+            throw new RuntimeException("Internal error", e);
+        } catch (RemoteException e) {
+            throw new RuntimeException("Internal error", e);
+        }
+
+        JinixRuntime.getRuntime().bindTranslator(server);
+
+        mainThread = Thread.currentThread();
+
+        JinixRuntime.getRuntime().registerSignalHandler(new ProcessSignalHandler() {
+            @Override
+            public boolean handleSignal(ProcessManager.Signal signal) {
+                if (signal == ProcessManager.Signal.TERMINATE) {
+                    mainThread.interrupt();
+                    return true;
+                }
+                return false;
+            }
+        });
+
+        try {
+            Thread.sleep(Integer.MAX_VALUE);
+        } catch (InterruptedException e) {
+            // Interrupted shutting down
+        }
+
+        server.shutdown();
+        server.unexport();
+        System.out.println("MemoryFileSystemServer shutdown complete");
+    }
+}
@@ -0,0 +1,13 @@
+package org.rowland.jinix.memoryfilesystem;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the memory file system has no free chunks for a write, and no file could be spilled to disk.
+ */
+class OutOfCapacityException extends IOException {
+
+    OutOfCapacityException() {
+        super("No space left in memory file system");
+    }
+}
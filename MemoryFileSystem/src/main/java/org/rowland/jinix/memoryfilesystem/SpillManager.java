@@ -0,0 +1,95 @@
+package org.rowland.jinix.memoryfilesystem;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes room in the ChunkStore when it is full by moving the content of the least recently used file to a spill file
+ * on disk. Spills are serialized. Only files that are not open are spilled, so the content of a file is never
+ * replaced under an accessor, including the writer that needs the room. A file whose lock is held by another thread is
+ * skipped, so a spill never waits for a file lock while that writer holds its own.
+ */
+class SpillManager {
+
+    private final Path spillDirectory; // null when spilling is disabled
+    private final InodeTable inodeTable;
+
+    private final AtomicLong spilledFiles = new AtomicLong();
+    private final AtomicLong spilledBytes = new AtomicLong();
+
+    SpillManager(Path spillDirectory, InodeTable inodeTable) {
+        this.spillDirectory = spillDirectory;
+        this.inodeTable = inodeTable;
+    }
+
+    /**
+     * Spill one file to disk.
+     *
+     * @return false if there is no file that can be spilled, or spilling is disabled
+     */
+    synchronized boolean spill() throws IOException {
+        if (spillDirectory == null) {
+            return false;
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (Inode inode : inodeTable.getInodes()) {
+            if (!inode.directory) {
+                candidates.add(new Candidate(inode, inode.lastAccess));
+            }
+        }
+        candidates.sort(Comparator.comparingLong(c -> c.lastAccess));
+
+        for (Candidate candidate : candidates) {
+            Inode inode = candidate.inode;
+            if (!inode.lock.tryLock()) {
+                continue;
+            }
+            try {
+                if (inode.openCount > 0 || !(inode.content instanceof ChunkedFileContent) ||
+                        ((ChunkedFileContent) inode.content).getChunkCount() == 0) {
+                    continue;
+                }
+                ChunkedFileContent chunked = (ChunkedFileContent) inode.content;
+                SpilledFileContent spilled = new SpilledFileContent(spillDirectory, inode.number);
+                try {
+                    chunked.copyTo(spilled);
+                } catch (IOException e) {
+                    spilled.release();
+                    throw e;
+                }
+                inode.content = spilled;
+                chunked.release();
+                spilledFiles.incrementAndGet();
+                spilledBytes.addAndGet(spilled.size());
+                MemoryFileSystemServer.logger.fine("Spilled inode " + inode.number + " to disk");
+                return true;
+            } finally {
+                inode.lock.unlock();
+            }
+        }
+        return false;
+    }
+
+    long getSpilledFileCount() {
+        return spilledFiles.get();
+    }
+
+    long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    private static class Candidate {
+        Inode inode;
+        long lastAccess; // A snapshot, so the sort is not affected by concurrent access
+
+        private Candidate(Inode i, long l) {
+            inode = i;
+            lastAccess = l;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.rowland.jinix.memoryfilesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File data that has been spilled from memory to a file in the spill directory, to make room for other files. A file
+ * stays spilled until it is deleted.
+ */
+class SpilledFileContent implements FileContent {
+
+    private final Path spillFile;
+    private final FileChannel fc;
+    private long size;
+
+    SpilledFileContent(Path spillDirectory, long inodeNumber) throws IOException {
+        this.spillFile = Files.createTempFile(spillDirectory, "inode" + inodeNumber + "-", ".spill");
+        this.fc = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public int read(long position, byte[] b, int off, int len) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(b, off, (int) Math.min(len, size - position));
+        while (bb.hasRemaining()) {
+            int r = fc.read(bb, position + (bb.position() - off));
+            if (r == -1) {
+                // The spill file is sparse beyond its last write
+                while (bb.hasRemaining()) {
+                    bb.put((byte) 0);
+                }
+            }
+        }
+        return bb.position() - off;
+    }
+
+    @Override
+    public void write(long position, byte[] b, int off, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+        while (bb.hasRemaining()) {
+            fc.write(bb, position + (bb.position() - off));
+        }
+        size = Math.max(size, position + len);
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void setSize(long newSize) throws IOException {
+        if (newSize < fc.size()) {
+            fc.truncate(newSize);
+        }
+        size = newSize;
+    }
+
+    @Override
+    public void release() throws IOException {
+        try {
+            fc.close();
+        } finally {
+            Files.deleteIfExists(spillFile);
+        }
+    }
+}
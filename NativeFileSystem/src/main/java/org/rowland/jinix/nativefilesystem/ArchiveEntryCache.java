@@ -0,0 +1,63 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A least recently used cache of the inflated bytes of compressed archive entries, bounded by the total number of
+ * bytes cached. Stored entries are read directly from the archive mapping and are never cached.
+ */
+class ArchiveEntryCache {
+
+    private final long capacity;
+    private long cachedBytes;
+    private final LinkedHashMap<ArchiveFileSystemServer.ArchiveEntry, byte[]> entryMap = new LinkedHashMap<>(64, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    ArchiveEntryCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    synchronized byte[] get(ArchiveFileSystemServer.ArchiveEntry entry) {
+        byte[] b = entryMap.get(entry);
+        if (b != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return b;
+    }
+
+    /**
+     * Add an entry to the cache, evicting the least recently used entries to make room. Entries larger than a quarter
+     * of the cache are not cached, so that one large entry does not flush the cache.
+     */
+    synchronized void put(ArchiveFileSystemServer.ArchiveEntry entry, byte[] b) {
+        if (b.length > capacity / 4 || entryMap.containsKey(entry)) {
+            return;
+        }
+        Iterator<Map.Entry<ArchiveFileSystemServer.ArchiveEntry, byte[]>> i = entryMap.entrySet().iterator();
+        while (cachedBytes + b.length > capacity && i.hasNext()) {
+            cachedBytes -= i.next().getValue().length;
+            i.remove();
+        }
+        entryMap.put(entry, b);
+        cachedBytes += b.length;
+    }
+
+    synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,118 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.JinixKernelUnicastRemoteObject;
+import org.rowland.jinix.io.BaseRemoteFileHandleImpl;
+import org.rowland.jinix.naming.FileAccessorStatistics;
+import org.rowland.jinix.naming.RemoteFileAccessor;
+import org.rowland.jinix.naming.RemoteFileHandle;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.rmi.RemoteException;
+
+/**
+ * A read only RemoteFileAccessor for an entry of a mounted archive. The entry data is either a view of the archive
+ * mapping for a stored entry, or the inflated bytes of a compressed entry.
+ */
+public class ArchiveFileAccessor extends JinixKernelUnicastRemoteObject
+        implements RemoteFileAccessor, FileAccessorStatistics {
+
+    private ArchiveFileSystemServer server;
+    private int pid;
+    private String jinixPath;
+    private ByteBuffer data;
+    private int openCount;
+
+    ArchiveFileAccessor(ArchiveFileSystemServer server, int pid, String jinixPath, ByteBuffer data)
+            throws RemoteException {
+        super();
+        this.server = server;
+        this.pid = pid;
+        this.jinixPath = jinixPath;
+        this.data = data;
+        this.openCount = 1;
+        FileSystemServer.logger.fine("Opening AFA: " + jinixPath);
+    }
+
+    @Override
+    public RemoteFileHandle getRemoteFileHandle() throws RemoteException {
+        return new BaseRemoteFileHandleImpl(server, jinixPath);
+    }
+
+    @Override
+    public synchronized byte[] read(int pid, int len) throws RemoteException {
+        if (!data.hasRemaining()) {
+            return null;
+        }
+        byte[] b = new byte[Math.min(len, data.remaining())];
+        data.get(b);
+        return b;
+    }
+
+    @Override
+    public int write(int pid, byte[] b) throws NonWritableChannelException, RemoteException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long skip(long n) throws RemoteException {
+        data.position((int) Math.max(Math.min(data.position() + n, data.limit()), 0));
+        return data.position();
+    }
+
+    @Override
+    public synchronized int available() throws RemoteException {
+        return data.remaining();
+    }
+
+    @Override
+    public synchronized long getFilePointer() throws RemoteException {
+        return data.position();
+    }
+
+    /**
+     * Seek to a position in the entry. A position beyond the end of the entry reads as end of file.
+     */
+    @Override
+    public synchronized void seek(long l) throws RemoteException {
+        data.position((int) Math.min(Math.max(l, 0), data.limit()));
+    }
+
+    @Override
+    public long length() throws RemoteException {
+        return data.limit();
+    }
+
+    @Override
+    public void setLength(long l) throws RemoteException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized void close() throws RemoteException {
+        if (openCount > 0) {
+            openCount--;
+            if (openCount == 0) {
+                FileSystemServer.logger.fine("Closing AFA: " + jinixPath);
+                server.removeAccessor(pid, this);
+                if (!unexport()) {
+                    FileSystemServer.logger.severe("AFA unexport failed: " + jinixPath);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void duplicate() throws RemoteException {
+        openCount++;
+    }
+
+    @Override
+    public void force(boolean metaData) throws RemoteException {
+    }
+
+    @Override
+    public String getAbsolutePathName() throws RemoteException {
+        return jinixPath;
+    }
+}
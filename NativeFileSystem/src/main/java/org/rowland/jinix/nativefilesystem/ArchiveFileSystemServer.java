@@ -0,0 +1,537 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.JinixKernelUnicastRemoteObject;
+import org.rowland.jinix.io.BaseRemoteFileHandleImpl;
+import org.rowland.jinix.io.JinixFile;
+import org.rowland.jinix.lang.JinixRuntime;
+import org.rowland.jinix.lang.ProcessSignalHandler;
+import org.rowland.jinix.naming.*;
+import org.rowland.jinix.proc.ProcessManager;
+
+import javax.naming.NamingException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.rmi.RemoteException;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Server for a zip or jar archive mounted as a read only directory tree. The archive is mapped into memory and its
+ * namespace is built from the central directory when the server starts, so listing directories, getting attributes
+ * and lookups never read the archive. Stored entries are read directly from the mapping, and compressed entries are
+ * inflated when opened and kept in an ArchiveEntryCache.
+ *
+ * Archives must be smaller than 2GB, and zip64 archives are not supported.
+ */
+public class ArchiveFileSystemServer extends JinixKernelUnicastRemoteObject implements FileNameSpace {
+
+    private static ArchiveFileSystemServer server;
+    private static Thread mainThread;
+
+    static final long DEFAULT_ENTRY_CACHE_MB = 16;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+
+    private Path archive;
+    private FileNameSpace parent;
+    private String attachPointPathWithinParent;
+
+    private Map<Integer, List<FileAccessorStatistics>> openFileMap = Collections.synchronizedMap(
+            new HashMap<Integer, List<FileAccessorStatistics>>());
+    private List<FileAccessorStatistics> kernelOpenFileList = Collections.synchronizedList(
+            new LinkedList<FileAccessorStatistics>());
+
+    private ByteBuffer mapping;
+    private Map<String, ArchiveEntry> entryMap = new HashMap<>(); // Keyed by absolute path, with "/" for the root
+    private ArchiveEntryCache entryCache;
+
+    ArchiveFileSystemServer(Path archive, FileNameSpace parent, String attachPointPathWithinParent,
+                            Map<String, String> mountOptions) throws RemoteException {
+        super();
+        this.archive = archive;
+        this.parent = parent;
+        this.attachPointPathWithinParent = attachPointPathWithinParent;
+        this.entryCache = new ArchiveEntryCache(FileSystemServer.getNumericMountOption(mountOptions, "entrycache",
+                DEFAULT_ENTRY_CACHE_MB, 0, FileSystemServer.MAX_MEGABYTES_OPTION) * 1024 * 1024);
+
+        try (FileChannel fc = FileChannel.open(archive, StandardOpenOption.READ)) {
+            if (fc.size() > Integer.MAX_VALUE) {
+                throw new RemoteException("Archive too large to mount: " + archive);
+            }
+            mapping = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()).order(ByteOrder.LITTLE_ENDIAN);
+            readCentralDirectory(Files.getLastModifiedTime(archive).toMillis());
+        } catch (IOException e) {
+            throw new RemoteException("IOException mounting archive: " + archive, e);
+        }
+        FileSystemServer.logger.info("Mounted archive " + archive + " with " + entryMap.size() + " entries");
+    }
+
+    /**
+     * Build the namespace from the central directory. Directories that have no entry of their own are created with
+     * the modification time of the archive. Entries whose names would resolve outside of the archive are ignored.
+     */
+    private void readCentralDirectory(long archiveLastModified) throws IOException {
+        ArchiveEntry root = new ArchiveEntry("", true);
+        root.lastModified = archiveLastModified;
+        entryMap.put("/", root);
+
+        int end = findEndOfCentralDirectory();
+        int count = mapping.getShort(end + 10) & 0xffff;
+        long cdSize = mapping.getInt(end + 12) & 0xffffffffL;
+        long cdOffset = mapping.getInt(end + 16) & 0xffffffffL;
+        if (count == 0xffff || cdSize == 0xffffffffL || cdOffset == 0xffffffffL) {
+            throw new ZipException("zip64 archives are not supported");
+        }
+        if (cdOffset + cdSize > end) {
+            throw new ZipException("Invalid central directory");
+        }
+
+        int p = (int) cdOffset;
+        for (int i = 0; i < count; i++) {
+            if (p + CENTRAL_HEADER_SIZE > end || mapping.getInt(p) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory header");
+            }
+            int nameLength = mapping.getShort(p + 28) & 0xffff;
+            int extraLength = mapping.getShort(p + 30) & 0xffff;
+            int commentLength = mapping.getShort(p + 32) & 0xffff;
+
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nb = mapping.duplicate();
+            nb.position(p + CENTRAL_HEADER_SIZE);
+            nb.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            List<String> names = splitEntryName(name);
+            if (names != null && !names.isEmpty()) {
+                ArchiveEntry entry = new ArchiveEntry(names.get(names.size() - 1), name.endsWith("/"));
+                entry.flags = mapping.getShort(p + 8) & 0xffff;
+                entry.method = mapping.getShort(p + 10) & 0xffff;
+                entry.lastModified = dosToJavaTime(mapping.getShort(p + 12) & 0xffff, mapping.getShort(p + 14) & 0xffff);
+                entry.crc = mapping.getInt(p + 16) & 0xffffffffL;
+                entry.compressedSize = mapping.getInt(p + 20) & 0xffffffffL;
+                entry.size = mapping.getInt(p + 24) & 0xffffffffL;
+                entry.localHeaderOffset = mapping.getInt(p + 42) & 0xffffffffL;
+                addEntry(names, entry, archiveLastModified);
+            }
+            p += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    private int findEndOfCentralDirectory() throws ZipException {
+        int limit = Math.max(mapping.limit() - END_HEADER_SIZE - 0xffff, 0);
+        for (int p = mapping.limit() - END_HEADER_SIZE; p >= limit; p--) {
+            if (mapping.getInt(p) == END_SIGNATURE) {
+                return p;
+            }
+        }
+        throw new ZipException("Not a zip archive");
+    }
+
+    private void addEntry(List<String> names, ArchiveEntry entry, long archiveLastModified) {
+        ArchiveEntry directory = entryMap.get("/");
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < names.size() - 1; i++) {
+            path.append('/').append(names.get(i));
+            ArchiveEntry child = entryMap.get(path.toString());
+            if (child == null || !child.directory) {
+                child = new ArchiveEntry(names.get(i), true);
+                child.lastModified = archiveLastModified;
+                entryMap.put(path.toString(), child);
+                directory.children.add(child.name);
+            }
+            directory = child;
+        }
+        path.append('/').append(entry.name);
+        ArchiveEntry existing = entryMap.get(path.toString());
+        if (existing != null && existing.directory) {
+            // Keep the children of a directory that was implied by earlier entries
+            if (entry.directory) {
+                existing.lastModified = entry.lastModified;
+            }
+            return;
+        }
+        entryMap.put(path.toString(), entry);
+        directory.children.add(entry.name);
+    }
+
+    /**
+     * Split an entry name into its path elements.
+     *
+     * @return the elements, or null if the name resolves outside of the archive
+     */
+    private static List<String> splitEntryName(String name) {
+        List<String> names = new ArrayList<>();
+        for (String n : name.split("/")) {
+            if (n.isEmpty() || n.equals(".")) {
+                continue;
+            }
+            if (n.equals("..")) {
+                return null;
+            }
+            names.add(n);
+        }
+        return names;
+    }
+
+    private static long dosToJavaTime(int time, int date) {
+        try {
+            return LocalDateTime.of(((date >> 9) & 0x7f) + 1980, (date >> 5) & 0x0f, date & 0x1f,
+                    (time >> 11) & 0x1f, (time >> 5) & 0x3f, (time & 0x1f) * 2)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Find the entry for a path, resolving '.' and '..' elements.
+     *
+     * @return the entry, or null if the path does not exist in the archive
+     */
+    private ArchiveEntry getEntry(String pathName) {
+        Deque<String> names = new ArrayDeque<>();
+        for (String n : pathName.split("/")) {
+            if (n.isEmpty() || n.equals(".")) {
+                continue;
+            }
+            if (n.equals("..")) {
+                if (names.isEmpty()) {
+                    return null;
+                }
+                names.removeLast();
+                continue;
+            }
+            names.addLast(n);
+        }
+        return entryMap.get(names.isEmpty() ? "/" : "/" + String.join("/", names));
+    }
+
+    /**
+     * Get the uncompressed data of a file entry. The returned buffer is owned by the caller.
+     */
+    private ByteBuffer getEntryData(String pathName, ArchiveEntry entry) throws IOException {
+        if ((entry.flags & 1) != 0) {
+            throw new ZipException("Encrypted archive entries are not supported: " + pathName);
+        }
+
+        int dataPosition = entry.dataPosition;
+        if (dataPosition == -1) {
+            int p = (int) entry.localHeaderOffset;
+            if (p + LOCAL_HEADER_SIZE > mapping.limit() || mapping.getInt(p) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local header: " + pathName);
+            }
+            dataPosition = p + LOCAL_HEADER_SIZE + (mapping.getShort(p + 26) & 0xffff) + (mapping.getShort(p + 28) & 0xffff);
+            if (dataPosition + entry.compressedSize > mapping.limit()) {
+                throw new ZipException("Truncated archive entry: " + pathName);
+            }
+            entry.dataPosition = dataPosition;
+        }
+
+        ByteBuffer raw = mapping.duplicate();
+        raw.position(dataPosition);
+        raw.limit(dataPosition + (int) entry.compressedSize);
+        raw = raw.slice();
+
+        if (entry.method == ZipEntry.STORED) {
+            return raw.asReadOnlyBuffer();
+        }
+        if (entry.method != ZipEntry.DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + ": " + pathName);
+        }
+
+        byte[] b = entryCache.get(entry);
+        if (b == null) {
+            if (entry.size > Integer.MAX_VALUE - 8) {
+                throw new ZipException("Archive entry too large: " + pathName);
+            }
+            b = new byte[(int) entry.size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(raw);
+                int off = 0;
+                while (off < b.length) {
+                    int r = inflater.inflate(b, off, b.length - off);
+                    if (r == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new ZipException("Truncated compressed data: " + pathName);
+                    }
+                    off += r;
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid compressed data: " + pathName);
+            } finally {
+                inflater.end();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(b);
+            if (crc.getValue() != entry.crc) {
+                throw new ZipException("CRC mismatch: " + pathName);
+            }
+            entryCache.put(entry, b);
+        }
+        return ByteBuffer.wrap(b);
+    }
+
+    @Override
+    public URI getURI() throws RemoteException {
+        try {
+            String parentURIPath = "";
+            if (parent != null) {
+                parentURIPath = parent.getURI().getPath();
+            }
+            return new URI("file", null, parentURIPath+"/"+getPathWithinParent(), null);
+        } catch (URISyntaxException e) {
+            throw new RemoteException("Unexpected failure creating FileNameSpace URI", e);
+        }
+    }
+
+    @Override
+    public DirectoryFileData getFileAttributes(String filePathName) throws NoSuchFileException, RemoteException {
+        ArchiveEntry entry = getEntry(filePathName);
+        if (entry == null) {
+            throw new NoSuchFileException(filePathName);
+        }
+        DirectoryFileData dfd = new DirectoryFileData();
+        dfd.name = (entry.name.isEmpty() ? archive.getFileName().toString() : entry.name);
+        dfd.length = (entry.directory ? 0 : entry.size);
+        dfd.type = (entry.directory ? DirectoryFileData.FileType.DIRECTORY : DirectoryFileData.FileType.FILE);
+        dfd.lastModified = entry.lastModified;
+        return dfd;
+    }
+
+    @Override
+    public void setFileAttributes(String filePathName, DirectoryFileData attributes) throws NoSuchFileException, RemoteException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public String[] list(String directoryPathName) throws RemoteException {
+        ArchiveEntry entry = getEntry(directoryPathName);
+        if (entry == null) {
+            throw new RemoteException("IOException listing directory: "+directoryPathName,
+                    new NoSuchFileException(directoryPathName));
+        }
+        if (!entry.directory) {
+            return null;
+        }
+        return entry.children.toArray(new String[0]);
+    }
+
+    @Override
+    public boolean createFileAtomically(String directoryPathName, String fileName) throws FileAlreadyExistsException, RemoteException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public boolean createDirectory(String parentDirectory, String directoryName) throws FileAlreadyExistsException, RemoteException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(String filePathName) throws NoSuchFileException, DirectoryNotEmptyException, RemoteException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void copy(RemoteFileHandle sourceFile, RemoteFileHandle destinationDirectory, String fileName, CopyOption... options)
+            throws NoSuchFileException, FileAlreadyExistsException, UnsupportedOperationException, RemoteException {
+
+        if (destinationDirectory.getParent().getURI().equals(this.getURI())) {
+            throw new ReadOnlyFileSystemException();
+        }
+
+        RemoteFileAccessor sourceFileAccessor = getRemoteFileAccessor(0, sourceFile.getPath(), EnumSet.of(StandardOpenOption.READ));
+        try {
+            RemoteFileAccessor destinationFileAccessor = destinationDirectory.getParent().getRemoteFileAccessor(0,
+                    destinationDirectory.getPath() + "/" + fileName,
+                    EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
+            try {
+                byte[] buffer = sourceFileAccessor.read(0, 2048);
+                while (buffer != null) {
+                    destinationFileAccessor.write(0, buffer);
+                    buffer = sourceFileAccessor.read(0, 2048);
+                }
+            } finally {
+                destinationFileAccessor.close();
+            }
+        } finally {
+            sourceFileAccessor.close();
+        }
+    }
+
+    @Override
+    public void move(RemoteFileHandle sourceFile, RemoteFileHandle destinationDirectory, String fileName, CopyOption... options)
+            throws DirectoryNotEmptyException, NoSuchFileException, FileAlreadyExistsException, UnsupportedOperationException, RemoteException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public RemoteFileAccessor getRemoteFileAccessor(int pid, String name, Set<? extends OpenOption> options)
+            throws FileAlreadyExistsException, NoSuchFileException, RemoteException {
+
+        if (options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND) ||
+                options.contains(StandardOpenOption.CREATE_NEW) ||
+                options.contains(StandardOpenOption.TRUNCATE_EXISTING) ||
+                options.contains(StandardOpenOption.DELETE_ON_CLOSE)) {
+            throw new ReadOnlyFileSystemException();
+        }
+
+        ArchiveEntry entry = getEntry(name);
+        if (entry == null) {
+            throw new NoSuchFileException(name);
+        }
+        if (entry.directory) {
+            throw new RemoteException("Cannot open a directory: " + name);
+        }
+
+        ArchiveFileAccessor s;
+        try {
+            s = new ArchiveFileAccessor(this, pid, name, getEntryData(name, entry));
+        } catch (IOException e) {
+            throw new RemoteException("IOException reading archive entry: " + name, e);
+        }
+
+        // Only the Jinix Kernel passes pid -1 when it gets the init jar or when starting a translator
+        if (pid == -1) {
+            kernelOpenFileList.add(s);
+            return s;
+        }
+
+        List<FileAccessorStatistics> l = openFileMap.get(pid);
+        if (l == null) {
+            l = new LinkedList<FileAccessorStatistics>();
+            openFileMap.put(pid, l);
+        }
+        l.add(s);
+        return s;
+    }
+
+    @Override
+    public RemoteFileAccessor getRemoteFileAccessor(int pid, RemoteFileHandle remoteFileHandle, Set<? extends OpenOption> options) throws FileAlreadyExistsException, NoSuchFileException, RemoteException {
+        return getRemoteFileAccessor(pid, remoteFileHandle.getPath(), options);
+    }
+
+    @Override
+    public Object lookup(int pid, String path) {
+        if (getEntry(path) != null) {
+            return new BaseRemoteFileHandleImpl(this, path);
+        }
+        return null;
+    }
+
+    @Override
+    public FileNameSpace getParent() throws RemoteException {
+        return parent;
+    }
+
+    @Override
+    public String getPathWithinParent() throws RemoteException {
+        return attachPointPathWithinParent;
+    }
+
+    @Override
+    public List<FileAccessorStatistics> getOpenFiles(int pid) throws RemoteException {
+        return this.openFileMap.get(pid);
+    }
+
+    void removeAccessor(int pid, ArchiveFileAccessor s) {
+        if (pid == -1) {
+            kernelOpenFileList.remove(s);
+            return;
+        }
+        List<FileAccessorStatistics> l = openFileMap.get(pid);
+        if (l != null) {
+            l.remove(s);
+        }
+    }
+
+    int getEntryCount() {
+        return entryMap.size();
+    }
+
+    ArchiveEntryCache getEntryCache() {
+        return entryCache;
+    }
+
+    /**
+     * Started by FileSystemServer.main() when its rootPath argument is a regular file rather than a directory.
+     */
+    static void main(String[] args) {
+
+        JinixFile translatorFile = JinixRuntime.getRuntime().getTranslatorFile();
+
+        try {
+            RemoteFileHandle file = (RemoteFileHandle) (new JinixContext()).lookup(translatorFile.getAbsolutePath());
+            server = new ArchiveFileSystemServer(Paths.get(args[0]), file.getParent(), file.getPath(),
+                    FileSystemServer.parseMountOptions(args));
+        } catch (IllegalArgumentException e) {
+            System.err.println("FileSystemServer: " + e.getMessage());
+            return;
+        } catch (NamingException e) {
+            throw new RuntimeException("Internal error", e);
+        } catch (RemoteException e) {
+            throw new RuntimeException("Internal error", e);
+        }
+
+        JinixRuntime.getRuntime().bindTranslator(server);
+
+        mainThread = Thread.currentThread();
+
+        JinixRuntime.getRuntime().registerSignalHandler(new ProcessSignalHandler() {
+            @Override
+            public boolean handleSignal(ProcessManager.Signal signal) {
+                if (signal == ProcessManager.Signal.TERMINATE) {
+                    mainThread.interrupt();
+                    return true;
+                }
+                return false;
+            }
+        });
+
+        try {
+            Thread.sleep(Integer.MAX_VALUE);
+        } catch (InterruptedException e) {
+            // Interrupted shutting down
+        }
+
+        server.unexport();
+        System.out.println("ArchiveFileSystemServer shutdown complete");
+    }
+
+    static class ArchiveEntry {
+        final String name;
+        final boolean directory;
+        final SortedSet<String> children; // null for files
+        int flags;
+        int method; // ZipEntry.STORED or ZipEntry.DEFLATED
+        long crc;
+        long compressedSize;
+        long size;
+        long localHeaderOffset;
+        long lastModified;
+        volatile int dataPosition = -1; // Found from the local header when the entry is first opened
+
+        private ArchiveEntry(String n, boolean d) {
+            name = n;
+            directory = d;
+            children = (d ? new TreeSet<>() : null);
+        }
+    }
+}
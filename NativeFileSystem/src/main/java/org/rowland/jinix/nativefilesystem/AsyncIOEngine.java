@@ -0,0 +1,254 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional I/O backend for the FileSystemChannelServer built on AsynchronousFileChannel. All channels opened through
+ * the engine share a bounded completion executor. Large requests are split into chunks that are issued concurrently,
+ * so the device sees several outstanding operations, and the RMI thread only waits for the completions. When the
+ * executor queue is full, the calling RMI thread performs the I/O itself, which throttles submitters.
+ */
+class AsyncIOEngine {
+
+    static final int DEFAULT_THREADS = 8;
+    private static final int QUEUE_PER_THREAD = 64;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+
+    AsyncIOEngine(int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r, "fs-aio-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUE_PER_THREAD), threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Open an AsynchronousFileChannel on a file that has already been opened (and created if requested) by the
+     * caller. Only the access mode options are passed through, since the file creation options have already been
+     * applied.
+     *
+     * @return the channel, or null if the options cannot be supported asynchronously (APPEND)
+     */
+    AsynchronousFileChannel open(Path path, Set<? extends OpenOption> options) throws IOException {
+        if (options.contains(StandardOpenOption.APPEND)) {
+            return null;
+        }
+        Set<StandardOpenOption> accessOptions = EnumSet.noneOf(StandardOpenOption.class);
+        if (options.contains(StandardOpenOption.WRITE)) {
+            accessOptions.add(StandardOpenOption.WRITE);
+        }
+        if (options.contains(StandardOpenOption.READ) || accessOptions.isEmpty()) {
+            accessOptions.add(StandardOpenOption.READ);
+        }
+        return AsynchronousFileChannel.open(path, accessOptions, executor);
+    }
+
+    /**
+     * Read into the buffer starting at the given file position. Returns the number of bytes read, or -1 if the
+     * position is at or beyond the end of the file.
+     */
+    int read(AsynchronousFileChannel ch, ByteBuffer dst, long position) throws IOException {
+        List<ByteBuffer> chunks = split(dst);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>(chunks.size());
+        long chunkPosition = position;
+        for (ByteBuffer chunk : chunks) {
+            int chunkLength = chunk.remaining();
+            futures.add(submitRead(ch, chunk, chunkPosition));
+            chunkPosition += chunkLength;
+        }
+
+        int total = 0;
+        boolean shortRead = false;
+        for (int i = 0; i < futures.size(); i++) {
+            int r = await(futures.get(i));
+            if (shortRead) {
+                continue; // Data beyond a short read is not contiguous with what has been returned
+            }
+            if (r == -1) {
+                shortRead = true;
+                continue;
+            }
+            total += r;
+            if (chunks.get(i).hasRemaining()) {
+                shortRead = true;
+            }
+        }
+        if (total == 0 && shortRead) {
+            return -1;
+        }
+        dst.position(dst.position() + total);
+        return total;
+    }
+
+    /**
+     * Write the whole of the buffer starting at the given file position. A chunk that is only partly written is
+     * resubmitted from where it stopped, so the bytes written are always contiguous. Returns the number of bytes
+     * written.
+     */
+    int write(AsynchronousFileChannel ch, ByteBuffer src, long position) throws IOException {
+        List<ByteBuffer> chunks = split(src);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>(chunks.size());
+        long chunkPosition = position;
+        for (ByteBuffer chunk : chunks) {
+            int chunkLength = chunk.remaining();
+            futures.add(submitWrite(ch, chunk, chunkPosition));
+            chunkPosition += chunkLength;
+        }
+
+        int total = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            ByteBuffer chunk = chunks.get(i);
+            total += await(futures.get(i));
+            while (chunk.hasRemaining()) {
+                total += await(submitWrite(ch, chunk, position + (chunk.position() - src.position())));
+            }
+        }
+        src.position(src.position() + total);
+        return total;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    long getCompletedCount() {
+        return completed.get();
+    }
+
+    long getFailedCount() {
+        return failed.get();
+    }
+
+    long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    private List<ByteBuffer> split(ByteBuffer b) {
+        List<ByteBuffer> chunks = new ArrayList<>(b.remaining() / CHUNK_SIZE + 1);
+        int offset = b.position();
+        int end = b.limit();
+        do {
+            ByteBuffer chunk = b.duplicate();
+            chunk.position(offset);
+            chunk.limit(Math.min(offset + CHUNK_SIZE, end));
+            chunks.add(chunk);
+            offset += CHUNK_SIZE;
+        } while (offset < end);
+        return chunks;
+    }
+
+    private CompletableFuture<Integer> submitRead(AsynchronousFileChannel ch, ByteBuffer dst, long position) {
+        CompletableFuture<Integer> f = new CompletableFuture<>();
+        enqueued();
+        try {
+            ch.read(dst, position, f, completionHandler);
+        } catch (RuntimeException e) {
+            dequeued();
+            throw e;
+        }
+        return f;
+    }
+
+    private CompletableFuture<Integer> submitWrite(AsynchronousFileChannel ch, ByteBuffer src, long position) {
+        CompletableFuture<Integer> f = new CompletableFuture<>();
+        enqueued();
+        try {
+            ch.write(src, position, f, completionHandler);
+        } catch (RuntimeException e) {
+            dequeued();
+            throw e;
+        }
+        return f;
+    }
+
+    private void enqueued() {
+        submitted.incrementAndGet();
+        int depth = queueDepth.incrementAndGet();
+        int max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+
+    private void dequeued() {
+        queueDepth.decrementAndGet();
+    }
+
+    private int await(CompletableFuture<Integer> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for asynchronous I/O");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Asynchronous I/O failed", e.getCause());
+        }
+    }
+
+    private final CompletionHandler<Integer, CompletableFuture<Integer>> completionHandler = new CompletionHandler<>() {
+
+        @Override
+        public void completed(Integer result, CompletableFuture<Integer> f) {
+            dequeued();
+            completed.incrementAndGet();
+            if (result > 0) {
+                bytesTransferred.addAndGet(result);
+            }
+            f.complete(result);
+        }
+
+        @Override
+        public void failed(Throwable exc, CompletableFuture<Integer> f) {
+            dequeued();
+            failed.incrementAndGet();
+            f.completeExceptionally(exc);
+        }
+    };
+}
@@ -0,0 +1,109 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Persists the order in which entries are loaded from a jar for a given main class, and runs the background tasks
+ * that prefetch those entries on later launches. Profiles are stored as text files in the profile directory: a
+ * header with the jar path, main class, size and modification time, followed by one entry name per line. A profile is
+ * ignored once the jar's size or modification time changes.
+ */
+class ClassLoadProfileManager {
+
+    static final int MAX_PROFILE_ENTRIES = 16384;
+    private static final int PREFETCH_THREADS = 2;
+
+    private final Path profileDirectory;
+    private final ExecutorService prefetchExecutor;
+
+    ClassLoadProfileManager(Path profileDirectory) {
+        this.profileDirectory = profileDirectory;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.prefetchExecutor = Executors.newFixedThreadPool(PREFETCH_THREADS, r -> {
+            Thread t = new Thread(r, "jar-prefetch-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @return the recorded entry names, or null if there is no valid profile for the jar and main class
+     */
+    List<String> loadProfile(String jinixPath, String mainClass, BasicFileAttributes jarAttributes) {
+        Path profileFile = getProfileFile(jinixPath, mainClass);
+        try (BufferedReader r = Files.newBufferedReader(profileFile, StandardCharsets.UTF_8)) {
+            if (!jinixPath.equals(r.readLine()) || !mainClass.equals(r.readLine()) ||
+                    !getVersion(jarAttributes).equals(r.readLine())) {
+                return null;
+            }
+            List<String> entries = new ArrayList<>();
+            String name;
+            while ((name = r.readLine()) != null && entries.size() < MAX_PROFILE_ENTRIES) {
+                entries.add(name);
+            }
+            return entries;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            FileSystemServer.logger.log(Level.WARNING, "Failed to read class load profile: " + profileFile, e);
+            return null;
+        }
+    }
+
+    void saveProfile(String jinixPath, String mainClass, BasicFileAttributes jarAttributes, List<String> entries) {
+        Path profileFile = getProfileFile(jinixPath, mainClass);
+        try {
+            Files.createDirectories(profileDirectory);
+            Path tmpFile = Files.createTempFile(profileDirectory, profileFile.getFileName().toString(), ".tmp");
+            try {
+                try (BufferedWriter w = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+                    w.write(jinixPath);
+                    w.newLine();
+                    w.write(mainClass);
+                    w.newLine();
+                    w.write(getVersion(jarAttributes));
+                    w.newLine();
+                    for (String name : entries) {
+                        w.write(name);
+                        w.newLine();
+                    }
+                }
+                Files.move(tmpFile, profileFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        } catch (IOException e) {
+            FileSystemServer.logger.log(Level.WARNING, "Failed to write class load profile: " + profileFile, e);
+        }
+    }
+
+    void submitPrefetch(Runnable task) {
+        prefetchExecutor.execute(task);
+    }
+
+    void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    private Path getProfileFile(String jinixPath, String mainClass) {
+        return profileDirectory.resolve(Integer.toHexString((jinixPath + "!" + mainClass).hashCode()) + ".clp");
+    }
+
+    private static String getVersion(BasicFileAttributes jarAttributes) {
+        return jarAttributes.size() + " " + jarAttributes.lastModifiedTime().toMillis();
+    }
+}
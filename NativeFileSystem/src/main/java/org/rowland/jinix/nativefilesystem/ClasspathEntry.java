@@ -0,0 +1,13 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.Serializable;
+
+/**
+ * An entry returned by ClasspathResolver.getEntry(). jar is the index in the classpath of the jar the entry was read
+ * from, so that the class loader can define the class with that jar's code source and manifest.
+ */
+public class ClasspathEntry implements Serializable {
+
+    public int jar;
+    public byte[] bytes; // The uncompressed bytes
+}
@@ -0,0 +1,26 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.nio.file.NoSuchFileException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Resolves classes against a classpath of jar files with one remote call per class. A class loader that probes each
+ * jar of its classpath with findEntry() pays a remote call for every jar that does not have the class, so the cost of
+ * loading a class grows with the length of the classpath. A ClasspathResolver indexes all of its jars together when it
+ * is opened.
+ */
+public interface ClasspathNameSpace extends Remote {
+
+    /**
+     * Open a resolver for an ordered list of jar files. The jars are indexed when the resolver is opened, and are held
+     * open until it is closed.
+     *
+     * @param pid the process ID of the client
+     * @param jarPaths the jar files of the classpath, in the order they are searched
+     * @return the resolver
+     * @throws NoSuchFileException if one of the jar files does not exist
+     * @throws RemoteException
+     */
+    ClasspathResolver openClasspath(int pid, String[] jarPaths) throws NoSuchFileException, RemoteException;
+}
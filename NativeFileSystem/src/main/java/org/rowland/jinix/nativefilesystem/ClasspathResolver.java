@@ -0,0 +1,37 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.naming.JarManifest;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * A classpath of jar files opened through a ClasspathNameSpace. The entries of every jar, including the jars in their
+ * lib directories, are held in one index that maps each entry name to the first jar of the classpath that has it.
+ */
+public interface ClasspathResolver extends Remote {
+
+    /**
+     * Find an entry in the first jar of the classpath that has it, and read its uncompressed bytes. Entries larger
+     * than RemoteJarRawEntryAccessor.MAX_RAW_ENTRY_SIZE must be read through the jar's own accessor.
+     *
+     * @param name the entry name
+     * @return the entry, or null if no jar of the classpath has an entry with the name
+     * @throws RemoteException
+     */
+    ClasspathEntry getEntry(String name) throws RemoteException;
+
+    /**
+     * Get the manifest of a jar of the classpath.
+     *
+     * @param jar the index of the jar in the classpath
+     * @return the manifest, or null if the jar does not have one
+     * @throws RemoteException
+     */
+    JarManifest getManifest(int jar) throws RemoteException;
+
+    /**
+     * Close the jars of the classpath and release the index.
+     */
+    void close() throws RemoteException;
+}
@@ -0,0 +1,165 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.JinixKernelUnicastRemoteObject;
+import org.rowland.jinix.naming.FileAccessorStatistics;
+import org.rowland.jinix.naming.JarManifest;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.rmi.RemoteException;
+import java.rmi.server.Unreferenced;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The server side of a ClasspathResolver. Each jar of the classpath is opened as a JarFileSystemChannelServer, which
+ * builds or shares the jar's index as it does for any other client, and the entry names of all of the jars are merged
+ * into one map from name to the first jar that has the entry. Resolving an entry is then one hash lookup and one read,
+ * whatever the length of the classpath. Entries are resolved concurrently, each with an Inflater taken from a pool
+ * of idle ones. The resolver is an open file of the process that opened it, and is closed when that process no
+ * longer holds a reference to it.
+ */
+class ClasspathResolverServer extends JinixKernelUnicastRemoteObject
+        implements ClasspathResolver, FileAccessorStatistics, Unreferenced {
+
+    private final FileSystemServer server;
+    private final int pid;
+    private final String pathName;
+    private volatile JarFileSystemChannelServer[] jars; // null once the resolver is closed
+    private volatile Map<String, Integer> entryMap;
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>(); // idle inflaters
+
+    ClasspathResolverServer(FileSystemServer server, int pid, String[] jarPaths)
+            throws NoSuchFileException, RemoteException {
+        super();
+        this.server = server;
+        this.pid = pid;
+        this.pathName = String.join(":", jarPaths);
+        JarFileSystemChannelServer[] opened = new JarFileSystemChannelServer[jarPaths.length];
+        try {
+            int entryCount = 0;
+            for (int i = 0; i < jarPaths.length; i++) {
+                opened[i] = server.openJar(pid, jarPaths[i]);
+                entryCount += opened[i].getEntryCount();
+            }
+            Map<String, Integer> map = new HashMap<>(Math.max(16, entryCount * 4 / 3 + 1));
+            for (int i = 0; i < opened.length; i++) {
+                opened[i].indexEntries(map, i);
+            }
+            entryMap = map;
+            jars = opened;
+        } catch (NoSuchFileException e) {
+            closeJars(opened);
+            unexport();
+            throw e;
+        } catch (IOException e) {
+            closeJars(opened);
+            unexport();
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public ClasspathEntry getEntry(String name) throws RemoteException {
+        Map<String, Integer> map = entryMap;
+        JarFileSystemChannelServer[] open = checkOpen();
+        server.classpathLookups.incrementAndGet();
+        Integer jar = map.get(name);
+        if (jar == null) {
+            server.classpathMisses.incrementAndGet();
+            return null;
+        }
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            ClasspathEntry entry = new ClasspathEntry();
+            entry.jar = jar;
+            entry.bytes = open[jar].readEntryBytes(name, inflater);
+            return entry;
+        } catch (IOException | DataFormatException e) {
+            throw new RemoteException("Internal error", e);
+        } finally {
+            inflater.reset();
+            inflaters.offer(inflater);
+            if (jars == null) {
+                endInflaters(); // Closed while the entry was read
+            }
+        }
+    }
+
+    @Override
+    public JarManifest getManifest(int jar) throws RemoteException {
+        JarFileSystemChannelServer[] open = checkOpen();
+        if (jar < 0 || jar >= open.length) {
+            throw new IllegalArgumentException("Invalid classpath jar: " + jar);
+        }
+        return open[jar].getManifest();
+    }
+
+    @Override
+    public String getAbsolutePathName() throws RemoteException {
+        return pathName;
+    }
+
+    /**
+     * Close the resolver once the process that opened it no longer holds a reference to it, as when the process exits
+     * without closing it.
+     */
+    @Override
+    public void unreferenced() {
+        try {
+            close();
+        } catch (RemoteException e) {
+            FileSystemServer.logger.log(Level.FINE, "Failed closing unreferenced classpath resolver", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws RemoteException {
+        if (jars == null) {
+            return;
+        }
+        JarFileSystemChannelServer[] open = jars;
+        jars = null;
+        entryMap = null;
+        closeJars(open);
+        endInflaters();
+        server.removeOpenFile(pid, this);
+        server.openClasspathCount.decrementAndGet();
+        unexport();
+    }
+
+    private JarFileSystemChannelServer[] checkOpen() throws RemoteException {
+        JarFileSystemChannelServer[] open = jars;
+        if (open == null) {
+            throw new RemoteException("Classpath resolver is closed");
+        }
+        return open;
+    }
+
+    private void endInflaters() {
+        Inflater inflater;
+        while ((inflater = inflaters.poll()) != null) {
+            inflater.end();
+        }
+    }
+
+    private static void closeJars(JarFileSystemChannelServer[] jars) {
+        for (JarFileSystemChannelServer jar : jars) {
+            if (jar != null) {
+                try {
+                    jar.close();
+                } catch (RemoteException e) {
+                    FileSystemServer.logger.log(Level.FINE, "Failed closing classpath jar", e);
+                }
+            }
+        }
+    }
+}
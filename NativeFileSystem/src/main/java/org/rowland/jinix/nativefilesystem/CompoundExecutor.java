@@ -0,0 +1,144 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.naming.DirectoryFileData;
+import org.rowland.jinix.naming.RemoteFileAccessor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Executes CompoundNameSpace requests for a FileSystemServer. A file that is closed by a CLOSE later in the request
+ * is opened as an OpenFile, which is not exported. Other files are opened with getRemoteFileAccessor(), so that they
+ * can be returned to the client.
+ */
+class CompoundExecutor {
+
+    private static final int INLINE_READ_SIZE = 64 * 1024;
+
+    static CompoundResult execute(FileSystemServer server, int pid, CompoundOperation[] operations) {
+        CompoundResult result = new CompoundResult();
+        result.results = new Object[operations.length];
+
+        OpenFile file = null; // The current file, when it is closed within the request
+        RemoteFileAccessor accessor = null; // The current file, when it is returned to the client
+        int accessorIndex = -1;
+        try {
+            for (int i = 0; i < operations.length; i++) {
+                CompoundOperation op = operations[i];
+                switch (op.op) {
+                    case CompoundOperation.LOOKUP:
+                        if (server.lookup(pid, op.path) == null) {
+                            throw new NoSuchFileException(op.path);
+                        }
+                        break;
+                    case CompoundOperation.GETATTR:
+                        result.results[i] = server.getFileAttributes(op.path);
+                        break;
+                    case CompoundOperation.LIST:
+                        result.results[i] = server.list(op.path);
+                        break;
+                    case CompoundOperation.OPEN:
+                        if (file != null) {
+                            file.close();
+                            file = null;
+                        }
+                        accessor = null;
+                        Set<? extends OpenOption> options = (op.options != null ? op.options :
+                                EnumSet.of(StandardOpenOption.READ));
+                        if (isClosedLater(operations, i)) {
+                            file = server.openFile(pid, op.path, options);
+                        } else {
+                            accessor = server.getRemoteFileAccessor(pid, op.path, options);
+                            accessorIndex = i;
+                            result.results[i] = accessor;
+                        }
+                        break;
+                    case CompoundOperation.READ:
+                        if (file != null) {
+                            result.results[i] = file.read(op.len);
+                        } else if (accessor != null) {
+                            result.results[i] = accessor.read(pid, op.len);
+                        } else {
+                            throw new IllegalStateException("READ without an open file");
+                        }
+                        break;
+                    case CompoundOperation.READ_INLINE:
+                        result.results[i] = readInline(server, pid, op);
+                        break;
+                    case CompoundOperation.CLOSE:
+                        if (file != null) {
+                            file.close();
+                            file = null;
+                        } else if (accessor != null) {
+                            accessor.close();
+                            result.results[accessorIndex] = null;
+                            accessor = null;
+                        } else {
+                            throw new IllegalStateException("CLOSE without an open file");
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown compound operation: " + op.op);
+                }
+                result.completed = i + 1;
+            }
+        } catch (Exception e) {
+            result.failure = e;
+        } finally {
+            if (file != null) {
+                // The request failed before the file was closed
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    FileSystemServer.logger.warning("Failed to close " + file + ": " + e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the file opened by operations[openIndex] is closed before another file is opened
+     */
+    private static boolean isClosedLater(CompoundOperation[] operations, int openIndex) {
+        for (int i = openIndex + 1; i < operations.length; i++) {
+            if (operations[i].op == CompoundOperation.CLOSE) {
+                return true;
+            }
+            if (operations[i].op == CompoundOperation.OPEN) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] readInline(FileSystemServer server, int pid, CompoundOperation op) throws IOException {
+        if (op.len < 0 || op.len > CompoundOperation.MAX_INLINE_SIZE) {
+            throw new IllegalArgumentException("Inline size limit out of range: " + op.len);
+        }
+        DirectoryFileData attributes = server.getFileAttributes(op.path);
+        if (attributes.type != DirectoryFileData.FileType.FILE || attributes.length > op.len) {
+            return null;
+        }
+
+        OpenFile f = server.openFile(pid, op.path, EnumSet.of(StandardOpenOption.READ));
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream((int) attributes.length);
+            byte[] b;
+            while ((b = f.read(INLINE_READ_SIZE)) != null) {
+                content.write(b, 0, b.length);
+                if (content.size() > op.len) {
+                    return null; // The file has grown since its attributes were read
+                }
+            }
+            return content.toByteArray();
+        } finally {
+            f.close();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Executes a sequence of file operations in one call, in the style of an NFSv4 COMPOUND request, so that a client
+ * can look up, stat, open and read a small file with one round trip instead of five. The operations are executed in
+ * order, and execution stops at the first operation that fails.
+ */
+public interface CompoundNameSpace extends Remote {
+
+    /**
+     * A file that is opened and closed within the request is read without exporting an accessor for it. A file that
+     * is still open at the end of the request is returned as the result of its OPEN, and the client must close it.
+     *
+     * @param pid the process the files are opened for
+     * @param operations
+     * @return the results, including the failure of the operation that stopped the request, if any
+     * @throws RemoteException
+     */
+    CompoundResult execute(int pid, CompoundOperation[] operations) throws RemoteException;
+}
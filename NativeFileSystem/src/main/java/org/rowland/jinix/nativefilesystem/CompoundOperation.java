@@ -0,0 +1,71 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.Serializable;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * One operation of a request to a CompoundNameSpace. READ and CLOSE operate on the file opened by the most recent
+ * OPEN in the same request.
+ */
+public class CompoundOperation implements Serializable {
+
+    public static final int LOOKUP = 0; // Fails with NoSuchFileException if path does not exist. Result: null
+    public static final int GETATTR = 1; // Result: DirectoryFileData
+    public static final int LIST = 2; // Result: String[], null if path is not a directory
+    public static final int OPEN = 3; // Result: RemoteFileAccessor, or null if the file is closed by a later CLOSE
+    public static final int READ = 4; // Read up to len bytes. Result: byte[], or null at the end of the file
+    public static final int READ_INLINE = 5; // Result: the whole content of path as byte[] if its length is at most len, or null
+    public static final int CLOSE = 6; // Result: null
+
+    public static final int MAX_INLINE_SIZE = 1024 * 1024;
+
+    public int op;
+    public String path;
+    public Set<? extends OpenOption> options;
+    public int len;
+
+    public CompoundOperation(int op, String path, Set<? extends OpenOption> options, int len) {
+        this.op = op;
+        this.path = path;
+        this.options = options;
+        this.len = len;
+    }
+
+    public static CompoundOperation lookup(String path) {
+        return new CompoundOperation(LOOKUP, path, null, 0);
+    }
+
+    public static CompoundOperation getAttributes(String path) {
+        return new CompoundOperation(GETATTR, path, null, 0);
+    }
+
+    public static CompoundOperation list(String path) {
+        return new CompoundOperation(LIST, path, null, 0);
+    }
+
+    public static CompoundOperation open(String path, Set<? extends OpenOption> options) {
+        return new CompoundOperation(OPEN, path, options, 0);
+    }
+
+    public static CompoundOperation open(String path) {
+        return open(path, EnumSet.of(StandardOpenOption.READ));
+    }
+
+    public static CompoundOperation read(int len) {
+        return new CompoundOperation(READ, null, null, len);
+    }
+
+    /**
+     * @param maxSize the largest file to return, at most MAX_INLINE_SIZE
+     */
+    public static CompoundOperation readInline(String path, int maxSize) {
+        return new CompoundOperation(READ_INLINE, path, null, maxSize);
+    }
+
+    public static CompoundOperation close() {
+        return new CompoundOperation(CLOSE, null, null, 0);
+    }
+}
@@ -0,0 +1,15 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.Serializable;
+
+/**
+ * The results of a request to a CompoundNameSpace. results[i] is the result of operation i, for each of the first
+ * completed operations. If an operation failed, failure is the exception it failed with, and the operations after it
+ * were not executed.
+ */
+public class CompoundResult implements Serializable {
+
+    public int completed;
+    public Object[] results;
+    public Exception failure;
+}
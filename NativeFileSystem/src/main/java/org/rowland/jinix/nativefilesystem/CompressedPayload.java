@@ -0,0 +1,19 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.Serializable;
+
+/**
+ * Bytes transferred through a RemoteCompressedFileAccessor. data holds length bytes encoded with codec.
+ */
+public class CompressedPayload implements Serializable {
+
+    public int codec;
+    public int length; // The uncompressed length
+    public byte[] data;
+
+    public CompressedPayload(int codec, int length, byte[] data) {
+        this.codec = codec;
+        this.length = length;
+        this.data = data;
+    }
+}
@@ -0,0 +1,262 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Computes the digests returned by FileSystemServer.digest() over memory mappings of the file. CRC32C and the tree
+ * hash are computed in parallel chunks on the server's worker pool; the chunk CRCs are combined, and the chunk
+ * digests are hashed again. SHA-256 is inherently sequential, so it is computed on the calling thread. Results are
+ * cached by file key, modification time and size, so a changed file is hashed again.
+ */
+class ContentDigester {
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int PARALLEL_THRESHOLD = 4 * CHUNK_SIZE;
+    private static final int MAX_CACHED_DIGESTS = 4096;
+    private static final int CRC32C_POLYNOMIAL = 0x82F63B78; // reversed
+
+    private final ForkJoinPool pool;
+    private final Map<String, byte[]> digestCache = new LinkedHashMap<String, byte[]>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > MAX_CACHED_DIGESTS;
+        }
+    };
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong bytesHashed = new AtomicLong();
+
+    ContentDigester(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    byte[] digest(Path file, String algorithm, long offset, long length) throws IOException {
+        if (!FileDigestNameSpace.CRC32C.equals(algorithm) && !FileDigestNameSpace.SHA_256.equals(algorithm) &&
+                !FileDigestNameSpace.TREE_SHA_256.equals(algorithm)) {
+            throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm);
+        }
+
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (offset < 0 || offset > attributes.size()) {
+            throw new IllegalArgumentException("Digest offset outside of file: " + offset);
+        }
+        long end = (length < 0 ? attributes.size() : Math.min(attributes.size(), offset + length));
+
+        Object fileKey = attributes.fileKey();
+        String cacheKey = null;
+        if (fileKey != null) {
+            cacheKey = fileKey + "|" + attributes.lastModifiedTime().toMillis() + "|" + attributes.size() + "|" +
+                    algorithm + "|" + offset + "|" + end;
+            synchronized (digestCache) {
+                byte[] cached = digestCache.get(cacheKey);
+                if (cached != null) {
+                    cacheHits.incrementAndGet();
+                    return cached.clone();
+                }
+            }
+        }
+
+        byte[] result;
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            switch (algorithm) {
+                case FileDigestNameSpace.CRC32C:
+                    result = crc32c(fc, offset, end);
+                    break;
+                case FileDigestNameSpace.SHA_256:
+                    result = sha256(fc, offset, end);
+                    break;
+                default:
+                    result = treeSha256(fc, offset, end);
+                    break;
+            }
+        }
+        bytesHashed.addAndGet(end - offset);
+
+        if (cacheKey != null) {
+            synchronized (digestCache) {
+                digestCache.put(cacheKey, result.clone());
+            }
+        }
+        return result;
+    }
+
+    long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    long getBytesHashed() {
+        return bytesHashed.get();
+    }
+
+    private byte[] crc32c(FileChannel fc, long offset, long end) throws IOException {
+        List<ForkJoinTask<Integer>> chunks = new ArrayList<>();
+        List<Long> chunkLengths = new ArrayList<>();
+        boolean parallel = (end - offset >= PARALLEL_THRESHOLD);
+        for (long p = offset; p < end; p += CHUNK_SIZE) {
+            long position = p;
+            long chunkLength = Math.min(CHUNK_SIZE, end - p);
+            ForkJoinTask<Integer> task = ForkJoinTask.adapt(() -> {
+                CRC32C crc = new CRC32C();
+                crc.update(fc.map(FileChannel.MapMode.READ_ONLY, position, chunkLength));
+                return (int) crc.getValue();
+            });
+            chunks.add(parallel ? pool.submit(task) : task);
+            chunkLengths.add(chunkLength);
+        }
+
+        try {
+            int crc = (int) new CRC32C().getValue();
+            for (int i = 0; i < chunks.size(); i++) {
+                int chunkCrc = joinChunk(chunks.get(i), parallel);
+                crc = (i == 0 ? chunkCrc : crc32cCombine(crc, chunkCrc, chunkLengths.get(i)));
+            }
+            return ByteBuffer.allocate(4).putInt(crc).array();
+        } finally {
+            cancelChunks(chunks);
+        }
+    }
+
+    private byte[] sha256(FileChannel fc, long offset, long end) throws IOException {
+        MessageDigest md = newSha256();
+        for (long p = offset; p < end; p += CHUNK_SIZE) {
+            md.update(fc.map(FileChannel.MapMode.READ_ONLY, p, Math.min(CHUNK_SIZE, end - p)));
+        }
+        return md.digest();
+    }
+
+    private byte[] treeSha256(FileChannel fc, long offset, long end) throws IOException {
+        List<ForkJoinTask<byte[]>> chunks = new ArrayList<>();
+        boolean parallel = (end - offset >= PARALLEL_THRESHOLD);
+        for (long p = offset; p < end; p += CHUNK_SIZE) {
+            long position = p;
+            long chunkLength = Math.min(CHUNK_SIZE, end - p);
+            ForkJoinTask<byte[]> task = ForkJoinTask.adapt(() -> {
+                MessageDigest md = newSha256();
+                md.update(fc.map(FileChannel.MapMode.READ_ONLY, position, chunkLength));
+                return md.digest();
+            });
+            chunks.add(parallel ? pool.submit(task) : task);
+        }
+
+        try {
+            MessageDigest root = newSha256();
+            for (ForkJoinTask<byte[]> chunk : chunks) {
+                root.update(joinChunk(chunk, parallel));
+            }
+            return root.digest();
+        } finally {
+            cancelChunks(chunks);
+        }
+    }
+
+    /**
+     * Each chunk is mapped by its own task, so only the chunks that are being hashed are mapped at once, and a
+     * mapping can be released as soon as its chunk is done.
+     */
+    private static <T> T joinChunk(ForkJoinTask<T> task, boolean parallel) throws IOException {
+        if (!parallel) {
+            task.quietlyInvoke();
+        }
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            // An IOException from map() is wrapped by the adapted task
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof IOException) {
+                    throw (IOException) t;
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Cancel the chunks that have not run when the digest fails, before the channel is closed.
+     */
+    private static void cancelChunks(List<? extends ForkJoinTask<?>> chunks) {
+        for (ForkJoinTask<?> chunk : chunks) {
+            chunk.cancel(false);
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Combine the CRC32C of two adjacent blocks into the CRC32C of their concatenation. This is the GF(2) matrix method
+     * used by zlib's crc32_combine(), with the CRC32C polynomial.
+     */
+    static int crc32cCombine(int crc1, int crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+
+        int[] even = new int[32];
+        int[] odd = new int[32];
+
+        odd[0] = CRC32C_POLYNOMIAL; // operator for one zero bit
+        int row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd); // two zero bits
+        gf2MatrixSquare(odd, even); // four zero bits
+
+        // Apply len2 zero bytes to crc1, the first square puts the operator for one zero byte in even
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static int gf2MatrixTimes(int[] mat, int vec) {
+        int sum = 0;
+        for (int i = 0; vec != 0; i++, vec >>>= 1) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(int[] square, int[] mat) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+}
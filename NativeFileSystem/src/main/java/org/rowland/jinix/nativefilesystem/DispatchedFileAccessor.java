@@ -0,0 +1,117 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.io.BaseRemoteFileHandleImpl;
+import org.rowland.jinix.naming.FileAccessorStatistics;
+import org.rowland.jinix.naming.FileNameSpace;
+import org.rowland.jinix.naming.RemoteFileHandle;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+
+/**
+ * A RemoteFileAccessor for clients that do not use the FileHandleDispatcher directly. The accessor is not a remote
+ * object. It is passed to the client by value and forwards each call to the dispatcher with its handle, so that
+ * getRemoteFileAccessor() does not export an object for each open file. Calls are made with the pid of the process
+ * that opened the file, so the accessor keeps working when it is passed to another process.
+ */
+public class DispatchedFileAccessor implements RemoteAppendFileAccessor, RemotePreallocatingFileAccessor,
+        FileAccessorStatistics, Serializable {
+
+    private final FileHandleDispatcher dispatcher;
+    private final FileNameSpace nameSpace;
+    private final long handle;
+    private final int pid;
+    private final String jinixPath;
+
+    DispatchedFileAccessor(FileHandleDispatcher dispatcher, FileNameSpace nameSpace, long handle, int pid,
+                           String jinixPath) {
+        this.dispatcher = dispatcher;
+        this.nameSpace = nameSpace;
+        this.handle = handle;
+        this.pid = pid;
+        this.jinixPath = jinixPath;
+    }
+
+    long getHandle() {
+        return handle;
+    }
+
+    int getPid() {
+        return pid;
+    }
+
+    @Override
+    public RemoteFileHandle getRemoteFileHandle() throws RemoteException {
+        return new BaseRemoteFileHandleImpl(nameSpace, jinixPath);
+    }
+
+    @Override
+    public byte[] read(int pid, int len) throws RemoteException {
+        return dispatcher.read(this.pid, handle, len);
+    }
+
+    @Override
+    public int write(int pid, byte[] b) throws RemoteException {
+        return dispatcher.write(this.pid, handle, b);
+    }
+
+    @Override
+    public long append(int pid, byte[] b, boolean force) throws RemoteException {
+        return dispatcher.append(this.pid, handle, b, force);
+    }
+
+    @Override
+    public long skip(long n) throws RemoteException {
+        return dispatcher.skip(this.pid, handle, n);
+    }
+
+    @Override
+    public int available() throws RemoteException {
+        return dispatcher.available(this.pid, handle);
+    }
+
+    @Override
+    public long getFilePointer() throws RemoteException {
+        return dispatcher.getFilePointer(this.pid, handle);
+    }
+
+    @Override
+    public void seek(long l) throws RemoteException {
+        dispatcher.seek(this.pid, handle, l);
+    }
+
+    @Override
+    public long length() throws RemoteException {
+        return dispatcher.length(this.pid, handle);
+    }
+
+    @Override
+    public void setLength(long l) throws RemoteException {
+        dispatcher.setLength(this.pid, handle, l);
+    }
+
+    @Override
+    public long setPreallocation(long increment) throws RemoteException {
+        return dispatcher.setPreallocation(this.pid, handle, increment);
+    }
+
+    @Override
+    public void close() throws RemoteException {
+        dispatcher.close(this.pid, handle);
+    }
+
+    @Override
+    public void duplicate() throws RemoteException {
+        dispatcher.duplicate(this.pid, handle);
+    }
+
+    @Override
+    public void force(boolean metaData) throws RemoteException {
+        dispatcher.force(this.pid, handle, metaData);
+    }
+
+    @Override
+    public String getAbsolutePathName() throws RemoteException {
+        return jinixPath;
+    }
+}
@@ -0,0 +1,20 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.Serializable;
+
+/**
+ * A change to a file in a directory watched through FileChangeNameSpace. An OVERFLOW event means that changes were
+ * lost, and the client must assume that anything in the directory may have changed. Its path is the directory.
+ */
+public class FileChangeEvent implements Serializable {
+
+    public enum Kind {CREATE, MODIFY, DELETE, OVERFLOW}
+
+    public Kind kind;
+    public String path;
+
+    public FileChangeEvent(Kind kind, String path) {
+        this.kind = kind;
+        this.path = path;
+    }
+}
@@ -0,0 +1,29 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Lets clients subscribe to changes to the files in a directory instead of polling for them.
+ */
+public interface FileChangeNameSpace extends Remote {
+
+    /**
+     * Subscribe to the creation, modification and deletion of the entries of a directory. Changes are delivered to
+     * the handler in batches, with several changes to the same file coalesced. A handler that throws a
+     * RemoteException is unsubscribed.
+     *
+     * @param directoryPathName the directory to watch. Changes in its subdirectories are not reported.
+     * @param handler the remote handler to deliver the changes to
+     * @return a subscription ID for unsubscribe()
+     * @throws NoSuchFileException
+     * @throws NotDirectoryException
+     * @throws RemoteException
+     */
+    long subscribe(String directoryPathName, FileChangeNotificationHandler handler)
+            throws NoSuchFileException, NotDirectoryException, RemoteException;
+
+    void unsubscribe(long subscriptionId) throws RemoteException;
+}
@@ -0,0 +1,12 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Implemented by clients of FileChangeNameSpace to receive file change events.
+ */
+public interface FileChangeNotificationHandler extends Remote {
+
+    void handleFileChanges(long subscriptionId, FileChangeEvent[] events) throws RemoteException;
+}
@@ -0,0 +1,278 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+
+/**
+ * Delivers the changes to watched directories to their FileChangeNotificationHandlers. Changes come from a
+ * WatchService on the underlying file system, which catches changes made outside of the server, and directly from
+ * the server's own mutation paths, which are seen without the WatchService latency. Each subscription collects its
+ * changes for a short batch window, coalescing repeated changes to the same file, and then delivers them in one call.
+ */
+class FileChangeNotifier {
+
+    private static final long BATCH_WINDOW_MILLIS = 50;
+
+    private final Map<String, DirectoryWatch> watchMap = new ConcurrentHashMap<>(); // keyed by Jinix directory path
+    private final Map<WatchKey, DirectoryWatch> watchKeyMap = new ConcurrentHashMap<>();
+    private final Map<Long, Subscription> subscriptionMap = new ConcurrentHashMap<>();
+    private final AtomicLong nextSubscriptionId = new AtomicLong();
+    private volatile int subscriptionCount;
+    private volatile BiConsumer<String, FileChangeEvent.Kind> changeListener;
+
+    private WatchService watchService;
+    private Thread watchThread;
+    private final ScheduledExecutorService dispatcher;
+
+    FileChangeNotifier() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        dispatcher = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "fs-notify-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    synchronized long subscribe(String jinixDirectory, Path nativeDirectory, FileChangeNotificationHandler handler)
+            throws IOException {
+        String dir = normalize(jinixDirectory);
+        if (watchService == null) {
+            watchService = nativeDirectory.getFileSystem().newWatchService();
+            watchThread = new Thread(this::watch, "fs-watch");
+            watchThread.setDaemon(true);
+            watchThread.start();
+        }
+
+        DirectoryWatch watch = watchMap.get(dir);
+        if (watch == null) {
+            WatchKey key = nativeDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watch = new DirectoryWatch(dir, key);
+            watchMap.put(dir, watch);
+            watchKeyMap.put(key, watch);
+        }
+
+        Subscription s = new Subscription(nextSubscriptionId.incrementAndGet(), watch, handler);
+        watch.subscriptions.add(s);
+        subscriptionMap.put(s.id, s);
+        subscriptionCount++;
+        return s.id;
+    }
+
+    synchronized void unsubscribe(long subscriptionId) {
+        Subscription s = subscriptionMap.remove(subscriptionId);
+        if (s == null) {
+            return;
+        }
+        subscriptionCount--;
+        s.watch.subscriptions.remove(s);
+        if (s.watch.subscriptions.isEmpty()) {
+            s.watch.key.cancel();
+            watchMap.remove(s.watch.directory);
+            watchKeyMap.remove(s.watch.key);
+        }
+    }
+
+    /**
+     * Set a listener that is called synchronously for every change, whether or not the changed directory is watched.
+     * Changes made by other means are only seen while a directory is watched through the WatchService.
+     */
+    void setChangeListener(BiConsumer<String, FileChangeEvent.Kind> listener) {
+        changeListener = listener;
+    }
+
+    /**
+     * Report a change made through the server. Cheap when nothing is subscribed.
+     */
+    void notifyChange(String jinixPath, FileChangeEvent.Kind kind) {
+        BiConsumer<String, FileChangeEvent.Kind> listener = changeListener;
+        if (listener != null) {
+            listener.accept(jinixPath, kind);
+        }
+        if (subscriptionCount == 0) {
+            return;
+        }
+        int slash = jinixPath.lastIndexOf('/');
+        String dir = (slash <= 0 ? "/" : jinixPath.substring(0, slash));
+        DirectoryWatch watch = watchMap.get(dir);
+        if (watch != null) {
+            watch.post(normalize(jinixPath), kind);
+        }
+    }
+
+    synchronized void shutdown() {
+        dispatcher.shutdownNow();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // Ignore on shutdown
+            }
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                DirectoryWatch watch = watchKeyMap.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (watch == null) {
+                        continue;
+                    }
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        post(watch, watch.directory, FileChangeEvent.Kind.OVERFLOW);
+                        continue;
+                    }
+                    String name = ((Path) event.context()).toString();
+                    String path = (watch.directory.equals("/") ? "/" + name : watch.directory + "/" + name);
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        post(watch, path, FileChangeEvent.Kind.CREATE);
+                    } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        post(watch, path, FileChangeEvent.Kind.DELETE);
+                    } else {
+                        post(watch, path, FileChangeEvent.Kind.MODIFY);
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
+        }
+    }
+
+    private void post(DirectoryWatch watch, String path, FileChangeEvent.Kind kind) {
+        BiConsumer<String, FileChangeEvent.Kind> listener = changeListener;
+        if (listener != null) {
+            listener.accept(path, kind);
+        }
+        watch.post(path, kind);
+    }
+
+    private static String normalize(String jinixPath) {
+        if (jinixPath.length() > 1 && jinixPath.endsWith("/")) {
+            return jinixPath.substring(0, jinixPath.length() - 1);
+        }
+        return jinixPath;
+    }
+
+    /**
+     * The combined effect of two changes to the same file, or null if they cancel out.
+     */
+    static FileChangeEvent.Kind coalesce(FileChangeEvent.Kind previous, FileChangeEvent.Kind next) {
+        if (previous == null) {
+            return next;
+        }
+        switch (previous) {
+            case CREATE:
+                return (next == FileChangeEvent.Kind.DELETE ? null : FileChangeEvent.Kind.CREATE);
+            case DELETE:
+                return (next == FileChangeEvent.Kind.DELETE ? FileChangeEvent.Kind.DELETE : FileChangeEvent.Kind.MODIFY);
+            default:
+                return (next == FileChangeEvent.Kind.DELETE ? FileChangeEvent.Kind.DELETE : FileChangeEvent.Kind.MODIFY);
+        }
+    }
+
+    private class DirectoryWatch {
+        final String directory;
+        final WatchKey key;
+        final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+        DirectoryWatch(String directory, WatchKey key) {
+            this.directory = directory;
+            this.key = key;
+        }
+
+        void post(String path, FileChangeEvent.Kind kind) {
+            for (Subscription s : subscriptions) {
+                s.post(path, kind);
+            }
+        }
+    }
+
+    private class Subscription {
+        final long id;
+        final DirectoryWatch watch;
+        final FileChangeNotificationHandler handler;
+        private Map<String, FileChangeEvent.Kind> pending = new LinkedHashMap<>();
+        private boolean overflow;
+        private boolean scheduled;
+
+        Subscription(long id, DirectoryWatch watch, FileChangeNotificationHandler handler) {
+            this.id = id;
+            this.watch = watch;
+            this.handler = handler;
+        }
+
+        synchronized void post(String path, FileChangeEvent.Kind kind) {
+            if (kind == FileChangeEvent.Kind.OVERFLOW) {
+                overflow = true;
+                pending.clear();
+            } else if (!overflow) {
+                FileChangeEvent.Kind coalesced = coalesce(pending.get(path), kind);
+                if (coalesced == null) {
+                    pending.remove(path);
+                } else {
+                    pending.put(path, coalesced);
+                }
+            }
+            if (!scheduled) {
+                scheduled = true;
+                dispatcher.schedule(this::deliver, BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Deliver the pending changes. scheduled stays set until the handler returns, so that batches for a
+         * subscription are never delivered concurrently or out of order.
+         */
+        private void deliver() {
+            List<FileChangeEvent> events = new ArrayList<>();
+            synchronized (this) {
+                if (overflow) {
+                    events.add(new FileChangeEvent(FileChangeEvent.Kind.OVERFLOW, watch.directory));
+                    overflow = false;
+                }
+                for (Map.Entry<String, FileChangeEvent.Kind> e : pending.entrySet()) {
+                    events.add(new FileChangeEvent(e.getValue(), e.getKey()));
+                }
+                pending = new LinkedHashMap<>();
+            }
+            try {
+                if (!events.isEmpty()) {
+                    handler.handleFileChanges(id, events.toArray(new FileChangeEvent[0]));
+                }
+            } catch (RemoteException e) {
+                FileSystemServer.logger.log(Level.FINE, "Dropping file change subscription " + id, e);
+                unsubscribe(id);
+                return;
+            }
+            synchronized (this) {
+                scheduled = false;
+                if (overflow || !pending.isEmpty()) {
+                    scheduled = true;
+                    dispatcher.schedule(this::deliver, BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.nio.file.NoSuchFileException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Computes digests of file content on the server, so that clients can verify or compare files without reading them.
+ */
+public interface FileDigestNameSpace extends Remote {
+
+    String CRC32C = "CRC32C";
+    String SHA_256 = "SHA-256";
+    String TREE_SHA_256 = "TREE-SHA-256"; // SHA-256 of the SHA-256 digests of each 1MB chunk of the range
+
+    /**
+     * Compute the digest of a range of a file.
+     *
+     * @param filePathName the file
+     * @param algorithm CRC32C (returned as 4 big-endian bytes), SHA-256 or TREE-SHA-256
+     * @param offset the start of the range
+     * @param length the length of the range, or -1 for the rest of the file
+     * @return the digest
+     * @throws NoSuchFileException
+     * @throws IllegalArgumentException if the algorithm is not supported
+     * @throws RemoteException
+     */
+    byte[] digest(String filePathName, String algorithm, long offset, long length)
+            throws NoSuchFileException, RemoteException;
+}
@@ -0,0 +1,64 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.Set;
+
+/**
+ * Opens files in a file system and serves their reads and writes by handle. Opening and closing a file through the
+ * dispatcher does not export or unexport a remote object, so it is much cheaper than getRemoteFileAccessor() for
+ * short lived files. A handle combines a slot in the dispatcher's handle table with a random tag that changes each
+ * time the slot is reused, so a handle that has been closed is never mistaken for a later open file, and handles
+ * cannot be guessed. A handle can only be used with the pid of the process that opened it. Operations on a closed
+ * handle, or with another pid, throw IllegalArgumentException.
+ *
+ * Handles are not reclaimed by distributed garbage collection, they must be closed.
+ */
+public interface FileHandleDispatcher extends Remote {
+
+    /**
+     * Open a file, with the same options as FileNameSpace.getRemoteFileAccessor().
+     *
+     * @return the handle of the open file
+     */
+    long open(int pid, String name, Set<? extends OpenOption> options)
+            throws FileAlreadyExistsException, NoSuchFileException, RemoteException;
+
+    byte[] read(int pid, long handle, int len) throws RemoteException;
+
+    int write(int pid, long handle, byte[] b) throws RemoteException;
+
+    /**
+     * Append to a file opened with APPEND, as RemoteAppendFileAccessor.append().
+     */
+    long append(int pid, long handle, byte[] b, boolean force) throws RemoteException;
+
+    long skip(int pid, long handle, long n) throws RemoteException;
+
+    int available(int pid, long handle) throws RemoteException;
+
+    long getFilePointer(int pid, long handle) throws RemoteException;
+
+    void seek(int pid, long handle, long l) throws RemoteException;
+
+    long length(int pid, long handle) throws RemoteException;
+
+    void setLength(int pid, long handle, long l) throws RemoteException;
+
+    /**
+     * Set the preallocation increment of a file opened for WRITE, as RemotePreallocatingFileAccessor.setPreallocation().
+     */
+    long setPreallocation(int pid, long handle, long increment) throws RemoteException;
+
+    void force(int pid, long handle, boolean metaData) throws RemoteException;
+
+    /**
+     * Add a reference to the handle. The file is closed when each reference has been closed.
+     */
+    void duplicate(int pid, long handle) throws RemoteException;
+
+    void close(int pid, long handle) throws RemoteException;
+}
@@ -0,0 +1,234 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.JinixKernelUnicastRemoteObject;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.rmi.RemoteException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The FileHandleDispatcher of a FileSystemServer. It is exported once, when the server starts, and serves every file
+ * opened through it from its FileHandleTable.
+ */
+class FileHandleDispatcherServer extends JinixKernelUnicastRemoteObject implements FileHandleDispatcher {
+
+    private FileSystemServer server;
+    private FileHandleTable table;
+
+    private final AtomicLong opens = new AtomicLong();
+
+    FileHandleDispatcherServer(FileSystemServer server, int capacity) throws RemoteException {
+        super();
+        this.server = server;
+        this.table = new FileHandleTable(capacity);
+    }
+
+    @Override
+    public long open(int pid, String name, Set<? extends OpenOption> options)
+            throws FileAlreadyExistsException, NoSuchFileException, RemoteException {
+        return openAccessor(pid, name, options).getHandle();
+    }
+
+    /**
+     * Open a file, returning an accessor that serves it through this dispatcher.
+     */
+    DispatchedFileAccessor openAccessor(int pid, String name, Set<? extends OpenOption> options)
+            throws FileAlreadyExistsException, NoSuchFileException, RemoteException {
+        OpenFile file;
+        try {
+            file = server.openFile(pid, name, options);
+        } catch (FileAlreadyExistsException | NoSuchFileException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+
+        FileHandleTable.Entry e = table.add(file, pid);
+        if (e == null) {
+            try {
+                file.close();
+            } catch (IOException e1) {
+                // Ignore, the table full failure is reported
+            }
+            throw new RemoteException("File handle table full: " + table.getCapacity() + " files open");
+        }
+        e.accessor = new DispatchedFileAccessor(this, server, e.handle, pid, name);
+        server.addOpenFile(pid, e.accessor);
+        opens.incrementAndGet();
+        return e.accessor;
+    }
+
+    /**
+     * Get the entry of an open handle. A handle used by a process other than the one that opened it is treated as
+     * invalid, so that a process cannot tell whether another process's handle is open.
+     */
+    private FileHandleTable.Entry getEntry(int pid, long handle) {
+        FileHandleTable.Entry e = table.get(handle);
+        if (e == null || e.pid != pid) {
+            throw new IllegalArgumentException("Invalid file handle: " + Long.toHexString(handle));
+        }
+        return e;
+    }
+
+    @Override
+    public byte[] read(int pid, long handle, int len) throws RemoteException {
+        try {
+            return getEntry(pid, handle).file.read(len);
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public int write(int pid, long handle, byte[] b) throws RemoteException {
+        try {
+            return getEntry(pid, handle).file.write(b);
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public long append(int pid, long handle, byte[] b, boolean force) throws RemoteException {
+        try {
+            return getEntry(pid, handle).file.append(b, force);
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public long skip(int pid, long handle, long n) throws RemoteException {
+        try {
+            return getEntry(pid, handle).file.skip(n);
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public int available(int pid, long handle) throws RemoteException {
+        try {
+            return getEntry(pid, handle).file.available();
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public long getFilePointer(int pid, long handle) throws RemoteException {
+        try {
+            return getEntry(pid, handle).file.getFilePointer();
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public void seek(int pid, long handle, long l) throws RemoteException {
+        try {
+            getEntry(pid, handle).file.seek(l);
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public long length(int pid, long handle) throws RemoteException {
+        try {
+            return getEntry(pid, handle).file.length();
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public void setLength(int pid, long handle, long l) throws RemoteException {
+        try {
+            getEntry(pid, handle).file.setLength(l);
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public long setPreallocation(int pid, long handle, long increment) throws RemoteException {
+        try {
+            return getEntry(pid, handle).file.setPreallocation(increment);
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public void force(int pid, long handle, boolean metaData) throws RemoteException {
+        try {
+            getEntry(pid, handle).file.force(metaData);
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public void duplicate(int pid, long handle) throws RemoteException {
+        FileHandleTable.Entry e = getEntry(pid, handle);
+        synchronized (e) {
+            if (e.openCount == 0) {
+                throw new IllegalArgumentException("Invalid file handle: " + Long.toHexString(handle));
+            }
+            e.openCount++;
+        }
+    }
+
+    @Override
+    public void close(int pid, long handle) throws RemoteException {
+        FileHandleTable.Entry e = table.get(handle);
+        if (e == null) {
+            return; // Already closed
+        }
+        if (e.pid != pid) {
+            throw new IllegalArgumentException("Invalid file handle: " + Long.toHexString(handle));
+        }
+        synchronized (e) {
+            if (e.openCount == 0 || --e.openCount > 0) {
+                return;
+            }
+        }
+        table.remove(e);
+        try {
+            closeFile(e);
+        } catch (IOException e1) {
+            throw new RemoteException("Internal error", e1);
+        }
+    }
+
+    private void closeFile(FileHandleTable.Entry e) throws IOException {
+        try {
+            e.file.close();
+        } finally {
+            server.removeOpenFile(e.accessor.getPid(), e.accessor);
+        }
+    }
+
+    /**
+     * Close every open handle and unexport the dispatcher.
+     */
+    void shutdown() {
+        for (FileHandleTable.Entry e : table.removeAll()) {
+            try {
+                closeFile(e);
+            } catch (IOException e1) {
+                FileSystemServer.logger.warning("Failed to close " + e.file + ": " + e1);
+            }
+        }
+        unexport();
+    }
+
+    long getOpenCount() {
+        return opens.get();
+    }
+}
@@ -0,0 +1,13 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * A file system whose open files can be accessed through compact integer handles on a single long lived remote
+ * object, instead of through a remote object exported for each open file.
+ */
+public interface FileHandleNameSpace extends Remote {
+
+    FileHandleDispatcher getFileHandleDispatcher() throws RemoteException;
+}
@@ -0,0 +1,111 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The open files of a FileHandleDispatcher, indexed by handle. The low 32 bits of a handle are its slot in the
+ * table, and the high 32 bits are a random tag that is drawn each time the slot is allocated, and is never the tag
+ * the slot had before. Slots are dense, so the tag is what keeps a process from guessing the handles of files that
+ * it did not open. Adding, finding and removing entries do not lock.
+ */
+class FileHandleTable {
+
+    static final int DEFAULT_CAPACITY = 65536;
+    static final int MAX_CAPACITY = 1024 * 1024; // The table's arrays are allocated up front
+
+    private final int capacity;
+    private final AtomicReferenceArray<Entry> entries;
+    private final AtomicIntegerArray tags;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentLinkedDeque<Integer> freeSlots = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger nextSlot = new AtomicInteger();
+
+    FileHandleTable(int capacity) {
+        this.capacity = capacity;
+        this.entries = new AtomicReferenceArray<>(capacity);
+        this.tags = new AtomicIntegerArray(capacity);
+    }
+
+    /**
+     * @return the new entry, or null if the table is full
+     */
+    Entry add(OpenFile file, int pid) {
+        Integer slot = freeSlots.poll();
+        if (slot == null) {
+            int s = nextSlot.getAndUpdate(n -> (n < capacity ? n + 1 : n));
+            if (s >= capacity) {
+                return null;
+            }
+            slot = s;
+        }
+        // The slot is not in use, so only this thread updates its tag
+        int previous = tags.get(slot);
+        int tag = random.nextInt();
+        while (tag == previous) {
+            tag = random.nextInt();
+        }
+        tags.set(slot, tag);
+        Entry e = new Entry(file, pid, ((long) tag << 32) | slot);
+        entries.set(slot, e);
+        return e;
+    }
+
+    /**
+     * @return the entry, or null if the handle is not open
+     */
+    Entry get(long handle) {
+        int slot = (int) handle;
+        if (slot < 0 || slot >= capacity) {
+            return null;
+        }
+        Entry e = entries.get(slot);
+        return (e != null && e.handle == handle ? e : null);
+    }
+
+    void remove(Entry e) {
+        int slot = (int) e.handle;
+        if (entries.compareAndSet(slot, e, null)) {
+            freeSlots.push(slot);
+        }
+    }
+
+    /**
+     * Remove every entry from the table.
+     */
+    List<Entry> removeAll() {
+        List<Entry> removed = new ArrayList<>();
+        int limit = nextSlot.get();
+        for (int slot = 0; slot < limit; slot++) {
+            Entry e = entries.getAndSet(slot, null);
+            if (e != null) {
+                removed.add(e);
+                freeSlots.push(slot);
+            }
+        }
+        return removed;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    static class Entry {
+        final OpenFile file;
+        final int pid; // The process that opened the file, the only one that may use the handle
+        final long handle;
+        int openCount = 1; // Guarded by the entry
+        DispatchedFileAccessor accessor;
+
+        private Entry(OpenFile file, int pid, long handle) {
+            this.file = file;
+            this.pid = pid;
+            this.handle = handle;
+        }
+    }
+}
@@ -6,28 +6,30 @@ import org.rowland.jinix.naming.FileAccessorStatistics;
 import org.rowland.jinix.naming.RemoteFileAccessor;
 import org.rowland.jinix.naming.RemoteFileHandle;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.file.*;
-import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.ServerCloneException;
 import java.util.Set;
+import java.util.zip.DataFormatException;
 
 /**
- * A FileChannel server that serves up files from an underlying file system
+ * A FileChannel server that serves up files from an underlying file system. Each FileSystemChannelServer is a remote
+ * object exported for one OpenFile.
  */
 public class FileSystemChannelServer extends JinixKernelUnicastRemoteObject
-        implements RemoteFileAccessor, FileAccessorStatistics {
+        implements RemoteCompressedFileAccessor, RemotePreallocatingFileAccessor, RemoteAppendFileAccessor,
+        FileAccessorStatistics {
 
     protected FileSystemServer server;
     protected int pid;
     protected String jinixPath; // the absolute pathname of the Jinix file
     protected Path filePath; // the absolute pathname of the file in the underlying OS
     protected Set<? extends OpenOption> openOptions;
-    protected java.nio.channels.FileChannel fc;
+    OpenFile file;
+    private volatile boolean compressReads;
+    private WireCompressor wireCompressor;
     private int openCount;
 
     protected FileSystemChannelServer(FileSystemServer server,
@@ -43,7 +45,7 @@ public class FileSystemChannelServer extends JinixKernelUnicastRemoteObject
             this.jinixPath = fullPath;
             this.filePath = path;
             this.openOptions = options;
-            fc = java.nio.channels.FileChannel.open(path, options);
+            this.file = new OpenFile(server, pid, fullPath, path, options);
             this.openCount = 1;
             FileSystemServer.logger.fine("Opening FSCS: " + this.toString());
         } catch (FileAlreadyExistsException | NoSuchFileException e) {
@@ -56,7 +58,7 @@ public class FileSystemChannelServer extends JinixKernelUnicastRemoteObject
     }
 
     public String toString() {
-        return filePath.toString() + (fc != null ? ":" + fc.hashCode() : "");
+        return (file != null ? file.toString() : filePath.toString());
     }
 
     @Override
@@ -65,66 +67,97 @@ public class FileSystemChannelServer extends JinixKernelUnicastRemoteObject
     }
 
     @Override
-    public synchronized byte[] read(int pid, int len) throws RemoteException {
+    public byte[] read(int pid, int len) throws RemoteException {
         try {
-            byte[] b = new byte[len];
-            int r = fc.read(ByteBuffer.wrap(b));
-            if (r == -1) {
-                return null;
-            }
+            return file.read(len);
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
 
-            if (r < len) {
-                byte[] rb = new byte[r];
-                System.arraycopy(b, 0, rb, 0, r);
-                return rb;
-            } else {
-                return b;
-            }
+    @Override
+    public int write(int pid, byte[] b) throws NonWritableChannelException, RemoteException {
+        try {
+            return file.write(b);
         } catch (IOException e) {
             throw new RemoteException("Internal error", e);
         }
     }
 
     @Override
-    public synchronized int write(int pid, byte[] b) throws NonWritableChannelException, RemoteException {
+    public long append(int pid, byte[] b, boolean force) throws RemoteException {
         try {
-            return fc.write(ByteBuffer.wrap(b));
+            return file.append(b, force);
         } catch (IOException e) {
             throw new RemoteException("Internal error", e);
         }
     }
 
     @Override
-    public synchronized long skip(long n) throws RemoteException {
+    public int negotiateCompression(int codec) throws RemoteException {
+        compressReads = (codec == CODEC_DEFLATE);
+        return (compressReads ? CODEC_DEFLATE : CODEC_NONE);
+    }
+
+    @Override
+    public CompressedPayload readCompressed(int pid, int len) throws RemoteException {
+        byte[] b = read(pid, len);
+        if (b == null) {
+            return null;
+        }
+        if (!compressReads) {
+            return new CompressedPayload(CODEC_NONE, b.length, b);
+        }
+        return getWireCompressor().compress(b);
+    }
+
+    @Override
+    public int writeCompressed(int pid, CompressedPayload payload) throws RemoteException {
         try {
-            return fc.position(fc.position()+n).position();
+            return write(pid, getWireCompressor().decompress(payload));
+        } catch (DataFormatException e) {
+            throw new RemoteException("Invalid compressed payload", e);
+        }
+    }
+
+    private synchronized WireCompressor getWireCompressor() {
+        if (wireCompressor == null) {
+            wireCompressor = new WireCompressor();
+        }
+        return wireCompressor;
+    }
+
+    @Override
+    public long skip(long n) throws RemoteException {
+        try {
+            return file.skip(n);
         } catch (IOException e) {
             throw new RemoteException("Internal error", e);
         }
     }
 
     @Override
-    public synchronized int available() throws RemoteException {
+    public int available() throws RemoteException {
         try {
-            return (int) Math.min(fc.size()-fc.position()-1,Integer.MAX_VALUE);
+            return file.available();
         } catch (IOException e) {
             throw new RemoteException("Internal error", e);
         }
     }
 
     @Override
-    public synchronized long getFilePointer() throws RemoteException {
+    public long getFilePointer() throws RemoteException {
         try {
-            return fc.position();
+            return file.getFilePointer();
         } catch (IOException e) {
             throw new RemoteException("Internal error", e);
         }
     }
 
     @Override
-    public synchronized void seek(long l) throws RemoteException {
+    public void seek(long l) throws RemoteException {
         try {
-            fc.position(l);
+            file.seek(l);
         } catch (IOException e) {
             throw new RemoteException("Internal error", e);
         }
@@ -133,16 +166,25 @@ public class FileSystemChannelServer extends JinixKernelUnicastRemoteObject
     @Override
     public long length() throws RemoteException {
         try {
-            return fc.size();
+            return file.length();
         } catch (IOException e) {
             throw new RemoteException("Internal error", e);
         }
     }
 
     @Override
-    public synchronized void setLength(long l) throws RemoteException {
+    public void setLength(long l) throws RemoteException {
         try {
-            fc.position(l);
+            file.setLength(l);
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public long setPreallocation(long increment) throws RemoteException {
+        try {
+            return file.setPreallocation(increment);
         } catch (IOException e) {
             throw new RemoteException("Internal error", e);
         }
@@ -155,7 +197,10 @@ public class FileSystemChannelServer extends JinixKernelUnicastRemoteObject
                 openCount--;
                 if (openCount == 0) {
                     FileSystemServer.logger.fine("Closing FSCS: " + this.toString());
-                    fc.close();
+                    if (wireCompressor != null) {
+                        wireCompressor.end();
+                    }
+                    file.close();
                     if (!unexport()) {
                         FileSystemServer.logger.severe("FSCS unexport failed: "+this.toString());
                     }
@@ -165,7 +210,7 @@ public class FileSystemChannelServer extends JinixKernelUnicastRemoteObject
             throw new RemoteException("Internal error", e);
         } finally {
             if (openCount == 0) {
-                server.removeFileSystemChannelServer(pid, this);
+                server.removeOpenFile(pid, this);
             }
         }
     }
@@ -189,10 +234,14 @@ public class FileSystemChannelServer extends JinixKernelUnicastRemoteObject
         openCount++;
     }
 
+    /**
+     * Not synchronized, so that other operations on this accessor can proceed while the force waits to join a group
+     * commit.
+     */
     @Override
-    public synchronized void force(boolean metaData) throws RemoteException {
+    public void force(boolean metaData) throws RemoteException {
         try {
-            fc.force(metaData);
+            file.force(metaData);
         } catch (IOException e) {
             throw new RemoteException("Internal error", e);
         }
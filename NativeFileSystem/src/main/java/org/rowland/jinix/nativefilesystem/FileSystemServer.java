@@ -9,6 +9,9 @@ import org.rowland.jinix.lang.JinixRuntime;
 import org.rowland.jinix.lang.ProcessSignalHandler;
 import org.rowland.jinix.naming.*;
 import org.rowland.jinix.proc.ProcessManager;
+import org.rowland.jinix.stats.Histogram;
+import org.rowland.jinix.stats.StatsDirectory;
+import org.rowland.jinix.stats.StatsRenderer;
 
 import javax.naming.NamingException;
 import java.io.IOException;
@@ -22,6 +25,9 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.rmi.RemoteException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -30,12 +36,19 @@ import java.util.stream.Stream;
  * Server for FileSystem files. This server overlays an existing file system providing access
  * to its files through the Jinix FileNameSpace interface.
  */
-public class FileSystemServer extends JinixKernelUnicastRemoteObject implements FileNameSpace, RootFileSystem {
+public class FileSystemServer extends JinixKernelUnicastRemoteObject implements FileNameSpace, RootFileSystem,
+        FileTreeNameSpace, FileDigestNameSpace, FileChangeNameSpace, IOPriorityNameSpace, FileHandleNameSpace,
+        CompoundNameSpace, StreamTransferNameSpace, ClasspathNameSpace {
 
     static Logger logger = Logger.getLogger("jinix.nativefilesystem");
     private static FileSystemServer server;
     private static Thread mainThread;
 
+    private static final long TREE_OPERATION_RETENTION_MILLIS = 10 * 60 * 1000;
+    private static final long TREE_WALK_RETENTION_MILLIS = 10 * 60 * 1000;
+    static final String STATS_DIRECTORY = "/.stats";
+    static final long MAX_MEGABYTES_OPTION = Long.MAX_VALUE / (1024 * 1024); // The largest size in MB a byte count holds
+
     private Path f;
     private FileNameSpace parent;
     String attachPointPathWithinParent;
@@ -44,16 +57,179 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
             new HashMap<Integer, List<FileAccessorStatistics>>());
     private List<FileAccessorStatistics> kernelOpenFileList = Collections.synchronizedList(
             new LinkedList<FileAccessorStatistics>());
+    private AtomicLong openFileCount = new AtomicLong();
+    private AtomicLong openedFileCount = new AtomicLong();
+
+    private Map<String, String> mountOptions;
+    AsyncIOEngine asyncIOEngine; // null unless the 'async' mount option is given
+    GroupCommitEngine groupCommitEngine;
+    SharedAppendManager sharedAppendManager = new SharedAppendManager();
+    IOScheduler ioScheduler; // null unless the 'iosched' mount option is given
+    ClassLoadProfileManager classLoadProfileManager; // null unless the 'loadprofile' mount option is given
+    NestedJarCache nestedJarCache;
+    ReadOnlyCache readOnlyCache; // null unless the 'ro' mount option is given
+    PageCache pageCache; // null unless the 'pagecache' mount option is given
+    FileHandleDispatcherServer fileHandleDispatcher;
+    private StreamTransferEngine streamTransferEngine = new StreamTransferEngine(this);
+    private boolean dispatchAccessors; // true when the 'handles' mount option is given
+
+    private ForkJoinPool workerPool = new ForkJoinPool(); // Runs the parallel server side operations
+    private ContentDigester contentDigester = new ContentDigester(workerPool);
+    FileChangeNotifier fileChangeNotifier = new FileChangeNotifier();
+    private AtomicLong nextWalkId = new AtomicLong();
+    private Map<Long, FileTreeWalk> treeWalkMap = new ConcurrentHashMap<>();
+    private AtomicLong nextTreeOperationId = new AtomicLong();
+    private Map<Long, FileTreeOperation> treeOperationMap = new ConcurrentHashMap<>();
+    private StatsDirectory statsDirectory;
+    Histogram readSizes = new Histogram();
+    Histogram writeSizes = new Histogram();
+    AtomicLong openClasspathCount = new AtomicLong();
+    AtomicLong classpathLookups = new AtomicLong();
+    AtomicLong classpathMisses = new AtomicLong();
 
     FileSystemServer(Path file) throws RemoteException {
+        this(file, Collections.emptyMap());
+    }
+
+    FileSystemServer(Path file, Map<String, String> mountOptions) throws RemoteException {
         super();
         this.f = file;
         this.parent = null;
         this.attachPointPathWithinParent = "";
+        this.mountOptions = mountOptions;
+
+        if (mountOptions.containsKey("async")) {
+            asyncIOEngine = new AsyncIOEngine((int) getNumericMountOption(mountOptions, "async",
+                    AsyncIOEngine.DEFAULT_THREADS, 1, Integer.MAX_VALUE));
+        }
+
+        groupCommitEngine = new GroupCommitEngine(getNumericMountOption(mountOptions, "commit_delay", 0, 0,
+                Long.MAX_VALUE / 1000));
+
+        if (mountOptions.containsKey("iosched")) {
+            long rate = getNumericMountOption(mountOptions, "iosched", 0, 1, MAX_MEGABYTES_OPTION);
+            ioScheduler = new IOScheduler(rate == 0 ? IOScheduler.DEFAULT_BYTES_PER_SECOND : rate * 1024 * 1024);
+        }
+
+        nestedJarCache = new NestedJarCache(
+                getNumericMountOption(mountOptions, "jarcache", 16, 0, MAX_MEGABYTES_OPTION) * 1024 * 1024);
+
+        if (mountOptions.containsKey("loadprofile")) {
+            classLoadProfileManager = new ClassLoadProfileManager(Paths.get(mountOptions.get("loadprofile")));
+        }
+
+        if (mountOptions.containsKey("ro")) {
+            readOnlyCache = new ReadOnlyCache(getNumericMountOption(mountOptions, "mapcache",
+                    ReadOnlyCache.DEFAULT_MAPPED_MB, 0, MAX_MEGABYTES_OPTION) * 1024 * 1024);
+        } else if (mountOptions.containsKey("pagecache")) {
+            long size = getNumericMountOption(mountOptions, "pagecache", 0, 1, MAX_MEGABYTES_OPTION);
+            pageCache = new PageCache(size == 0 ? PageCache.DEFAULT_CAPACITY : size * 1024 * 1024);
+            fileChangeNotifier.setChangeListener((path, kind) -> {
+                if (kind == FileChangeEvent.Kind.OVERFLOW) {
+                    pageCache.invalidateAll();
+                } else {
+                    pageCache.invalidate(path);
+                }
+            });
+        }
+
+        String handles = mountOptions.get("handles");
+        dispatchAccessors = (handles != null);
+        fileHandleDispatcher = new FileHandleDispatcherServer(this, (int) getNumericMountOption(mountOptions,
+                "handles", FileHandleTable.DEFAULT_CAPACITY, 1, FileHandleTable.MAX_CAPACITY));
+
+        statsDirectory = new StatsDirectory(this, STATS_DIRECTORY);
+        addStatsFiles();
     }
 
-    FileSystemServer(Path file, FileNameSpace parent, String attachPointPathWithinParent) throws RemoteException {
-        this(file);
+    /**
+     * Populate the stats directory. Each file is rendered from the counters of the server and its engines when it is
+     * read, and the files for engines that are not enabled by a mount option are left out.
+     */
+    private void addStatsFiles() {
+        statsDirectory.addFile("files", out -> {
+            StatsRenderer.value(out, "open", openFileCount.get());
+            StatsRenderer.value(out, "opened", openedFileCount.get());
+            StatsRenderer.value(out, "kernel_open", kernelOpenFileList.size());
+            StatsRenderer.value(out, "handle_opened", fileHandleDispatcher.getOpenCount());
+        });
+        statsDirectory.addFile("io", out -> {
+            readSizes.render(out, "read_bytes");
+            writeSizes.render(out, "write_bytes");
+            StatsRenderer.value(out, "appends", sharedAppendManager.getAppendCount());
+            StatsRenderer.value(out, "appended_bytes", sharedAppendManager.getAppendedBytes());
+        });
+        statsDirectory.addFile("commit", out -> {
+            StatsRenderer.value(out, "force_requests", groupCommitEngine.getForceRequestCount());
+            StatsRenderer.value(out, "fsyncs", groupCommitEngine.getFsyncCount());
+            StatsRenderer.value(out, "coalesced", groupCommitEngine.getCoalescedCount());
+        });
+        statsDirectory.addFile("cache", out -> {
+            StatsRenderer.value(out, "jar_indexes", nestedJarCache.getIndexCount());
+            StatsRenderer.value(out, "jar_index_hits", nestedJarCache.getIndexHitCount());
+            StatsRenderer.value(out, "jar_index_misses", nestedJarCache.getIndexMissCount());
+            StatsRenderer.value(out, "jar_entry_hits", nestedJarCache.getEntryHitCount());
+            StatsRenderer.value(out, "jar_entry_misses", nestedJarCache.getEntryMissCount());
+            StatsRenderer.value(out, "jar_entry_bytes", nestedJarCache.getEntryCacheBytes());
+            StatsRenderer.value(out, "digest_hits", contentDigester.getCacheHitCount());
+            StatsRenderer.value(out, "digest_bytes", contentDigester.getBytesHashed());
+            if (readOnlyCache != null) {
+                StatsRenderer.value(out, "ro_hits", readOnlyCache.getHitCount());
+                StatsRenderer.value(out, "ro_misses", readOnlyCache.getMissCount());
+                StatsRenderer.value(out, "ro_mapped_files", readOnlyCache.getMappedFileCount());
+                StatsRenderer.value(out, "ro_mapped_bytes", readOnlyCache.getMappedBytes());
+            }
+        });
+        if (asyncIOEngine != null) {
+            statsDirectory.addFile("async", out -> {
+                StatsRenderer.value(out, "queue_depth", asyncIOEngine.getQueueDepth());
+                StatsRenderer.value(out, "max_queue_depth", asyncIOEngine.getMaxQueueDepth());
+                StatsRenderer.value(out, "submitted", asyncIOEngine.getSubmittedCount());
+                StatsRenderer.value(out, "completed", asyncIOEngine.getCompletedCount());
+                StatsRenderer.value(out, "failed", asyncIOEngine.getFailedCount());
+                StatsRenderer.value(out, "bytes", asyncIOEngine.getBytesTransferred());
+            });
+        }
+        statsDirectory.addFile("classpath", out -> {
+            StatsRenderer.value(out, "open", openClasspathCount.get());
+            StatsRenderer.value(out, "lookups", classpathLookups.get());
+            StatsRenderer.value(out, "misses", classpathMisses.get());
+        });
+        statsDirectory.addFile("transfer", out -> {
+            StatsRenderer.value(out, "sessions", streamTransferEngine.getSessionCount());
+            StatsRenderer.value(out, "downloads", streamTransferEngine.getDownloadCount());
+            StatsRenderer.value(out, "uploads", streamTransferEngine.getUploadCount());
+            StatsRenderer.value(out, "sent_bytes", streamTransferEngine.getBytesSent());
+            StatsRenderer.value(out, "received_bytes", streamTransferEngine.getBytesReceived());
+        });
+        if (pageCache != null) {
+            statsDirectory.addFile("pagecache", out -> {
+                StatsRenderer.value(out, "hits", pageCache.getHitCount());
+                StatsRenderer.value(out, "misses", pageCache.getMissCount());
+                StatsRenderer.value(out, "evictions", pageCache.getEvictionCount());
+                StatsRenderer.value(out, "invalidations", pageCache.getInvalidationCount());
+                StatsRenderer.value(out, "cached_bytes", pageCache.getCachedBytes());
+                StatsRenderer.value(out, "allocated_bytes", pageCache.getAllocatedBytes());
+            });
+        }
+        if (ioScheduler != null) {
+            statsDirectory.addFile("iosched", out -> {
+                StatsRenderer.value(out, "busy_slots", ioScheduler.getBusySlots());
+                StatsRenderer.value(out, "waiting", ioScheduler.getWaiting());
+                StatsRenderer.value(out, "max_queue_length", ioScheduler.getMaxQueueLength());
+                for (int c = 0; c < IOScheduler.CLASSES; c++) {
+                    StatsRenderer.value(out, "class" + c + "_requests", ioScheduler.getRequestCount(c));
+                    StatsRenderer.value(out, "class" + c + "_queued", ioScheduler.getQueuedCount(c));
+                    StatsRenderer.value(out, "class" + c + "_throttled", ioScheduler.getThrottledCount(c));
+                    StatsRenderer.value(out, "class" + c + "_wait_ns", ioScheduler.getWaitNanos(c));
+                }
+            });
+        }
+    }
+
+    FileSystemServer(Path file, FileNameSpace parent, String attachPointPathWithinParent,
+                     Map<String, String> mountOptions) throws RemoteException {
+        this(file, mountOptions);
         this.parent = parent;
         this.attachPointPathWithinParent = attachPointPathWithinParent;
     }
@@ -73,26 +249,47 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
 
     @Override
     public DirectoryFileData getFileAttributes(String filePathName) throws NoSuchFileException, RemoteException {
+        if (readOnlyCache != null) {
+            Object cached = readOnlyCache.getAttributes(filePathName);
+            if (ReadOnlyCache.isNoSuchFile(cached)) {
+                throw new NoSuchFileException(filePathName);
+            }
+            if (cached != null) {
+                return (DirectoryFileData) cached;
+            }
+        }
         try {
-            DirectoryFileData dfd = new DirectoryFileData();
             Path absoluteFilePath = resolveAbsolutePath(filePathName);
             BasicFileAttributes fa = Files.readAttributes(absoluteFilePath, BasicFileAttributes.class);
-            dfd.name = absoluteFilePath.getFileName().toString();
-            dfd.length = fa.size();
-            dfd.type = (fa.isDirectory() ? DirectoryFileData.FileType.DIRECTORY : DirectoryFileData.FileType.FILE);
-            dfd.lastModified = fa.lastModifiedTime().toMillis();
+            DirectoryFileData dfd = toDirectoryFileData(absoluteFilePath.getFileName().toString(), fa);
+            if (readOnlyCache != null) {
+                readOnlyCache.putAttributes(filePathName, dfd);
+            }
             return dfd;
         } catch (InvalidPathException e) {
             throw new NoSuchFileException(filePathName);
         } catch (NoSuchFileException e) {
+            if (readOnlyCache != null) {
+                readOnlyCache.putNoSuchFile(filePathName);
+            }
             throw e;
         } catch (IOException e) {
             throw new RemoteException("IOException reading file attributes", e);
         }
     }
 
+    static DirectoryFileData toDirectoryFileData(String name, BasicFileAttributes fa) {
+        DirectoryFileData dfd = new DirectoryFileData();
+        dfd.name = name;
+        dfd.length = fa.size();
+        dfd.type = (fa.isDirectory() ? DirectoryFileData.FileType.DIRECTORY : DirectoryFileData.FileType.FILE);
+        dfd.lastModified = fa.lastModifiedTime().toMillis();
+        return dfd;
+    }
+
     @Override
     public void setFileAttributes(String filePathName, DirectoryFileData attributes) throws NoSuchFileException, RemoteException {
+        checkWritable();
 
         long lastModified = attributes.lastModified;
 
@@ -104,6 +301,7 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
         try {
             BasicFileAttributeView attrsView = Files.getFileAttributeView(resolveAbsolutePath(filePathName), BasicFileAttributeView.class);
             attrsView.setTimes(FileTime.fromMillis(lastModified), null, null);
+            fileChangeNotifier.notifyChange(filePathName, FileChangeEvent.Kind.MODIFY);
         } catch (InvalidPathException e) {
             throw new NoSuchFileException(filePathName);
         } catch (NoSuchFileException e) {
@@ -115,8 +313,18 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
 
     @Override
     public String[] list(String directoryPathName) throws RemoteException {
+        if (readOnlyCache != null) {
+            String[] cached = readOnlyCache.getList(directoryPathName);
+            if (cached != null) {
+                return cached;
+            }
+        }
         try (Stream<Path> dirList = Files.list(resolveAbsolutePath(directoryPathName))) {
-            return dirList.map(Path::getFileName).map(Path::toString).toArray(size -> new String[size]);
+            String[] list = dirList.map(Path::getFileName).map(Path::toString).toArray(size -> new String[size]);
+            if (readOnlyCache != null) {
+                readOnlyCache.putList(directoryPathName, list);
+            }
+            return list;
         } catch (InvalidPathException e) {
             return new String[0];
         } catch (NotDirectoryException e) {
@@ -128,8 +336,10 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
 
     @Override
     public boolean createFileAtomically(String directoryPathName, String fileName) throws FileAlreadyExistsException, RemoteException {
+        checkWritable();
         try {
             Files.createFile(resolveAbsolutePath(directoryPathName+"/"+fileName));
+            fileChangeNotifier.notifyChange(directoryPathName+"/"+fileName, FileChangeEvent.Kind.CREATE);
         } catch (FileAlreadyExistsException e) {
             return false;
         } catch (InvalidPathException e) {
@@ -142,8 +352,10 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
 
     @Override
     public boolean createDirectory(String parentDirectory, String directoryName) throws FileAlreadyExistsException, RemoteException {
+        checkWritable();
         try {
             Files.createDirectory(resolveAbsolutePath(parentDirectory+"/"+directoryName));
+            fileChangeNotifier.notifyChange(parentDirectory+"/"+directoryName, FileChangeEvent.Kind.CREATE);
         } catch (InvalidPathException e) {
             return false;
         } catch (FileAlreadyExistsException e) {
@@ -156,8 +368,10 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
 
     @Override
     public void delete(String filePathName) throws NoSuchFileException, DirectoryNotEmptyException, RemoteException {
+        checkWritable();
         try {
             Files.delete(resolveAbsolutePath(filePathName));
+            fileChangeNotifier.notifyChange(filePathName, FileChangeEvent.Kind.DELETE);
         } catch (InvalidPathException e) {
             throw new NoSuchFileException(filePathName);
         } catch (NoSuchFileException | DirectoryNotEmptyException e) {
@@ -172,8 +386,10 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
             throws NoSuchFileException, FileAlreadyExistsException, UnsupportedOperationException, RemoteException {
 
         if (destinationDirectory.getParent().getURI().equals(this.getURI())) {
+            checkWritable();
             try {
                 Files.copy(resolveAbsolutePath(sourceFile.getPath()), resolveAbsolutePath(destinationDirectory.getPath()).resolve(fileName), options);
+                fileChangeNotifier.notifyChange(destinationDirectory.getPath() + "/" + fileName, FileChangeEvent.Kind.CREATE);
             } catch (NoSuchFileException | FileAlreadyExistsException e) {
                 throw e;
             } catch (IOException e) {
@@ -203,10 +419,13 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
     @Override
     public void move(RemoteFileHandle sourceFile, RemoteFileHandle destinationDirectory, String fileName, CopyOption... options)
             throws DirectoryNotEmptyException, NoSuchFileException, FileAlreadyExistsException, UnsupportedOperationException, RemoteException {
+        checkWritable();
 
         if (destinationDirectory.getParent().getURI().equals(this.getURI())) {
             try {
                 Files.move(resolveAbsolutePath(sourceFile.getPath()), resolveAbsolutePath(destinationDirectory.getPath()).resolve(fileName), options);
+                fileChangeNotifier.notifyChange(sourceFile.getPath(), FileChangeEvent.Kind.DELETE);
+                fileChangeNotifier.notifyChange(destinationDirectory.getPath() + "/" + fileName, FileChangeEvent.Kind.CREATE);
             } catch (NoSuchFileException | FileAlreadyExistsException e) {
                 throw e;
             } catch (IOException e) {
@@ -221,6 +440,13 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
     public RemoteFileAccessor getRemoteFileAccessor(int pid, String name, Set<? extends OpenOption> options)
             throws FileAlreadyExistsException, NoSuchFileException, RemoteException {
 
+        // Jar files are always served by an exported JarFileSystemChannelServer, as they have their own remote interface
+        if (dispatchAccessors && pid != -1 && !name.endsWith(".jar")) {
+            return fileHandleDispatcher.openAccessor(pid, name, options);
+        }
+
+        checkOpenOptions(options);
+
         try {
 
             FileSystemChannelServer s;
@@ -230,35 +456,76 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
                 s = new FileSystemChannelServer(this, pid, name, resolveAbsolutePath(name), options);
             }
 
-            // Only the Jinix Kernel passes pid -1 when it gets the init jar or when starting a translator
-            if (pid == -1) {
-                kernelOpenFileList.add(s);
-                return s;
-            }
+            addOpenFile(pid, s);
+            return s;
+        } catch (InvalidPathException e) {
+            throw new NoSuchFileException(name);
+        }
+    }
 
-            List<FileAccessorStatistics> l = openFileMap.get(pid);
-            if (l == null) {
-                l = new LinkedList<FileAccessorStatistics>();
-                openFileMap.put(pid, l);
-            }
-            l.add(s);
+    /**
+     * Open a jar file for a ClasspathResolverServer. The jar is counted as an open file of the process until the
+     * resolver closes it.
+     */
+    JarFileSystemChannelServer openJar(int pid, String name) throws NoSuchFileException, RemoteException {
+        try {
+            JarFileSystemChannelServer s = new JarFileSystemChannelServer(this, pid, name, resolveAbsolutePath(name),
+                    EnumSet.of(StandardOpenOption.READ));
+            addOpenFile(pid, s);
             return s;
+        } catch (FileAlreadyExistsException e) {
+            throw new RemoteException("Internal error", e); // Not possible when opening for READ
         } catch (InvalidPathException e) {
             throw new NoSuchFileException(name);
         }
     }
 
+    /**
+     * Open a file for the FileHandleDispatcher.
+     */
+    OpenFile openFile(int pid, String name, Set<? extends OpenOption> options) throws IOException {
+        checkOpenOptions(options);
+        try {
+            return new OpenFile(this, pid, name, resolveAbsolutePath(name), options);
+        } catch (InvalidPathException e) {
+            throw new NoSuchFileException(name);
+        }
+    }
+
+    private void checkOpenOptions(Set<? extends OpenOption> options) {
+        if (readOnlyCache != null && (options.contains(StandardOpenOption.WRITE) ||
+                options.contains(StandardOpenOption.APPEND) || options.contains(StandardOpenOption.CREATE) ||
+                options.contains(StandardOpenOption.CREATE_NEW) ||
+                options.contains(StandardOpenOption.TRUNCATE_EXISTING) ||
+                options.contains(StandardOpenOption.DELETE_ON_CLOSE))) {
+            throw new ReadOnlyFileSystemException();
+        }
+    }
+
     @Override
     public RemoteFileAccessor getRemoteFileAccessor(int pid, RemoteFileHandle remoteFileHandle, Set<? extends OpenOption> options) throws FileAlreadyExistsException, NoSuchFileException, RemoteException {
         return getRemoteFileAccessor(pid, remoteFileHandle.getPath(), options);
     }
 
+    /**
+     * Paths under STATS_DIRECTORY are served by the server's StatsDirectory, which hides any native file of that name.
+     */
     @Override
     public Object lookup(int pid, String path) {
         if (Paths.get(path).normalize().startsWith(Paths.get(".."))) {
             return null;
         }
-        if (Files.exists(f.resolve(path.substring(1)), LinkOption.NOFOLLOW_LINKS)) {
+        if (path.equals(STATS_DIRECTORY) || path.startsWith(STATS_DIRECTORY + "/")) {
+            return statsDirectory.lookup(pid, path.substring(STATS_DIRECTORY.length()));
+        }
+        Boolean exists = (readOnlyCache != null ? readOnlyCache.getLookup(path) : null);
+        if (exists == null) {
+            exists = Files.exists(f.resolve(path.substring(1)), LinkOption.NOFOLLOW_LINKS);
+            if (readOnlyCache != null) {
+                readOnlyCache.putLookup(path, exists);
+            }
+        }
+        if (exists) {
             return new BaseRemoteFileHandleImpl(this, path);
         }
         return null;
@@ -279,14 +546,332 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
         return this.openFileMap.get(pid);
     }
 
-    void removeFileSystemChannelServer(int pid, FileSystemChannelServer s) {
+    @Override
+    public FileTreePage walk(String directoryPathName, FileTreeFilter filter, int pageSize)
+            throws NoSuchFileException, NotDirectoryException, RemoteException {
+        Path rootPath = resolveTreePath(directoryPathName);
+        if (!Files.exists(rootPath)) {
+            throw new NoSuchFileException(directoryPathName);
+        }
+        if (!Files.isDirectory(rootPath)) {
+            throw new NotDirectoryException(directoryPathName);
+        }
+
+        // Forget ended walks whose last page has not been collected
+        long expired = System.currentTimeMillis() - TREE_WALK_RETENTION_MILLIS;
+        treeWalkMap.values().removeIf(w -> w.isEnded() && w.getLastActivityTime() < expired);
+
+        FileTreeWalk walk = new FileTreeWalk(nextWalkId.incrementAndGet(), rootPath, directoryPathName, filter);
+        treeWalkMap.put(walk.id, walk);
+        walk.start(workerPool, () -> treeWalkMap.remove(walk.id));
+        return nextWalkPage(walk.id, pageSize);
+    }
+
+    @Override
+    public FileTreePage nextWalkPage(long walkId, int pageSize) throws RemoteException {
+        FileTreeWalk walk = treeWalkMap.get(walkId);
+        if (walk == null) {
+            return null;
+        }
+        try {
+            FileTreePage page = walk.nextPage(pageSize);
+            if (page.last) {
+                treeWalkMap.remove(walkId);
+            }
+            return page;
+        } catch (InterruptedException e) {
+            throw new RemoteException("Interrupted waiting for tree walk", e);
+        }
+    }
+
+    @Override
+    public void cancelWalk(long walkId) throws RemoteException {
+        FileTreeWalk walk = treeWalkMap.remove(walkId);
+        if (walk != null) {
+            walk.cancel();
+        }
+    }
+
+    @Override
+    public long deleteTree(String pathName) throws NoSuchFileException, RemoteException {
+        checkWritable();
+        Path path = resolveTreePath(pathName);
+        if (path.toAbsolutePath().normalize().equals(f.toAbsolutePath().normalize())) {
+            throw new RemoteException("The root of the file system cannot be deleted");
+        }
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            throw new NoSuchFileException(pathName);
+        }
+        return startTreeOperation(FileTreeOperation.delete(nextTreeOperationId.incrementAndGet(), path,
+                trimTrailingSlash(pathName), fileChangeNotifier));
+    }
+
+    @Override
+    public long copyTree(String sourcePathName, String destinationDirectoryPathName, String name, CopyOption... options)
+            throws NoSuchFileException, FileAlreadyExistsException, RemoteException {
+        checkWritable();
+        if (options != null && Arrays.asList(options).contains(StandardCopyOption.ATOMIC_MOVE)) {
+            throw new UnsupportedOperationException("ATOMIC_MOVE is not supported for copy");
+        }
+        Path source = resolveTreePath(sourcePathName);
+        Path destinationDirectory = resolveTreePath(destinationDirectoryPathName);
+        Path target;
+        try {
+            target = destinationDirectory.resolve(name);
+        } catch (InvalidPathException e) {
+            throw new NoSuchFileException(name);
+        }
+        if (!isWithinRoot(target)) {
+            throw new NoSuchFileException(destinationDirectoryPathName + "/" + name);
+        }
+        if (!Files.exists(source, LinkOption.NOFOLLOW_LINKS)) {
+            throw new NoSuchFileException(sourcePathName);
+        }
+        if (!Files.isDirectory(destinationDirectory)) {
+            throw new NoSuchFileException(destinationDirectoryPathName);
+        }
+        if (Files.exists(target, LinkOption.NOFOLLOW_LINKS) &&
+                (options == null || !Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING))) {
+            throw new FileAlreadyExistsException(destinationDirectoryPathName + "/" + name);
+        }
+        if (target.normalize().startsWith(source.normalize())) {
+            throw new RemoteException("Cannot copy a directory into itself: " + sourcePathName);
+        }
+        return startTreeOperation(FileTreeOperation.copy(nextTreeOperationId.incrementAndGet(), source,
+                trimTrailingSlash(sourcePathName), target, trimTrailingSlash(destinationDirectoryPathName) + "/" + name,
+                options, fileChangeNotifier));
+    }
+
+    @Override
+    public FileTreeOperationStatus getTreeOperationStatus(long operationId, long waitMillis) throws RemoteException {
+        FileTreeOperation operation = treeOperationMap.get(operationId);
+        if (operation == null) {
+            return null;
+        }
+        try {
+            FileTreeOperationStatus status = operation.getStatus(waitMillis);
+            if (status.done) {
+                treeOperationMap.remove(operationId);
+            }
+            return status;
+        } catch (InterruptedException e) {
+            throw new RemoteException("Interrupted waiting for tree operation", e);
+        }
+    }
+
+    @Override
+    public void cancelTreeOperation(long operationId) throws RemoteException {
+        FileTreeOperation operation = treeOperationMap.get(operationId);
+        if (operation != null) {
+            operation.cancel();
+        }
+    }
+
+    private long startTreeOperation(FileTreeOperation operation) {
+        // Forget completed operations whose status has not been collected
+        long expired = System.currentTimeMillis() - TREE_OPERATION_RETENTION_MILLIS;
+        treeOperationMap.values().removeIf(o -> o.isDone() && o.getDoneTime() < expired);
+
+        treeOperationMap.put(operation.id, operation);
+        operation.start(workerPool);
+        return operation.id;
+    }
+
+    private void checkWritable() {
+        if (readOnlyCache != null) {
+            throw new ReadOnlyFileSystemException();
+        }
+    }
+
+    /**
+     * Resolve the path of the root of a tree operation, which must not be outside of the file system.
+     */
+    private Path resolveTreePath(String pathName) throws NoSuchFileException {
+        try {
+            Path resolved = resolveAbsolutePath(pathName);
+            if (!isWithinRoot(resolved)) {
+                throw new NoSuchFileException(pathName);
+            }
+            return resolved;
+        } catch (InvalidPathException e) {
+            throw new NoSuchFileException(pathName);
+        }
+    }
+
+    /**
+     * Check that a resolved path, once any ".." elements are removed, is the root of the file system or below it.
+     */
+    private boolean isWithinRoot(Path resolved) {
+        return resolved.toAbsolutePath().normalize().startsWith(f.toAbsolutePath().normalize());
+    }
+
+    private static String trimTrailingSlash(String pathName) {
+        return (pathName.endsWith("/") ? pathName.substring(0, pathName.length() - 1) : pathName);
+    }
+
+    @Override
+    public byte[] digest(String filePathName, String algorithm, long offset, long length)
+            throws NoSuchFileException, RemoteException {
+        try {
+            return contentDigester.digest(resolveAbsolutePath(filePathName), algorithm, offset, length);
+        } catch (InvalidPathException e) {
+            throw new NoSuchFileException(filePathName);
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("IOException computing digest of file: " + filePathName, e);
+        }
+    }
+
+    @Override
+    public long subscribe(String directoryPathName, FileChangeNotificationHandler handler)
+            throws NoSuchFileException, NotDirectoryException, RemoteException {
+        Path directory;
+        try {
+            directory = resolveAbsolutePath(directoryPathName);
+        } catch (InvalidPathException e) {
+            throw new NoSuchFileException(directoryPathName);
+        }
+        if (!Files.exists(directory)) {
+            throw new NoSuchFileException(directoryPathName);
+        }
+        if (!Files.isDirectory(directory)) {
+            throw new NotDirectoryException(directoryPathName);
+        }
+        try {
+            return fileChangeNotifier.subscribe(directoryPathName, directory, handler);
+        } catch (IOException e) {
+            throw new RemoteException("IOException subscribing to directory: " + directoryPathName, e);
+        }
+    }
+
+    @Override
+    public void unsubscribe(long subscriptionId) throws RemoteException {
+        fileChangeNotifier.unsubscribe(subscriptionId);
+    }
+
+    /**
+     * Ignored unless the file system is mounted with the 'iosched' option.
+     */
+    @Override
+    public void setIOPriority(int pid, int priorityClass) throws RemoteException {
+        if (ioScheduler != null) {
+            ioScheduler.setPriority(pid, priorityClass);
+        }
+    }
+
+    @Override
+    public int getIOPriority(int pid) throws RemoteException {
+        return (ioScheduler != null ? ioScheduler.getPriority(pid) : IOPRIO_NORMAL);
+    }
+
+    @Override
+    public TransferSession download(int pid, String path, long position, long length, int chunkSize, int window,
+                                    StreamTransferSink sink) throws NoSuchFileException, RemoteException {
+        try {
+            return streamTransferEngine.download(pid, path, position, length, chunkSize, window, sink);
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public void grantCredit(int pid, long sessionId, int credits) throws RemoteException {
+        streamTransferEngine.grantCredit(pid, sessionId, credits);
+    }
+
+    @Override
+    public TransferSession openUpload(int pid, String path, Set<? extends OpenOption> options, int chunkSize,
+                                      int window)
+            throws FileAlreadyExistsException, NoSuchFileException, RemoteException {
+        try {
+            return streamTransferEngine.openUpload(pid, path, options, chunkSize, window);
+        } catch (FileAlreadyExistsException | NoSuchFileException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public int upload(int pid, long sessionId, long position, byte[] data) throws RemoteException {
+        try {
+            return streamTransferEngine.upload(pid, sessionId, position, data);
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public long finishUpload(int pid, long sessionId, boolean force) throws RemoteException {
+        try {
+            return streamTransferEngine.finishUpload(pid, sessionId, force);
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public void cancel(int pid, long sessionId) throws RemoteException {
+        try {
+            streamTransferEngine.cancel(pid, sessionId);
+        } catch (IOException e) {
+            throw new RemoteException("Internal error", e);
+        }
+    }
+
+    @Override
+    public ClasspathResolver openClasspath(int pid, String[] jarPaths) throws NoSuchFileException, RemoteException {
+        ClasspathResolverServer resolver = new ClasspathResolverServer(this, pid, jarPaths);
+        openClasspathCount.incrementAndGet();
+        addOpenFile(pid, resolver);
+        return resolver;
+    }
+
+    @Override
+    public CompoundResult execute(int pid, CompoundOperation[] operations) throws RemoteException {
+        return CompoundExecutor.execute(this, pid, operations);
+    }
+
+    @Override
+    public FileHandleDispatcher getFileHandleDispatcher() throws RemoteException {
+        return fileHandleDispatcher;
+    }
+
+    void addOpenFile(int pid, FileAccessorStatistics s) {
+        openFileCount.incrementAndGet();
+        openedFileCount.incrementAndGet();
+        // Only the Jinix Kernel passes pid -1 when it gets the init jar or when starting a translator
         if (pid == -1) {
-            kernelOpenFileList.remove(s);
+            kernelOpenFileList.add(s);
+            return;
+        }
+
+        List<FileAccessorStatistics> l = openFileMap.get(pid);
+        if (l == null) {
+            l = new LinkedList<FileAccessorStatistics>();
+            openFileMap.put(pid, l);
+        }
+        l.add(s);
+    }
+
+    void removeOpenFile(int pid, FileAccessorStatistics s) {
+        if (pid == -1) {
+            if (kernelOpenFileList.remove(s)) {
+                openFileCount.decrementAndGet();
+            }
             return;
         }
         List<FileAccessorStatistics> l = openFileMap.get(pid);
         if (l != null) { // In rare cases where the kernel has opened the file, the list will be null.
-            l.remove(s);
+            if (l.remove(s)) {
+                openFileCount.decrementAndGet();
+            }
+            if (l.isEmpty() && ioScheduler != null) {
+                ioScheduler.removePid(pid);
+            }
         }
     }
 
@@ -306,6 +891,81 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
         return f.resolve(name);
     }
 
+    /**
+     * Parse the translator arguments following the rootPath into a map of mount options. Options are given as
+     * comma separated name or name=value pairs, in the style of mount -o. Options without a value map to the empty
+     * string.
+     *
+     * Supported options:
+     *   async[=threads]  serve reads and writes through an AsynchronousFileChannel backend
+     *   commit_delay=us  microseconds a force waits for other forces on the same file to join it
+     *   entrycache=MB    size of the cache of inflated entries when the rootPath is a zip or jar archive
+     *   handles[=max]    serve the files opened with getRemoteFileAccessor() through the FileHandleDispatcher, with at
+     *                    most max files open at a time (65536 by default, at most 1048576). Jar files and files
+     *                    opened by the kernel are still served by an exported FileSystemChannelServer.
+     *   iosched[=MB/s]   schedule reads and writes between processes by I/O priority class, with the given per
+     *                    process transfer rate for the normal class while the file system is shared
+     *   jarcache=MB      size of the cache of inflated entries from shared lib jars, 0 to disable
+     *   loadprofile=dir  record jar class load order in the native directory dir, and prefetch on later launches
+     *   mapcache=MB      with 'ro', the most bytes of files kept mapped into memory, 512 MB by default, 0 to disable
+     *   pagecache[=MB]   serve reads of small files opened read only from a server wide cache of their contents,
+     *                    16 MB by default. Ignored with 'ro', which maps files into memory instead.
+     *   ro               mount read only. Files must not change while mounted, as attributes, listings, lookups and
+     *                    jar indexes are cached for the life of the mount, and files are mapped into memory.
+     *
+     * Whatever the options, the server's counters can be read as text files in the read only STATS_DIRECTORY. The
+     * values of numeric options are checked by getNumericMountOption() when the server is created, and the translator
+     * exits with a message if one is invalid.
+     *
+     * @param args the translator arguments
+     * @return
+     */
+    static Map<String, String> parseMountOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        if (args == null) {
+            return options;
+        }
+        for (int i = 1; i < args.length; i++) {
+            for (String option : args[i].split(",")) {
+                option = option.trim();
+                if (option.isEmpty()) {
+                    continue;
+                }
+                int eq = option.indexOf('=');
+                if (eq == -1) {
+                    options.put(option, "");
+                } else {
+                    options.put(option.substring(0, eq), option.substring(eq + 1));
+                }
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Get the value of a numeric mount option.
+     *
+     * @return defaultValue if the option is not given, or is given without a value
+     * @throws IllegalArgumentException if the value is not a whole number from minimum to maximum
+     */
+    static long getNumericMountOption(Map<String, String> mountOptions, String name, long defaultValue, long minimum,
+                                      long maximum) {
+        String value = mountOptions.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            long l = Long.parseLong(value);
+            if (l >= minimum && l <= maximum) {
+                return l;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        throw new IllegalArgumentException("Invalid value for mount option " + name + ": " + value +
+                " (must be a whole number from " + minimum + " to " + maximum + ")");
+    }
+
     public static void main(String[] args) {
 
         JinixFile translatorFile = JinixRuntime.getRuntime().getTranslatorFile();
@@ -323,9 +983,18 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
             rootPath = args[0];
         }
 
+        // A zip or jar archive given as the rootPath is mounted as a read only directory tree
+        if (Files.isRegularFile(Paths.get(rootPath))) {
+            ArchiveFileSystemServer.main(args);
+            return;
+        }
+
         try {
             RemoteFileHandle file = (RemoteFileHandle) (new JinixContext()).lookup(translatorFile.getAbsolutePath());
-            server = new FileSystemServer(Paths.get(rootPath), file.getParent(), file.getPath());
+            server = new FileSystemServer(Paths.get(rootPath), file.getParent(), file.getPath(), parseMountOptions(args));
+        } catch (IllegalArgumentException e) {
+            System.err.println("FileSystemServer: " + e.getMessage());
+            return;
         } catch (NamingException e) {
             throw new RuntimeException("Internal error", e);
         } catch (RemoteException e) {
@@ -353,18 +1022,36 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
             // Interrupted shutting down
         }
 
+        server.shutdown();
         System.out.println("FileSystemServer shutdown complete");
 
     }
 
     @Override
     public void shutdown() {
-
+        if (asyncIOEngine != null) {
+            asyncIOEngine.shutdown();
+        }
+        if (classLoadProfileManager != null) {
+            classLoadProfileManager.shutdown();
+        }
+        workerPool.shutdownNow();
+        fileChangeNotifier.shutdown();
+        fileHandleDispatcher.shutdown();
+        streamTransferEngine.shutdown();
+        statsDirectory.unexport();
     }
 
+    /**
+     * Force all open files with unsynced writes to the storage device. The files are synced in parallel.
+     */
     @Override
     public void sync() {
-
+        try {
+            groupCommitEngine.syncAll();
+        } catch (IOException e) {
+            throw new RuntimeException("IOException syncing file system", e);
+        }
     }
 
     public static FileNameSpace runAsRootFileSystem(String[] args) {
@@ -376,7 +1063,7 @@ public class FileSystemServer extends JinixKernelUnicastRemoteObject implements
         }
 
         try {
-            return new FileSystemServer(Paths.get(rootPath));
+            return new FileSystemServer(Paths.get(rootPath), parseMountOptions(args));
         } catch (RemoteException e) {
             throw new RuntimeException("Internal error", e);
         }
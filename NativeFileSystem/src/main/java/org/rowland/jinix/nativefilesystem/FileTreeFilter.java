@@ -0,0 +1,18 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.naming.DirectoryFileData;
+
+import java.io.Serializable;
+
+/**
+ * Selects the entries returned by a FileTreeNameSpace walk. Unset criteria match every entry.
+ */
+public class FileTreeFilter implements Serializable {
+
+    public int maxDepth; // The children of the root are at depth 1. 0 for no limit.
+    public String namePattern; // A glob matched against the file name, or null
+    public DirectoryFileData.FileType type; // null for both files and directories
+    public long minSize = -1;
+    public long maxSize = -1;
+    public boolean aggregateSizes; // Return the total size of the files below each directory with the last page
+}
@@ -0,0 +1,82 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.nio.file.CopyOption;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Operations on whole directory trees that a FileNameSpace performs on the server, so that recursive tools do not
+ * have to make one or more remote calls for every file in the tree.
+ */
+public interface FileTreeNameSpace extends Remote {
+
+    /**
+     * Start a walk of the tree below a directory, returning the first page of entries that match the filter. The root
+     * itself is not returned. Entries are returned in no particular order, as the tree is walked in parallel.
+     *
+     * @param directoryPathName the root of the walk
+     * @param filter the entries to return, and whether to aggregate directory sizes
+     * @param pageSize the maximum number of entries to return in a page
+     * @return the first page. If the page is not the last, the following pages are retrieved with nextWalkPage().
+     * @throws NoSuchFileException
+     * @throws NotDirectoryException
+     * @throws RemoteException
+     */
+    FileTreePage walk(String directoryPathName, FileTreeFilter filter, int pageSize)
+            throws NoSuchFileException, NotDirectoryException, RemoteException;
+
+    /**
+     * Get the next page of a walk. Blocks until at least one entry is available or the walk is complete.
+     *
+     * @return the next page, or null if there is no walk with the given ID
+     */
+    FileTreePage nextWalkPage(long walkId, int pageSize) throws RemoteException;
+
+    /**
+     * Stop a walk before its last page has been returned.
+     */
+    void cancelWalk(long walkId) throws RemoteException;
+
+    /**
+     * Start deleting a file, or a directory and everything below it. Directories are deleted bottom up, in parallel.
+     * A failure does not stop the delete, the directories above a file that could not be deleted are left in place.
+     *
+     * @param pathName the file or directory to delete. The root of the file system cannot be deleted.
+     * @return an operation ID for getTreeOperationStatus() and cancelTreeOperation()
+     * @throws NoSuchFileException
+     * @throws RemoteException
+     */
+    long deleteTree(String pathName) throws NoSuchFileException, RemoteException;
+
+    /**
+     * Start copying a file, or a directory and everything below it, within this file system. Files are copied in
+     * parallel. Symbolic links are copied as links. With REPLACE_EXISTING, the tree is merged into an existing
+     * directory tree, replacing existing files. COPY_ATTRIBUTES is supported.
+     *
+     * @param sourcePathName the file or directory to copy
+     * @param destinationDirectoryPathName the directory to copy into
+     * @param name the name of the copy in the destination directory
+     * @return an operation ID for getTreeOperationStatus() and cancelTreeOperation()
+     * @throws NoSuchFileException
+     * @throws FileAlreadyExistsException if the copy exists, and REPLACE_EXISTING was not given
+     * @throws RemoteException
+     */
+    long copyTree(String sourcePathName, String destinationDirectoryPathName, String name, CopyOption... options)
+            throws NoSuchFileException, FileAlreadyExistsException, RemoteException;
+
+    /**
+     * Get the progress of a delete or copy, first waiting up to waitMillis for it to complete. Once the status of a
+     * completed operation has been returned, the operation is forgotten.
+     *
+     * @return the status, or null if there is no operation with the given ID
+     */
+    FileTreeOperationStatus getTreeOperationStatus(long operationId, long waitMillis) throws RemoteException;
+
+    /**
+     * Stop a delete or copy. The files that have already been deleted or copied are not restored.
+     */
+    void cancelTreeOperation(long operationId) throws RemoteException;
+}
@@ -0,0 +1,382 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.IOException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A recursive delete or copy started by FileSystemServer.deleteTree() or copyTree(). Each directory is handled by its
+ * own task on a ForkJoinPool, and the files of a large directory are split into batches that are handled in parallel.
+ * A delete is bottom up: a directory is deleted after its subtree, and is left in place if anything below it could
+ * not be deleted. Failures do not stop the operation, they are counted and the first of them are reported in the
+ * status. Symbolic links are not followed, the links themselves are deleted or copied.
+ */
+class FileTreeOperation {
+
+    private static final int FILE_BATCH_SIZE = 32;
+    private static final int MAX_REPORTED_FAILURES = 100;
+
+    final long id;
+    private final Path rootPath;
+    private final String rootJinixPath;
+    private final Path targetPath; // The destination of a copy, null for a delete
+    private final String targetJinixPath;
+    private final CopyOption[] copyOptions;
+    private final boolean copyAttributes;
+    private final FileChangeNotifier notifier;
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong directories = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final ConcurrentLinkedQueue<String[]> failures = new ConcurrentLinkedQueue<>();
+    private final CountDownLatch doneLatch = new CountDownLatch(1);
+    private volatile boolean cancelled;
+    private volatile long doneTime;
+
+    private FileTreeOperation(long id, Path rootPath, String rootJinixPath, Path targetPath, String targetJinixPath,
+                              CopyOption[] copyOptions, FileChangeNotifier notifier) {
+        this.id = id;
+        this.rootPath = rootPath;
+        this.rootJinixPath = rootJinixPath;
+        this.targetPath = targetPath;
+        this.targetJinixPath = targetJinixPath;
+        // Links are copied as links, and attributes are copied to directories after their contents
+        List<CopyOption> options = new ArrayList<>(Arrays.asList(copyOptions != null ? copyOptions : new CopyOption[0]));
+        if (!options.contains(LinkOption.NOFOLLOW_LINKS)) {
+            options.add(LinkOption.NOFOLLOW_LINKS);
+        }
+        this.copyOptions = options.toArray(new CopyOption[0]);
+        this.copyAttributes = options.contains(StandardCopyOption.COPY_ATTRIBUTES);
+        this.notifier = notifier;
+    }
+
+    static FileTreeOperation delete(long id, Path path, String jinixPath, FileChangeNotifier notifier) {
+        return new FileTreeOperation(id, path, jinixPath, null, null, null, notifier);
+    }
+
+    static FileTreeOperation copy(long id, Path source, String sourceJinixPath, Path target, String targetJinixPath,
+                                  CopyOption[] options, FileChangeNotifier notifier) {
+        return new FileTreeOperation(id, source, sourceJinixPath, target, targetJinixPath, options, notifier);
+    }
+
+    void start(ForkJoinPool pool) {
+        pool.execute(() -> {
+            try {
+                if (targetPath == null) {
+                    deleteEntry(rootPath, rootJinixPath);
+                } else {
+                    copyEntry(rootPath, rootJinixPath, targetPath, targetJinixPath);
+                }
+            } finally {
+                doneTime = System.currentTimeMillis();
+                doneLatch.countDown();
+            }
+        });
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isDone() {
+        return doneLatch.getCount() == 0;
+    }
+
+    /**
+     * @return the time the operation ended, or 0 if it is still running
+     */
+    long getDoneTime() {
+        return doneTime;
+    }
+
+    /**
+     * Get the status of the operation, first waiting up to waitMillis for it to end.
+     */
+    FileTreeOperationStatus getStatus(long waitMillis) throws InterruptedException {
+        if (waitMillis > 0) {
+            doneLatch.await(waitMillis, TimeUnit.MILLISECONDS);
+        }
+        FileTreeOperationStatus status = new FileTreeOperationStatus();
+        status.operationId = id;
+        status.done = isDone();
+        status.cancelled = cancelled;
+        status.files = files.get();
+        status.directories = directories.get();
+        status.bytes = bytes.get();
+        status.errorCount = errorCount.get();
+        List<String[]> reported = new ArrayList<>(failures);
+        status.failedPaths = new String[reported.size()];
+        status.failureMessages = new String[reported.size()];
+        for (int i = 0; i < reported.size(); i++) {
+            status.failedPaths[i] = reported.get(i)[0];
+            status.failureMessages[i] = reported.get(i)[1];
+        }
+        return status;
+    }
+
+    private void fail(String jinixPath, IOException e) {
+        if (errorCount.incrementAndGet() <= MAX_REPORTED_FAILURES) {
+            failures.add(new String[] {jinixPath, e.toString()});
+        }
+    }
+
+    private void deleteEntry(Path path, String jinixPath) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            fail(jinixPath, e);
+            return;
+        }
+        if (attributes.isDirectory()) {
+            new DeleteDirectoryTask(path, jinixPath).invoke();
+        } else {
+            deleteFile(path, jinixPath, attributes.size());
+        }
+    }
+
+    private boolean deleteFile(Path path, String jinixPath, long size) {
+        try {
+            Files.delete(path);
+            files.incrementAndGet();
+            bytes.addAndGet(size);
+            notifier.notifyChange(jinixPath, FileChangeEvent.Kind.DELETE);
+            return true;
+        } catch (IOException e) {
+            fail(jinixPath, e);
+            return false;
+        }
+    }
+
+    private void copyEntry(Path source, String sourceJinixPath, Path target, String targetJinixPath) {
+        if (Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS)) {
+            new CopyDirectoryTask(source, sourceJinixPath, target, targetJinixPath).invoke();
+        } else {
+            copyFile(source, sourceJinixPath, target, targetJinixPath);
+        }
+    }
+
+    private void copyFile(Path source, String sourceJinixPath, Path target, String targetJinixPath) {
+        try {
+            Files.copy(source, target, copyOptions);
+            files.incrementAndGet();
+            bytes.addAndGet(Files.size(target));
+            notifier.notifyChange(targetJinixPath, FileChangeEvent.Kind.CREATE);
+        } catch (IOException e) {
+            fail(sourceJinixPath, e);
+        }
+    }
+
+    /**
+     * List a directory, separating its subdirectories from its other entries.
+     */
+    private boolean list(Path directory, String jinixPath, List<Path> subdirectories, List<Path> others) {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory)) {
+            for (Path child : ds) {
+                if (cancelled) {
+                    return false;
+                }
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    subdirectories.add(child);
+                } else {
+                    others.add(child);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            fail(jinixPath, e);
+            return false;
+        }
+    }
+
+    private static List<List<Path>> batches(List<Path> paths) {
+        List<List<Path>> batches = new ArrayList<>(paths.size() / FILE_BATCH_SIZE + 1);
+        for (int i = 0; i < paths.size(); i += FILE_BATCH_SIZE) {
+            batches.add(paths.subList(i, Math.min(i + FILE_BATCH_SIZE, paths.size())));
+        }
+        return batches;
+    }
+
+    private class DeleteDirectoryTask extends RecursiveTask<Boolean> {
+
+        private final Path directory;
+        private final String jinixPath;
+
+        private DeleteDirectoryTask(Path directory, String jinixPath) {
+            this.directory = directory;
+            this.jinixPath = jinixPath;
+        }
+
+        /**
+         * @return true if the directory and everything below it was deleted
+         */
+        @Override
+        protected Boolean compute() {
+            List<Path> subdirectories = new ArrayList<>();
+            List<Path> others = new ArrayList<>();
+            if (!list(directory, jinixPath, subdirectories, others)) {
+                return false;
+            }
+
+            List<RecursiveTask<Boolean>> subtasks = new ArrayList<>();
+            for (Path subdirectory : subdirectories) {
+                subtasks.add(new DeleteDirectoryTask(subdirectory, jinixPath + "/" + subdirectory.getFileName()));
+            }
+            for (List<Path> batch : batches(others)) {
+                subtasks.add(new DeleteBatchTask(batch, jinixPath));
+            }
+            invokeAll(subtasks);
+            boolean complete = true;
+            for (RecursiveTask<Boolean> t : subtasks) {
+                complete &= t.join();
+            }
+            if (!complete || cancelled) {
+                return false;
+            }
+
+            try {
+                Files.delete(directory);
+                directories.incrementAndGet();
+                notifier.notifyChange(jinixPath, FileChangeEvent.Kind.DELETE);
+                return true;
+            } catch (IOException e) {
+                fail(jinixPath, e);
+                return false;
+            }
+        }
+    }
+
+    private class DeleteBatchTask extends RecursiveTask<Boolean> {
+
+        private final List<Path> batch;
+        private final String directoryJinixPath;
+
+        private DeleteBatchTask(List<Path> batch, String directoryJinixPath) {
+            this.batch = batch;
+            this.directoryJinixPath = directoryJinixPath;
+        }
+
+        @Override
+        protected Boolean compute() {
+            boolean complete = true;
+            for (Path path : batch) {
+                if (cancelled) {
+                    return false;
+                }
+                String jinixPath = directoryJinixPath + "/" + path.getFileName();
+                long size = 0;
+                try {
+                    size = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).size();
+                } catch (IOException e) {
+                    // The delete will report the failure
+                }
+                complete &= deleteFile(path, jinixPath, size);
+            }
+            return complete;
+        }
+    }
+
+    private class CopyDirectoryTask extends RecursiveAction {
+
+        private final Path source;
+        private final String sourceJinixPath;
+        private final Path target;
+        private final String targetJinixPath;
+
+        private CopyDirectoryTask(Path source, String sourceJinixPath, Path target, String targetJinixPath) {
+            this.source = source;
+            this.sourceJinixPath = sourceJinixPath;
+            this.target = target;
+            this.targetJinixPath = targetJinixPath;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                Files.createDirectory(target);
+                directories.incrementAndGet();
+                notifier.notifyChange(targetJinixPath, FileChangeEvent.Kind.CREATE);
+            } catch (FileAlreadyExistsException e) {
+                // Merge into an existing directory when replacing
+                if (!Arrays.asList(copyOptions).contains(StandardCopyOption.REPLACE_EXISTING) ||
+                        !Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+                    fail(sourceJinixPath, e);
+                    return;
+                }
+            } catch (IOException e) {
+                fail(sourceJinixPath, e);
+                return;
+            }
+
+            List<Path> subdirectories = new ArrayList<>();
+            List<Path> others = new ArrayList<>();
+            if (list(source, sourceJinixPath, subdirectories, others)) {
+                List<RecursiveAction> subtasks = new ArrayList<>();
+                for (Path subdirectory : subdirectories) {
+                    String name = subdirectory.getFileName().toString();
+                    subtasks.add(new CopyDirectoryTask(subdirectory, sourceJinixPath + "/" + name,
+                            target.resolve(name), targetJinixPath + "/" + name));
+                }
+                for (List<Path> batch : batches(others)) {
+                    subtasks.add(new CopyBatchTask(batch, sourceJinixPath, target, targetJinixPath));
+                }
+                invokeAll(subtasks);
+            }
+
+            if (copyAttributes && !cancelled) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    Files.getFileAttributeView(target, BasicFileAttributeView.class).setTimes(
+                            attributes.lastModifiedTime(), attributes.lastAccessTime(), attributes.creationTime());
+                } catch (IOException e) {
+                    fail(sourceJinixPath, e);
+                }
+            }
+        }
+    }
+
+    private class CopyBatchTask extends RecursiveAction {
+
+        private final List<Path> batch;
+        private final String sourceJinixPath;
+        private final Path target;
+        private final String targetJinixPath;
+
+        private CopyBatchTask(List<Path> batch, String sourceJinixPath, Path target, String targetJinixPath) {
+            this.batch = batch;
+            this.sourceJinixPath = sourceJinixPath;
+            this.target = target;
+            this.targetJinixPath = targetJinixPath;
+        }
+
+        @Override
+        protected void compute() {
+            for (Path path : batch) {
+                if (cancelled) {
+                    return;
+                }
+                String name = path.getFileName().toString();
+                copyFile(path, sourceJinixPath + "/" + name, target.resolve(name), targetJinixPath + "/" + name);
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.Serializable;
+
+/**
+ * The progress of a recursive delete or copy started through a FileTreeNameSpace. The counters cover the files and
+ * directories that have been deleted or copied so far. failedPaths[i] could not be deleted or copied because of
+ * failureMessages[i]. Only the first failures are reported, errorCount is the total.
+ */
+public class FileTreeOperationStatus implements Serializable {
+
+    public long operationId;
+    public boolean done;
+    public boolean cancelled;
+    public long files;
+    public long directories;
+    public long bytes;
+    public long errorCount;
+    public String[] failedPaths;
+    public String[] failureMessages;
+}
@@ -0,0 +1,20 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.naming.DirectoryFileData;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * A page of the entries found by a FileTreeNameSpace walk. paths[i] is the absolute path of the entry described by
+ * entries[i].
+ */
+public class FileTreePage implements Serializable {
+
+    public long walkId;
+    public String[] paths;
+    public DirectoryFileData[] entries;
+    public boolean last;
+    public Map<String, Long> directorySizes; // Only in the last page, and only when requested by the filter
+    public long errorCount; // Only in the last page. The number of files or directories that could not be read.
+}
@@ -0,0 +1,295 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.naming.DirectoryFileData;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A walk of a directory tree started by FileSystemServer.walk(). Each directory is listed by its own task on a
+ * ForkJoinPool, and matching entries are put on a bounded queue that the pages are taken from. A task that waits for
+ * space in the queue is a managed blocker, so the pool adds a worker in its place and the server's other parallel
+ * operations are not starved. If the client stops taking pages, the walk is cancelled once the queue has been full for
+ * a while. Symbolic links are not followed.
+ */
+class FileTreeWalk {
+
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final long OFFER_TIMEOUT_SECONDS = 60;
+    private static final long PAGE_LINGER_MILLIS = 20;
+    private static final WalkEntry END = new WalkEntry(null, null);
+
+    final long id;
+    private final Path rootPath;
+    private final String rootJinixPath;
+    private final FileTreeFilter filter;
+    private final int maxDepth;
+    private final PathMatcher nameMatcher;
+
+    private final BlockingQueue<WalkEntry> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Map<String, Long> directorySizes = new ConcurrentHashMap<>();
+    private final AtomicLong errorCount = new AtomicLong();
+    private volatile boolean cancelled;
+    private volatile boolean ended;
+    private volatile long lastActivityTime = System.currentTimeMillis();
+
+    FileTreeWalk(long id, Path rootPath, String rootJinixPath, FileTreeFilter filter) {
+        this.id = id;
+        this.rootPath = rootPath;
+        this.rootJinixPath = (rootJinixPath.endsWith("/") ? rootJinixPath.substring(0, rootJinixPath.length() - 1) :
+                rootJinixPath);
+        this.filter = (filter != null ? filter : new FileTreeFilter());
+        this.maxDepth = (this.filter.maxDepth > 0 ? this.filter.maxDepth : Integer.MAX_VALUE);
+        this.nameMatcher = (this.filter.namePattern != null ?
+                FileSystems.getDefault().getPathMatcher("glob:" + this.filter.namePattern) : null);
+    }
+
+    /**
+     * @param onCancelled run when the walk ends after being cancelled, including when it is abandoned by the client
+     */
+    void start(ForkJoinPool pool, Runnable onCancelled) {
+        pool.execute(() -> {
+            try {
+                new DirectoryTask(rootPath, rootJinixPath, 0).invoke();
+            } finally {
+                end();
+                if (cancelled) {
+                    onCancelled.run();
+                }
+            }
+        });
+    }
+
+    void cancel() {
+        cancelled = true;
+        queue.clear();
+    }
+
+    /**
+     * @return true if the walk has queued its last entry, whether or not the client has taken it
+     */
+    boolean isEnded() {
+        return ended;
+    }
+
+    /**
+     * @return the time the walk ended or a page was last taken, whichever is later
+     */
+    long getLastActivityTime() {
+        return lastActivityTime;
+    }
+
+    /**
+     * Take the next page of entries, waiting until at least one entry is available or the walk has ended.
+     */
+    FileTreePage nextPage(int pageSize) throws InterruptedException {
+        pageSize = Math.max(pageSize, 1);
+        List<WalkEntry> taken = new ArrayList<>(Math.min(pageSize, QUEUE_CAPACITY));
+        WalkEntry e = queue.take();
+        // Linger briefly for more entries, so that pages are not returned nearly empty while the walk is running
+        while (e != null) {
+            taken.add(e);
+            if (e == END || taken.size() == pageSize) {
+                break;
+            }
+            queue.drainTo(taken, pageSize - taken.size());
+            if (taken.get(taken.size() - 1) == END || taken.size() == pageSize) {
+                break;
+            }
+            e = queue.poll(PAGE_LINGER_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        FileTreePage page = new FileTreePage();
+        page.walkId = id;
+        List<String> paths = new ArrayList<>(taken.size());
+        List<DirectoryFileData> entries = new ArrayList<>(taken.size());
+        for (WalkEntry w : taken) {
+            if (w == END) {
+                page.last = true;
+                break;
+            }
+            paths.add(w.path);
+            entries.add(w.data);
+        }
+        lastActivityTime = System.currentTimeMillis();
+        page.paths = paths.toArray(new String[0]);
+        page.entries = entries.toArray(new DirectoryFileData[0]);
+        if (page.last) {
+            page.errorCount = errorCount.get();
+            if (filter.aggregateSizes) {
+                page.directorySizes = new HashMap<>(directorySizes);
+            }
+        }
+        return page;
+    }
+
+    private boolean matches(String name, BasicFileAttributes attributes) {
+        if (filter.type != null &&
+                (filter.type == DirectoryFileData.FileType.DIRECTORY) != attributes.isDirectory()) {
+            return false;
+        }
+        if (filter.minSize >= 0 && attributes.size() < filter.minSize) {
+            return false;
+        }
+        if (filter.maxSize >= 0 && attributes.size() > filter.maxSize) {
+            return false;
+        }
+        return (nameMatcher == null || nameMatcher.matches(rootPath.getFileSystem().getPath(name)));
+    }
+
+    private void emit(String path, DirectoryFileData data) {
+        try {
+            if (!offer(new WalkEntry(path, data))) {
+                FileSystemServer.logger.warning("Tree walk abandoned by client: " + rootJinixPath);
+                cancel();
+            }
+        } catch (InterruptedException e) {
+            cancel();
+        }
+    }
+
+    private void end() {
+        try {
+            if (!cancelled && offer(END)) {
+                markEnded();
+                return;
+            }
+        } catch (InterruptedException e) {
+            // Fall through and discard
+        }
+        queue.clear();
+        queue.offer(END);
+        markEnded();
+    }
+
+    private void markEnded() {
+        lastActivityTime = System.currentTimeMillis();
+        ended = true;
+    }
+
+    /**
+     * Put an entry on the queue, waiting up to OFFER_TIMEOUT_SECONDS for space without holding up the pool.
+     *
+     * @return false if there was no space before the timeout
+     */
+    private boolean offer(WalkEntry entry) throws InterruptedException {
+        if (queue.offer(entry)) {
+            return true;
+        }
+        QueueOffer offer = new QueueOffer(entry);
+        ForkJoinPool.managedBlock(offer);
+        return offer.offered;
+    }
+
+    private class DirectoryTask extends RecursiveTask<Long> {
+
+        private final Path directory;
+        private final String jinixPath;
+        private final int depth;
+
+        private DirectoryTask(Path directory, String jinixPath, int depth) {
+            this.directory = directory;
+            this.jinixPath = jinixPath;
+            this.depth = depth;
+        }
+
+        /**
+         * @return the total size of the files below the directory
+         */
+        @Override
+        protected Long compute() {
+            long total = 0;
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory)) {
+                for (Path child : ds) {
+                    if (cancelled) {
+                        return 0L;
+                    }
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        errorCount.incrementAndGet();
+                        continue;
+                    }
+                    String name = child.getFileName().toString();
+                    String childJinixPath = jinixPath + "/" + name;
+                    if (matches(name, attributes)) {
+                        emit(childJinixPath, FileSystemServer.toDirectoryFileData(name, attributes));
+                    }
+                    if (attributes.isDirectory()) {
+                        if (depth + 1 < maxDepth) {
+                            subtasks.add(new DirectoryTask(child, childJinixPath, depth + 1));
+                        }
+                    } else {
+                        total += attributes.size();
+                    }
+                }
+            } catch (IOException e) {
+                errorCount.incrementAndGet();
+            }
+
+            invokeAll(subtasks);
+            for (DirectoryTask t : subtasks) {
+                total += t.join();
+            }
+            if (filter.aggregateSizes) {
+                directorySizes.put(jinixPath.isEmpty() ? "/" : jinixPath, total);
+            }
+            return total;
+        }
+    }
+
+    private class QueueOffer implements ForkJoinPool.ManagedBlocker {
+
+        private final WalkEntry entry;
+        private final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(OFFER_TIMEOUT_SECONDS);
+        private boolean offered;
+
+        private QueueOffer(WalkEntry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            long remaining = deadline - System.nanoTime();
+            offered = (remaining > 0 && queue.offer(entry, remaining, TimeUnit.NANOSECONDS));
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            if (!offered) {
+                offered = queue.offer(entry);
+            }
+            return (offered || System.nanoTime() - deadline >= 0);
+        }
+    }
+
+    private static class WalkEntry {
+        String path;
+        DirectoryFileData data;
+
+        private WalkEntry(String p, DirectoryFileData d) {
+            path = p;
+            data = d;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Coalesces force requests for the files open in a FileSystemServer. Each open file has a FileSyncState shared by all
+ * of its OpenFiles. Writes advance the file's write generation, and a force only has to cover the
+ * generation that was current when it was requested. While one fsync is in progress for a file, other force requests
+ * for that file wait, and the next fsync covers all of them. An optional commit delay holds the leading fsync back
+ * for a short window so that more requests can join it.
+ */
+class GroupCommitEngine {
+
+    private static final int SYNC_THREADS = 4;
+
+    private final long commitDelayNanos;
+    private final Map<Path, FileSyncState> fileStateMap = new ConcurrentHashMap<>();
+
+    private final AtomicLong forceRequests = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    GroupCommitEngine(long commitDelayMicros) {
+        this.commitDelayNanos = commitDelayMicros * 1000;
+    }
+
+    void register(OpenFile s, boolean writable, long size) {
+        s.syncState = fileStateMap.compute(s.filePath, (path, state) -> {
+            if (state == null) {
+                state = new FileSyncState();
+                state.writtenEnd = size;
+                // A file opened for writing may have unsynced writes from accessors that have already closed
+                if (writable) {
+                    state.writeGeneration = 1;
+                }
+            }
+            synchronized (state) {
+                state.channels.add(s);
+            }
+            return state;
+        });
+    }
+
+    void unregister(OpenFile s) {
+        fileStateMap.computeIfPresent(s.filePath, (path, state) -> {
+            synchronized (state) {
+                state.channels.remove(s);
+                return (state.channels.isEmpty() ? null : state);
+            }
+        });
+    }
+
+    void markDirty(OpenFile s) {
+        FileSyncState state = s.syncState;
+        synchronized (state) {
+            state.writeGeneration++;
+        }
+    }
+
+    /**
+     * Record that bytes are about to be written up to the given end of the file. Recorded before the write, so that a
+     * preallocating accessor does not trim the bytes away while they are being written.
+     */
+    void written(OpenFile s, long end) {
+        FileSyncState state = s.syncState;
+        synchronized (state) {
+            state.writtenEnd = Math.max(state.writtenEnd, end);
+        }
+    }
+
+    /**
+     * Record that the file was truncated to the given size through an accessor.
+     */
+    void truncated(OpenFile s, long size) {
+        FileSyncState state = s.syncState;
+        synchronized (state) {
+            state.writtenEnd = size;
+        }
+    }
+
+    void truncate(OpenFile s, FileChannel fc, long size) throws IOException {
+        FileSyncState state = s.syncState;
+        synchronized (state) {
+            fc.truncate(size);
+            state.writtenEnd = size;
+        }
+    }
+
+    /**
+     * Trim the zeros that a preallocating accessor reserved from the end of its writes to the end of its reserved
+     * space. The trim stops at the end of the bytes written through any other accessor, and nothing is trimmed if the
+     * file has grown beyond the reserved space.
+     */
+    void trimPreallocation(OpenFile s, FileChannel fc, long size, long reservedEnd) throws IOException {
+        FileSyncState state = s.syncState;
+        synchronized (state) {
+            long end = Math.max(size, state.writtenEnd);
+            if (end < reservedEnd && fc.size() <= reservedEnd) {
+                fc.truncate(end);
+            }
+        }
+    }
+
+    /**
+     * The file's write generation changes whenever the file is written or its size is changed through any of its
+     * accessors, so it can be used to validate cached information about the file.
+     */
+    long getWriteGeneration(OpenFile s) {
+        FileSyncState state = s.syncState;
+        synchronized (state) {
+            return state.writeGeneration;
+        }
+    }
+
+    /**
+     * Make all writes to the file that completed before this call durable. Returns without an fsync if another
+     * force has already covered them.
+     */
+    void force(OpenFile s, boolean metaData) throws IOException {
+        forceRequests.incrementAndGet();
+        FileSyncState state = s.syncState;
+        synchronized (state) {
+            long target = state.writeGeneration;
+            while (true) {
+                if ((metaData ? state.syncedMetaDataGeneration : state.syncedGeneration) >= target) {
+                    coalesced.incrementAndGet();
+                    return;
+                }
+                if (!state.syncing) {
+                    break;
+                }
+                if (metaData) {
+                    state.pendingMetaData = true;
+                }
+                try {
+                    state.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for force");
+                }
+            }
+            state.syncing = true;
+        }
+
+        try {
+            if (commitDelayNanos > 0) {
+                LockSupport.parkNanos(commitDelayNanos);
+            }
+
+            long generation;
+            boolean forceMetaData;
+            synchronized (state) {
+                generation = state.writeGeneration;
+                forceMetaData = metaData || state.pendingMetaData;
+                state.pendingMetaData = false;
+            }
+
+            s.fc.force(forceMetaData);
+            fsyncs.incrementAndGet();
+
+            synchronized (state) {
+                state.syncedGeneration = Math.max(state.syncedGeneration, generation);
+                if (forceMetaData) {
+                    state.syncedMetaDataGeneration = Math.max(state.syncedMetaDataGeneration, generation);
+                }
+            }
+        } finally {
+            synchronized (state) {
+                state.syncing = false;
+                state.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Force every dirty open file, with the fsyncs for different files running in parallel.
+     */
+    void syncAll() throws IOException {
+        List<OpenFile> dirty = new ArrayList<>();
+        for (FileSyncState state : fileStateMap.values()) {
+            synchronized (state) {
+                if (state.syncedMetaDataGeneration < state.writeGeneration && !state.channels.isEmpty()) {
+                    dirty.add(state.channels.iterator().next());
+                }
+            }
+        }
+
+        if (dirty.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(dirty.size(), SYNC_THREADS));
+        try {
+            List<Future<?>> futures = new ArrayList<>(dirty.size());
+            for (OpenFile s : dirty) {
+                futures.add(executor.submit(() -> {
+                    force(s, true);
+                    return null;
+                }));
+            }
+
+            IOException failure = null;
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    // A file closed while the sync was running is not an error
+                    if (!(e.getCause() instanceof ClosedChannelException)) {
+                        failure = (e.getCause() instanceof IOException ? (IOException) e.getCause() :
+                                new IOException("Sync failed", e.getCause()));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for sync");
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    long getForceRequestCount() {
+        return forceRequests.get();
+    }
+
+    long getFsyncCount() {
+        return fsyncs.get();
+    }
+
+    long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    static class FileSyncState {
+        private final Set<OpenFile> channels = new HashSet<>();
+        private long writeGeneration;
+        private long writtenEnd; // the end of the bytes written through any accessor, not counting preallocation
+        private long syncedGeneration;
+        private long syncedMetaDataGeneration;
+        private boolean syncing;
+        private boolean pendingMetaData;
+    }
+}
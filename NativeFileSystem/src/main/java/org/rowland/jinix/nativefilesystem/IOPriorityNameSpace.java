@@ -0,0 +1,28 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Sets the I/O priority class of a process for the files it has open in a file system. Interactive processes are
+ * never throttled and are scheduled ahead of the other classes. Bulk processes, such as backups, are limited to a
+ * fraction of the transfer rate of normal processes while other processes are using the file system.
+ */
+public interface IOPriorityNameSpace extends Remote {
+
+    int IOPRIO_INTERACTIVE = 0;
+    int IOPRIO_NORMAL = 1;
+    int IOPRIO_BULK = 2;
+
+    /**
+     * Set the I/O priority class of a process. The class reverts to IOPRIO_NORMAL when the process has no files open
+     * in the file system.
+     *
+     * @param pid the process
+     * @param priorityClass one of IOPRIO_INTERACTIVE, IOPRIO_NORMAL and IOPRIO_BULK
+     * @throws RemoteException
+     */
+    void setIOPriority(int pid, int priorityClass) throws RemoteException;
+
+    int getIOPriority(int pid) throws RemoteException;
+}
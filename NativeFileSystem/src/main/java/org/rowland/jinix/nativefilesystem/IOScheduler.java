@@ -0,0 +1,331 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules the reads and writes of the FileSystemChannelServers of a FileSystemServer between processes. A fixed
+ * number of requests may be in progress at a time. When all of the slots are busy, waiting requests are granted slots
+ * in priority class order. One slot is reserved for the interactive class, so an interactive request only waits for
+ * other interactive requests, and one more is kept from the bulk class, so bulk requests cannot hold off the normal
+ * class either.
+ *
+ * Each process has a token bucket that is refilled at the byte rate of its priority class. A process that has
+ * used up its tokens is throttled, but only while other processes have requests waiting or in progress, so a process
+ * that has the file system to itself always runs at full speed.
+ */
+class IOScheduler {
+
+    static final long DEFAULT_BYTES_PER_SECOND = 64L * 1024 * 1024;
+    private static final int SLOTS = 4;
+    private static final int SHARED_SLOTS = SLOTS - 1; // the slots the normal and bulk classes may hold
+    private static final int BULK_SLOTS = SLOTS - 2;
+
+    static final int CLASSES = 3;
+    private static final int[] RATE_DIVISOR = {0, 1, 4}; // interactive is not rate limited, bulk gets a quarter
+
+    private final long bytesPerSecond;
+    private int busySlots;
+    private int sharedSlots;
+    private int bulkSlots;
+    private final Map<Integer, PidState> pidStateMap = new HashMap<>();
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Waiter>[] waitQueues = new ArrayDeque[CLASSES];
+
+    private final AtomicLong[] requests = newCounters();
+    private final AtomicLong[] queued = newCounters();
+    private final AtomicLong[] throttled = newCounters();
+    private final AtomicLong[] waitNanos = newCounters();
+    private int maxQueueLength;
+
+    IOScheduler(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        for (int i = 0; i < CLASSES; i++) {
+            waitQueues[i] = new ArrayDeque<>();
+        }
+    }
+
+    private static AtomicLong[] newCounters() {
+        AtomicLong[] counters = new AtomicLong[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            counters[i] = new AtomicLong();
+        }
+        return counters;
+    }
+
+    synchronized void setPriority(int pid, int priorityClass) {
+        if (priorityClass < IOPriorityNameSpace.IOPRIO_INTERACTIVE || priorityClass > IOPriorityNameSpace.IOPRIO_BULK) {
+            throw new IllegalArgumentException("Invalid I/O priority class: " + priorityClass);
+        }
+        getPidState(pid).priorityClass = priorityClass;
+    }
+
+    synchronized int getPriority(int pid) {
+        PidState state = pidStateMap.get(pid);
+        return (state != null ? state.priorityClass : defaultPriority(pid));
+    }
+
+    /**
+     * Forget a process that no longer has any files open. Its priority class reverts to the default.
+     */
+    synchronized void removePid(int pid) {
+        PidState state = pidStateMap.get(pid);
+        if (state != null && state.active == 0) {
+            pidStateMap.remove(pid);
+        }
+    }
+
+    /**
+     * Wait for a slot to transfer the given number of bytes for a process. Every successful call must be followed by
+     * a call to release() with the priority class that was returned.
+     *
+     * @return the priority class the slot was granted in
+     */
+    synchronized int acquire(int pid, int bytes) throws InterruptedIOException {
+        PidState state = getPidState(pid);
+        int priorityClass = state.priorityClass;
+        requests[priorityClass].incrementAndGet();
+        refill(state, System.nanoTime());
+
+        if (noWaiters(priorityClass) && isEligible(state) && grant(state, priorityClass, bytes)) {
+            return priorityClass;
+        }
+
+        Waiter waiter = new Waiter(state, bytes);
+        waitQueues[priorityClass].add(waiter);
+        queued[priorityClass].incrementAndGet();
+        if (!isEligible(state)) {
+            throttled[priorityClass].incrementAndGet();
+        }
+        maxQueueLength = Math.max(maxQueueLength, getQueueLength());
+
+        long start = System.nanoTime();
+        try {
+            while (!waiter.granted) {
+                long waitMillis = dispatch();
+                if (waiter.granted) {
+                    break;
+                }
+                if (waitMillis > 0) {
+                    wait(waitMillis);
+                } else {
+                    wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            if (waiter.granted) {
+                release(pid, priorityClass);
+            } else {
+                waitQueues[priorityClass].remove(waiter);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for I/O scheduling");
+        } finally {
+            waitNanos[priorityClass].addAndGet(System.nanoTime() - start);
+        }
+        return priorityClass;
+    }
+
+    synchronized void release(int pid, int priorityClass) {
+        busySlots--;
+        if (priorityClass != IOPriorityNameSpace.IOPRIO_INTERACTIVE) {
+            sharedSlots--;
+        }
+        if (priorityClass == IOPriorityNameSpace.IOPRIO_BULK) {
+            bulkSlots--;
+        }
+        PidState state = pidStateMap.get(pid);
+        if (state != null) {
+            state.active--;
+        }
+        if (getQueueLength() > 0) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Grant free slots to eligible waiters in priority class order, and wake them.
+     *
+     * @return the number of milliseconds until a throttled waiter may become eligible, or 0 if there is none
+     */
+    private long dispatch() {
+        long now = System.nanoTime();
+        long nextRefillNanos = 0;
+        boolean granted = false;
+        for (int c = 0; c < CLASSES && busySlots < SLOTS; c++) {
+            Iterator<Waiter> i = waitQueues[c].iterator();
+            while (i.hasNext() && busySlots < SLOTS) {
+                Waiter waiter = i.next();
+                refill(waiter.state, now);
+                if (!isEligible(waiter.state)) {
+                    long refillNanos = nanosUntilEligible(waiter.state);
+                    nextRefillNanos = (nextRefillNanos == 0 ? refillNanos : Math.min(nextRefillNanos, refillNanos));
+                    continue;
+                }
+                if (!grant(waiter.state, c, waiter.bytes)) {
+                    break; // No more slots for this class, try the next class
+                }
+                waiter.granted = true;
+                granted = true;
+                i.remove();
+            }
+        }
+        if (granted) {
+            notifyAll();
+        }
+        return (nextRefillNanos == 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextRefillNanos)));
+    }
+
+    private boolean grant(PidState state, int priorityClass, int bytes) {
+        if (busySlots >= SLOTS) {
+            return false;
+        }
+        if (priorityClass != IOPriorityNameSpace.IOPRIO_INTERACTIVE) {
+            if (sharedSlots >= SHARED_SLOTS) {
+                return false;
+            }
+            if (priorityClass == IOPriorityNameSpace.IOPRIO_BULK) {
+                if (bulkSlots >= BULK_SLOTS) {
+                    return false;
+                }
+                bulkSlots++;
+            }
+            sharedSlots++;
+        }
+        busySlots++;
+        state.active++;
+        state.tokens -= bytes;
+        return true;
+    }
+
+    private boolean noWaiters(int priorityClass) {
+        for (int c = 0; c <= priorityClass; c++) {
+            if (!waitQueues[c].isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A process may run if it has tokens, or if no other process is competing for the file system.
+     */
+    private boolean isEligible(PidState state) {
+        if (state.tokens > 0 || RATE_DIVISOR[state.priorityClass] == 0) {
+            return true;
+        }
+        for (PidState other : pidStateMap.values()) {
+            if (other != state && other.active > 0) {
+                return false;
+            }
+        }
+        for (ArrayDeque<Waiter> queue : waitQueues) {
+            for (Waiter waiter : queue) {
+                if (waiter.state != state) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void refill(PidState state, long now) {
+        int divisor = RATE_DIVISOR[state.priorityClass];
+        if (divisor == 0) {
+            state.lastRefill = now;
+            return;
+        }
+        long rate = bytesPerSecond / divisor;
+        long elapsed = now - state.lastRefill;
+        if (elapsed > 0) {
+            // The bucket holds at most one second of transfer
+            long added = (long) ((double) elapsed * rate / TimeUnit.SECONDS.toNanos(1));
+            state.tokens = Math.min(state.tokens + added, rate);
+            state.lastRefill = now;
+        }
+    }
+
+    private long nanosUntilEligible(PidState state) {
+        long rate = bytesPerSecond / RATE_DIVISOR[state.priorityClass];
+        return (long) ((double) (1 - state.tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+
+    private PidState getPidState(int pid) {
+        PidState state = pidStateMap.get(pid);
+        if (state == null) {
+            state = new PidState(defaultPriority(pid));
+            int divisor = RATE_DIVISOR[state.priorityClass];
+            state.tokens = (divisor == 0 ? 0 : bytesPerSecond / divisor); // Start with a full bucket
+            pidStateMap.put(pid, state);
+        }
+        return state;
+    }
+
+    private static int defaultPriority(int pid) {
+        // The kernel (pid -1) loads the jars of new processes and translators
+        return (pid == -1 ? IOPriorityNameSpace.IOPRIO_INTERACTIVE : IOPriorityNameSpace.IOPRIO_NORMAL);
+    }
+
+    private int getQueueLength() {
+        int length = 0;
+        for (ArrayDeque<Waiter> queue : waitQueues) {
+            length += queue.size();
+        }
+        return length;
+    }
+
+    synchronized int getBusySlots() {
+        return busySlots;
+    }
+
+    synchronized int getWaiting() {
+        return getQueueLength();
+    }
+
+    synchronized int getMaxQueueLength() {
+        return maxQueueLength;
+    }
+
+    long getRequestCount(int priorityClass) {
+        return requests[priorityClass].get();
+    }
+
+    long getQueuedCount(int priorityClass) {
+        return queued[priorityClass].get();
+    }
+
+    long getThrottledCount(int priorityClass) {
+        return throttled[priorityClass].get();
+    }
+
+    long getWaitNanos(int priorityClass) {
+        return waitNanos[priorityClass].get();
+    }
+
+    private static class PidState {
+        private int priorityClass;
+        private long tokens;
+        private long lastRefill = System.nanoTime();
+        private int active;
+
+        private PidState(int priorityClass) {
+            this.priorityClass = priorityClass;
+        }
+    }
+
+    private static class Waiter {
+        private final PidState state;
+        private final int bytes;
+        private boolean granted;
+
+        private Waiter(PidState state, int bytes) {
+            this.state = state;
+            this.bytes = bytes;
+        }
+    }
+}
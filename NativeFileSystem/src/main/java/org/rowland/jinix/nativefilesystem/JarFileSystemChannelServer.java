@@ -6,21 +6,33 @@ import org.rowland.jinix.naming.RemoteJarFileAccessor;
 import java.io.*;
 import java.net.JarURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -30,6 +42,8 @@ import java.util.zip.ZipInputStream;
  * the starting locates of the named classes byte code. This indexing will include any jar files in the /lib directory.
  * Once the index is built, class byte code and resources can be accessed quickly by positioning the channel underlying
  * the FileOutputStream at the start of the byte code, and using an InflaterInputStream to uncompress the class byte code.
+ * STORED entries are read directly from the channel without an Inflater. Clients that inflate entries themselves can
+ * get them with getRawEntry(), which reads the stored bytes of the entry without inflating them.
  */
 
 //TODO: Add FileSystem level caching of jar file indexes. As many jars do not change often, and many processes will be
@@ -37,10 +51,20 @@ import java.util.zip.ZipInputStream;
     // required to store the jar file indexes.
 //TODO: Improve the efficiency of the jar file indexes. Many names repeat package text.
 public class JarFileSystemChannelServer extends FileSystemChannelServer
-    implements RemoteJarFileAccessor {
+    implements RemoteJarPrefetchAccessor, RemoteJarRawEntryAccessor {
 
-    JarFile jarFile;
+    private static final int PREFETCH_QUEUE_CAPACITY = 256;
+    private static final long PREFETCH_OFFER_TIMEOUT_SECONDS = 30;
+    private static final PrefetchEntry PREFETCH_END = new PrefetchEntry(null, null);
+
+    JarFile jarFile; // Not opened when the index comes from the ReadOnlyCache
+    Manifest manifest;
     InputStream inflaterInputStream;
+    ClassEntry storedEntry; // The current entry when it is STORED, and can be read directly from the channel
+    long storedEntryOffset;
+    byte[] cachedEntry; // The current entry when it has been served from the NestedJarCache
+    int cachedEntryOffset;
+    Inflater entryInflater;
     boolean entryEOF;
     FileInputStream fis;
     FileChannel ch;
@@ -52,9 +76,22 @@ public class JarFileSystemChannelServer extends FileSystemChannelServer
 
     Map<String, ClassEntry> classBytesMap; // A map from fully qualified class names to the bytes that define their class
     Set<String> packageSet;
+    List<NestedJarSegment> nestedJarSegments; // Shared indexes of the lib jars, searched after classBytesMap
 
     long position; // The position in the jar as it is being scanned.
 
+    // Class load profiling. The order in which entries are found is recorded, and saved as the profile for the jar and
+    // its main class when the jar is closed. If a profile exists when the jar is opened, its entries are inflated in
+    // the background into the prefetch queue once the client first calls getPrefetchBundle(), so a client that does not
+    // collect them never holds a prefetch thread.
+    String mainClass;
+    BasicFileAttributes jarAttributes;
+    List<String> loadProfile;
+    Set<String> loadOrder;
+    BlockingQueue<PrefetchEntry> prefetchQueue;
+    volatile boolean prefetchCancelled;
+    boolean prefetchStarted; // guarded by this
+
     protected JarFileSystemChannelServer(FileSystemServer server,
                                       int pid,
                                       String fullPath,
@@ -75,7 +112,6 @@ public class JarFileSystemChannelServer extends FileSystemChannelServer
             if (classBytesMap == null) {
                 buildClassBytesMap();
             }
-            Manifest manifest = jarFile.getManifest();
             if (manifest == null) {
                 return null;
             }
@@ -107,22 +143,211 @@ public class JarFileSystemChannelServer extends FileSystemChannelServer
                 buildClassBytesMap();
             }
 
-            ClassEntry classEntry = classBytesMap.get(name);
+            ClassEntry classEntry = lookupEntry(name);
             if (classEntry == null) {
                 return -1;
             }
-            inflaterInputStream = new InflaterInputStream(fis, new Inflater(true), 512);
-            ch.position(classEntry.position);
+            recordLoad(name);
+            inflaterInputStream = null;
+            storedEntry = null;
+            cachedEntry = null;
+            if (isEntryCacheable(classEntry)) {
+                if (entryInflater == null) {
+                    entryInflater = new Inflater(true);
+                }
+                cachedEntry = readCacheableEntry(name, classEntry, entryInflater);
+                cachedEntryOffset = 0;
+            } else if (classEntry.method == ZipEntry.STORED) {
+                storedEntry = classEntry;
+                storedEntryOffset = 0;
+            } else {
+                inflaterInputStream = new InflaterInputStream(fis, new Inflater(true), 512);
+                ch.position(classEntry.position);
+            }
             entryEOF = false;
 
             return classEntry.size;
+        } catch (IOException | DataFormatException e) {
+            throw new RemoteException("Internal Error", e);
+        }
+    }
+
+    @Override
+    public RawJarEntry getRawEntry(String name) throws RemoteException {
+        try {
+            if (classBytesMap == null) {
+                buildClassBytesMap();
+            }
+
+            ClassEntry classEntry = lookupEntry(name);
+            if (classEntry == null) {
+                return null;
+            }
+            if (classEntry.compressedSize > MAX_RAW_ENTRY_SIZE) {
+                throw new RemoteException("Entry too large for raw transfer: " + name);
+            }
+            recordLoad(name);
+            return new RawJarEntry(classEntry.method, classEntry.crc, classEntry.size, readRawEntry(ch, classEntry));
         } catch (IOException e) {
             throw new RemoteException("Internal Error", e);
         }
     }
 
+    /**
+     * Read the complete uncompressed bytes of an entry in a single call, for a ClasspathResolverServer. The inflater
+     * belongs to the caller, so the entry state used by findEntry() and read() is not disturbed.
+     *
+     * @return the bytes, or null if there is no entry with the name
+     */
+    byte[] readEntryBytes(String name, Inflater inflater) throws IOException, DataFormatException {
+        ClassEntry classEntry = lookupEntry(name);
+        if (classEntry == null) {
+            return null;
+        }
+        if (classEntry.size > MAX_RAW_ENTRY_SIZE) {
+            throw new IOException("Entry too large to read in a single call: " + name);
+        }
+        recordLoad(name);
+        if (isEntryCacheable(classEntry)) {
+            return readCacheableEntry(name, classEntry, inflater);
+        }
+        return readEntry(ch, classEntry, inflater);
+    }
+
+    /**
+     * Add the name of every entry of the jar, including the entries of its lib jars, to a merged classpath index,
+     * unless an earlier jar of the classpath already has an entry with the name.
+     */
+    void indexEntries(Map<String, Integer> index, Integer jar) throws IOException {
+        if (classBytesMap == null) {
+            buildClassBytesMap();
+        }
+        for (String name : classBytesMap.keySet()) {
+            index.putIfAbsent(name, jar);
+        }
+        for (NestedJarSegment segment : nestedJarSegments) {
+            for (String name : segment.index.entries.keySet()) {
+                index.putIfAbsent(name, jar);
+            }
+        }
+    }
+
+    /**
+     * Get the number of entries in the jar and its lib jars, building the index if it has not been built.
+     */
+    int getEntryCount() throws IOException {
+        if (classBytesMap == null) {
+            buildClassBytesMap();
+        }
+        int count = classBytesMap.size();
+        for (NestedJarSegment segment : nestedJarSegments) {
+            count += segment.index.entries.size();
+        }
+        return count;
+    }
+
+    private boolean isEntryCacheable(ClassEntry classEntry) {
+        return classEntry.nestedJarKey != null && server.nestedJarCache.isEntryCacheEnabled() &&
+                classEntry.size <= NestedJarCache.MAX_CACHED_ENTRY_SIZE;
+    }
+
+    /**
+     * Get an entry of a shared lib jar from the NestedJarCache, inflating and caching it if it is not cached.
+     */
+    private byte[] readCacheableEntry(String name, ClassEntry classEntry, Inflater inflater)
+            throws IOException, DataFormatException {
+        byte[] b = server.nestedJarCache.getEntry(classEntry.nestedJarKey, name);
+        if (b == null) {
+            b = readEntry(ch, classEntry, inflater);
+            server.nestedJarCache.putEntry(classEntry.nestedJarKey, name, b);
+        }
+        return b;
+    }
+
+    private synchronized void recordLoad(String name) {
+        if (loadOrder != null && loadOrder.size() < ClassLoadProfileManager.MAX_PROFILE_ENTRIES) {
+            loadOrder.add(name);
+        }
+    }
+
+    /**
+     * Find the entry with the given name, first among the entries of the jar itself, and then in the lib jars in the
+     * order they appear in the jar.
+     *
+     * @return the entry with its absolute position in the jar file, or null if there is no such entry
+     */
+    ClassEntry lookupEntry(String name) {
+        ClassEntry classEntry = classBytesMap.get(name);
+        if (classEntry != null) {
+            return classEntry;
+        }
+        for (NestedJarSegment segment : nestedJarSegments) {
+            ClassEntry nestedEntry = segment.index.entries.get(name);
+            if (nestedEntry != null) {
+                classEntry = new ClassEntry(segment.base + nestedEntry.position, nestedEntry.size,
+                        nestedEntry.compressedSize, nestedEntry.crc, nestedEntry.method);
+                classEntry.nestedJarKey = segment.index.key;
+                return classEntry;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public PrefetchBundle getPrefetchBundle(int maxBytes) throws RemoteException {
+        try {
+            if (classBytesMap == null) {
+                buildClassBytesMap();
+            }
+        } catch (IOException e) {
+            throw new RemoteException("Internal Error", e);
+        }
+
+        BlockingQueue<PrefetchEntry> queue = startPrefetch();
+        if (queue == null) {
+            return null;
+        }
+
+        List<String> names = new ArrayList<>();
+        List<byte[]> entries = new ArrayList<>();
+        int bytes = 0;
+        try {
+            PrefetchEntry e = queue.take();
+            while (e != PREFETCH_END) {
+                names.add(e.name);
+                entries.add(e.bytes);
+                bytes += e.bytes.length;
+                if (bytes >= maxBytes) {
+                    break;
+                }
+                e = queue.poll();
+                if (e == null) {
+                    break;
+                }
+            }
+            if (e == PREFETCH_END) {
+                prefetchQueue = null;
+            }
+        } catch (InterruptedException e) {
+            throw new RemoteException("Interrupted waiting for prefetch entries", e);
+        }
+
+        if (names.isEmpty()) {
+            return null;
+        }
+        return new PrefetchBundle(names.toArray(new String[0]), entries.toArray(new byte[0][]));
+    }
+
     @Override
     public byte[] read(int pid, int len) throws RemoteException {
+        if (cachedEntry != null) {
+            return readCachedEntry(len);
+        }
+
+        if (storedEntry != null) {
+            return readStoredEntry(len);
+        }
+
         if (inflaterInputStream == null) {
             return super.read(pid, len);
         }
@@ -157,15 +382,67 @@ public class JarFileSystemChannelServer extends FileSystemChannelServer
         }
     }
 
+    /**
+     * Read a STORED entry with positional reads directly from the jar file channel. The bytes of a STORED entry are
+     * the entry data, so no Inflater is involved and the channel position is not disturbed.
+     */
+    private byte[] readStoredEntry(int len) throws RemoteException {
+        long remaining = storedEntry.size - storedEntryOffset;
+        if (remaining <= 0) {
+            return null;
+        }
+
+        try {
+            byte[] b = new byte[(int) Math.min(len, remaining)];
+            ByteBuffer bb = ByteBuffer.wrap(b);
+            long entryPosition = storedEntry.position + storedEntryOffset;
+            while (bb.hasRemaining()) {
+                int r = ch.read(bb, entryPosition + bb.position());
+                if (r == -1) {
+                    throw new EOFException("Unexpected end of jar file reading stored entry");
+                }
+            }
+            storedEntryOffset += b.length;
+            return b;
+        } catch (IOException e) {
+            throw new RemoteException("Internal Error", e);
+        }
+    }
+
+    private byte[] readCachedEntry(int len) {
+        int remaining = cachedEntry.length - cachedEntryOffset;
+        if (remaining <= 0) {
+            return null;
+        }
+        byte[] b = new byte[Math.min(len, remaining)];
+        System.arraycopy(cachedEntry, cachedEntryOffset, b, 0, b.length);
+        cachedEntryOffset += b.length;
+        return b;
+    }
+
     @Override
     public synchronized void close() throws RemoteException {
         try {
-            if (inflaterInputStream != null) {
+            if (inflaterInputStream != null || storedEntry != null || cachedEntry != null) {
                 inflaterInputStream = null;
+                storedEntry = null;
+                cachedEntry = null;
                 return;
             }
-            if (jarFile != null) {
-                jarFile.close();
+            if (entryInflater != null) {
+                entryInflater.end();
+                entryInflater = null;
+            }
+            if (classBytesMap != null) {
+                prefetchCancelled = true;
+                BlockingQueue<PrefetchEntry> queue = prefetchQueue;
+                if (queue != null) {
+                    queue.clear(); // Release a prefetch thread that is waiting for room
+                }
+                saveLoadProfile();
+                if (jarFile != null) {
+                    jarFile.close();
+                }
                 fis.close();
             }
             super.close();
@@ -176,18 +453,205 @@ public class JarFileSystemChannelServer extends FileSystemChannelServer
 
 
     private void buildClassBytesMap() throws IOException {
-        this. jarFile = new JarFile(filePath.toFile());
         this.fis = new FileInputStream(filePath.toFile());
         ch = fis.getChannel();
 
-        classBytesMap = new HashMap<>(512);
-        packageSet = new HashSet<>();
-        ZipInputStream zie = new ZipInputStream(new BufferedInputStream(fis));
-        scanZip(zie);
+        JarIndex index = (server.readOnlyCache != null ? server.readOnlyCache.getJarIndex(jinixPath) : null);
+        if (index != null) {
+            manifest = index.manifest;
+            packageSet = index.packages;
+            nestedJarSegments = index.nestedJarSegments;
+            classBytesMap = index.entries;
+        } else {
+            this.jarFile = new JarFile(filePath.toFile());
+            manifest = jarFile.getManifest();
+            Map<String, ClassEntry> entries = new HashMap<>(512);
+            packageSet = new HashSet<>();
+            nestedJarSegments = new ArrayList<>();
+            ZipInputStream zie = new ZipInputStream(new BufferedInputStream(fis));
+            scanZip(zie, entries, packageSet, true);
+            classBytesMap = entries;
+            if (server.readOnlyCache != null) {
+                server.readOnlyCache.putJarIndex(jinixPath,
+                        new JarIndex(manifest, classBytesMap, packageSet, nestedJarSegments));
+            }
+        }
+
+        if (server.classLoadProfileManager != null) {
+            startLoadProfiling();
+        }
+    }
+
+    private void startLoadProfiling() throws IOException {
+        String mc = (manifest != null ? manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS) : null);
+        mainClass = (mc != null ? mc : "");
+        jarAttributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+        loadOrder = new LinkedHashSet<>();
+        loadProfile = server.classLoadProfileManager.loadProfile(jinixPath, mainClass, jarAttributes);
     }
 
-    private long scanZip(ZipInputStream zis) throws IOException {
+    /**
+     * Start inflating the profile's entries the first time the client asks for them.
+     *
+     * @return the prefetch queue, or null if there is no profile or all of its entries have been returned
+     */
+    private synchronized BlockingQueue<PrefetchEntry> startPrefetch() {
+        if (prefetchQueue == null && !prefetchStarted && !prefetchCancelled && loadProfile != null &&
+                !loadProfile.isEmpty()) {
+            BlockingQueue<PrefetchEntry> queue = new ArrayBlockingQueue<>(PREFETCH_QUEUE_CAPACITY);
+            List<String> profile = loadProfile;
+            prefetchQueue = queue;
+            prefetchStarted = true;
+            server.classLoadProfileManager.submitPrefetch(() -> prefetch(profile, queue));
+        }
+        return prefetchQueue;
+    }
+
+    /**
+     * Inflate the entries in the profile, in order, into the prefetch queue. Runs on a prefetch thread with its own
+     * FileChannel, so it does not disturb the channel used by findEntry() and read().
+     */
+    private void prefetch(List<String> profile, BlockingQueue<PrefetchEntry> queue) {
+        try (FileChannel prefetchChannel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            Inflater inflater = new Inflater(true);
+            try {
+                for (String name : profile) {
+                    if (prefetchCancelled) {
+                        return;
+                    }
+                    ClassEntry classEntry = lookupEntry(name);
+                    if (classEntry == null || classEntry.size > Integer.MAX_VALUE) {
+                        continue;
+                    }
+                    byte[] bytes = readEntry(prefetchChannel, classEntry, inflater);
+                    if (!queue.offer(new PrefetchEntry(name, bytes), PREFETCH_OFFER_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        return; // The client is not collecting the prefetched entries
+                    }
+                }
+            } finally {
+                inflater.end();
+            }
+        } catch (IOException | DataFormatException e) {
+            FileSystemServer.logger.log(Level.WARNING, "Prefetch failed: " + jinixPath, e);
+        } catch (InterruptedException e) {
+            return;
+        } finally {
+            endPrefetch(queue);
+        }
+    }
+
+    /**
+     * Queue the end marker so that a client waiting in getPrefetchBundle() returns. If the client is not collecting
+     * entries, the uncollected entries are discarded to make room for it.
+     */
+    private void endPrefetch(BlockingQueue<PrefetchEntry> queue) {
+        try {
+            if (!prefetchCancelled &&
+                    queue.offer(PREFETCH_END, PREFETCH_OFFER_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            // Fall through and discard
+        }
+        queue.clear();
+        queue.offer(PREFETCH_END);
+    }
+
+    /**
+     * Read the complete uncompressed bytes of an entry using positional reads on the given channel. The bytes are
+     * checked against the CRC recorded in the jar.
+     */
+    static byte[] readEntry(FileChannel channel, ClassEntry classEntry, Inflater inflater)
+            throws IOException, DataFormatException {
+        byte[] b;
+        if (classEntry.method == ZipEntry.STORED) {
+            b = readRawEntry(channel, classEntry);
+        } else {
+            b = inflateEntry(channel, classEntry, inflater);
+        }
+
+        // The CRC is not known for an entry whose data descriptor could not be read
+        if (classEntry.crc != -1) {
+            CRC32 crc = new CRC32();
+            crc.update(b);
+            if (crc.getValue() != classEntry.crc) {
+                throw new ZipException("CRC mismatch reading jar entry");
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Inflate an entry, reading no more than its compressed bytes. An entry whose compressed data ends before it
+     * has inflated to its size is rejected.
+     */
+    private static byte[] inflateEntry(FileChannel channel, ClassEntry classEntry, Inflater inflater)
+            throws IOException, DataFormatException {
+        byte[] b = new byte[(int) classEntry.size];
+        inflater.reset();
+        byte[] input = new byte[8192];
+        long inputPosition = classEntry.position;
+        long inputEnd = classEntry.position + classEntry.compressedSize;
+        int off = 0;
+        while (off < b.length) {
+            if (inflater.finished() || inflater.needsDictionary()) {
+                throw new ZipException("Truncated compressed data inflating jar entry");
+            }
+            if (inflater.needsInput()) {
+                if (inputPosition >= inputEnd) {
+                    throw new ZipException("Truncated compressed data inflating jar entry");
+                }
+                ByteBuffer bb = ByteBuffer.wrap(input, 0, (int) Math.min(input.length, inputEnd - inputPosition));
+                int r = channel.read(bb, inputPosition);
+                if (r <= 0) {
+                    throw new EOFException("Unexpected end of jar file inflating entry");
+                }
+                inputPosition += r;
+                inflater.setInput(input, 0, r);
+            }
+            off += inflater.inflate(b, off, b.length - off);
+        }
+        return b;
+    }
+
+    /**
+     * Read the bytes of an entry as they are stored in the jar, using positional reads on the given channel.
+     */
+    static byte[] readRawEntry(FileChannel channel, ClassEntry classEntry) throws IOException {
+        byte[] b = new byte[(int) classEntry.compressedSize];
+        ByteBuffer bb = ByteBuffer.wrap(b);
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, classEntry.position + bb.position()) <= 0) {
+                throw new EOFException("Unexpected end of jar file reading entry");
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Save the recorded load order as the profile for this jar and main class, unless it adds nothing to the existing
+     * profile.
+     */
+    private void saveLoadProfile() {
+        if (loadOrder == null || loadOrder.isEmpty()) {
+            return;
+        }
+        if (loadProfile != null && (loadOrder.size() < loadProfile.size() ||
+                new ArrayList<>(loadOrder).equals(loadProfile))) {
+            return;
+        }
+        server.classLoadProfileManager.saveProfile(jinixPath, mainClass, jarAttributes, new ArrayList<>(loadOrder));
+        loadOrder = null;
+    }
+
+    /**
+     * Scan a zip stream, adding its entries to the given map and their packages to the given set. When shareNestedJars
+     * is true, lib jars are indexed through the server's NestedJarCache and added as segments instead.
+     */
+    private long scanZip(ZipInputStream zis, Map<String, ClassEntry> entries, Set<String> packages,
+                         boolean shareNestedJars) throws IOException {
         boolean dataDescriptor;
+        boolean nestedJar = false;
         long bytesProcessed = 0;
         long startingPosition = position;
 
@@ -199,19 +663,20 @@ public class JarFileSystemChannelServer extends FileSystemChannelServer
         }
         while (ze != null) {
             ZipEntry nextEntry = zis.getNextEntry();
-            if (bytesProcessed == 0) {
+            if (!nestedJar) {
                 position += (30 + ze.getName().length() + (ze.getExtra() != null ? ze.getExtra().length : 0));
 
                 if (ze.getSize() > 0) {
-                    classBytesMap.put(ze.getName(), new ClassEntry(position, ze.getSize()));
+                    entries.put(ze.getName(), new ClassEntry(position, ze.getSize(), ze.getCompressedSize(),
+                            ze.getCrc(), ze.getMethod()));
                     String pkg;
                     if (ze.getName().indexOf("/") == -1) {
                         pkg = "/";
                     } else {
                         pkg = ze.getName().substring(0, ze.getName().lastIndexOf("/"));
                     }
-                    if (!packageSet.contains(pkg)) {
-                        packageSet.add(pkg);
+                    if (!packages.contains(pkg)) {
+                        packages.add(pkg);
                     }
                 }
 
@@ -221,6 +686,7 @@ public class JarFileSystemChannelServer extends FileSystemChannelServer
                     position += (ze.getSize() - bytesProcessed);
                 }
                 bytesProcessed = 0;
+                nestedJar = false;
             }
 
             ze = nextEntry;
@@ -233,20 +699,96 @@ public class JarFileSystemChannelServer extends FileSystemChannelServer
                 }
                 if (ze.getName().startsWith("lib/") && ze.getName().endsWith(".jar")) {
                     position += (30 + ze.getName().length() + (ze.getExtra() != null ? ze.getExtra().length : 0));
-                    bytesProcessed = scanZip(new ZipInputStream(zis));
+                    nestedJar = true;
+                    if (shareNestedJars && ze.getMethod() == ZipEntry.STORED && ze.getSize() > 0 && ze.getCrc() != -1) {
+                        bytesProcessed = scanSharedNestedJar(zis, ze);
+                    } else {
+                        bytesProcessed = scanZip(new ZipInputStream(zis), entries, packages, false);
+                    }
                 }
             }
         }
         return (position - startingPosition);
     }
 
-    private static class ClassEntry {
+    /**
+     * Add a lib jar as a segment backed by the shared index for its CRC and size, scanning and caching the index if
+     * this is the first copy of the jar seen by the server. Returns the number of bytes of the nested jar scanned,
+     * which is 0 when the cached index is used.
+     */
+    private long scanSharedNestedJar(ZipInputStream zis, ZipEntry ze) throws IOException {
+        String key = NestedJarCache.getKey(ze.getCrc(), ze.getSize());
+        long base = position;
+        long bytesProcessed = 0;
+
+        NestedJarCache.NestedJarIndex index = server.nestedJarCache.getIndex(key);
+        if (index == null) {
+            Map<String, ClassEntry> nestedEntries = new HashMap<>(512);
+            Set<String> nestedPackages = new HashSet<>();
+            bytesProcessed = scanZip(new ZipInputStream(zis), nestedEntries, nestedPackages, false);
+            for (ClassEntry classEntry : nestedEntries.values()) {
+                classEntry.position -= base;
+            }
+            index = server.nestedJarCache.putIndex(new NestedJarCache.NestedJarIndex(key, nestedEntries, nestedPackages));
+        }
+
+        nestedJarSegments.add(new NestedJarSegment(index, base));
+        packageSet.addAll(index.packages);
+        return bytesProcessed;
+    }
+
+    /**
+     * The complete index of a jar, shared through the ReadOnlyCache by the accessors of a jar on a read only mount.
+     */
+    static class JarIndex {
+        final Manifest manifest;
+        final Map<String, ClassEntry> entries;
+        final Set<String> packages;
+        final List<NestedJarSegment> nestedJarSegments;
+
+        private JarIndex(Manifest manifest, Map<String, ClassEntry> entries, Set<String> packages,
+                         List<NestedJarSegment> nestedJarSegments) {
+            this.manifest = manifest;
+            this.entries = Collections.unmodifiableMap(entries);
+            this.packages = Collections.unmodifiableSet(packages);
+            this.nestedJarSegments = Collections.unmodifiableList(nestedJarSegments);
+        }
+    }
+
+    private static class NestedJarSegment {
+        NestedJarCache.NestedJarIndex index;
+        long base; // The position of the nested jar's data in this jar
+
+        private NestedJarSegment(NestedJarCache.NestedJarIndex i, long b) {
+            index = i;
+            base = b;
+        }
+    }
+
+    private static class PrefetchEntry {
+        String name;
+        byte[] bytes;
+
+        private PrefetchEntry(String n, byte[] b) {
+            name = n;
+            bytes = b;
+        }
+    }
+
+    static class ClassEntry {
         long position;
         long size;
+        long compressedSize; // The size of the entry data in the jar, equal to size for STORED entries
+        long crc;
+        int method; // ZipEntry.STORED or ZipEntry.DEFLATED
+        String nestedJarKey; // The NestedJarCache key when the entry belongs to a shared lib jar index
 
-        private ClassEntry(long p, long s) {
+        private ClassEntry(long p, long s, long cs, long c, int m) {
             position = p;
             size = s;
+            compressedSize = cs;
+            crc = c;
+            method = m;
         }
     }
 }
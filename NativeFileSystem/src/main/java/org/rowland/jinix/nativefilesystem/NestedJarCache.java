@@ -0,0 +1,129 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server wide cache of the indexes and inflated entries of the jar files nested in the lib directory of Jinix jar
+ * files. Many application jars embed identical copies of the same libraries. A nested jar is identified by the CRC and
+ * size of its STORED entry in the outer jar, so every outer jar that contains the same library shares one index, with
+ * entry positions relative to the start of the nested jar, and one set of cached inflated entries.
+ */
+class NestedJarCache {
+
+    static final int MAX_CACHED_ENTRY_SIZE = 256 * 1024;
+
+    private final Map<String, NestedJarIndex> indexMap = new ConcurrentHashMap<>();
+
+    private final long maxEntryCacheBytes;
+    private long entryCacheBytes;
+    private final LinkedHashMap<String, byte[]> entryCache = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final AtomicLong indexHits = new AtomicLong();
+    private final AtomicLong indexMisses = new AtomicLong();
+    private final AtomicLong entryHits = new AtomicLong();
+    private final AtomicLong entryMisses = new AtomicLong();
+
+    NestedJarCache(long maxEntryCacheBytes) {
+        this.maxEntryCacheBytes = maxEntryCacheBytes;
+    }
+
+    static String getKey(long crc, long size) {
+        return Long.toHexString(crc) + ":" + size;
+    }
+
+    NestedJarIndex getIndex(String key) {
+        NestedJarIndex index = indexMap.get(key);
+        if (index != null) {
+            indexHits.incrementAndGet();
+        } else {
+            indexMisses.incrementAndGet();
+        }
+        return index;
+    }
+
+    /**
+     * Add an index to the cache. If another thread has already added an index for the same nested jar, that index is
+     * returned instead.
+     */
+    NestedJarIndex putIndex(NestedJarIndex index) {
+        NestedJarIndex existing = indexMap.putIfAbsent(index.key, index);
+        return (existing != null ? existing : index);
+    }
+
+    boolean isEntryCacheEnabled() {
+        return maxEntryCacheBytes > 0;
+    }
+
+    synchronized byte[] getEntry(String key, String name) {
+        byte[] b = entryCache.get(key + "!" + name);
+        if (b != null) {
+            entryHits.incrementAndGet();
+        } else {
+            entryMisses.incrementAndGet();
+        }
+        return b;
+    }
+
+    synchronized void putEntry(String key, String name, byte[] b) {
+        if (b.length > MAX_CACHED_ENTRY_SIZE || b.length > maxEntryCacheBytes) {
+            return;
+        }
+        byte[] previous = entryCache.put(key + "!" + name, b);
+        if (previous != null) {
+            entryCacheBytes -= previous.length;
+        }
+        entryCacheBytes += b.length;
+
+        // Evict least recently used entries until the cache is back within its limit
+        Iterator<byte[]> i = entryCache.values().iterator();
+        while (entryCacheBytes > maxEntryCacheBytes && i.hasNext()) {
+            entryCacheBytes -= i.next().length;
+            i.remove();
+        }
+    }
+
+    int getIndexCount() {
+        return indexMap.size();
+    }
+
+    synchronized long getEntryCacheBytes() {
+        return entryCacheBytes;
+    }
+
+    long getIndexHitCount() {
+        return indexHits.get();
+    }
+
+    long getIndexMissCount() {
+        return indexMisses.get();
+    }
+
+    long getEntryHitCount() {
+        return entryHits.get();
+    }
+
+    long getEntryMissCount() {
+        return entryMisses.get();
+    }
+
+    /**
+     * The index of one nested jar. Entry positions are relative to the start of the nested jar's data in the outer jar.
+     */
+    static class NestedJarIndex {
+        final String key;
+        final Map<String, JarFileSystemChannelServer.ClassEntry> entries;
+        final Set<String> packages;
+
+        NestedJarIndex(String key, Map<String, JarFileSystemChannelServer.ClassEntry> entries, Set<String> packages) {
+            this.key = key;
+            this.entries = Collections.unmodifiableMap(entries);
+            this.packages = Collections.unmodifiableSet(packages);
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.*;
+import java.util.Set;
+
+/**
+ * A file open in a FileSystemServer, with its own file pointer. An OpenFile is not a remote object. It is served to
+ * clients either by a FileSystemChannelServer, which is exported for each open, or through a handle in the server's
+ * FileHandleDispatcher.
+ */
+class OpenFile {
+
+    private static final int ZERO_FILL_SIZE = 64 * 1024;
+    private static final ByteBuffer ZERO_FILL = ByteBuffer.allocateDirect(ZERO_FILL_SIZE).asReadOnlyBuffer();
+    // How long a cached size is used before it is read again, so that growth by another process is seen
+    private static final long MAX_CACHED_SIZE_AGE = 100_000_000L; // nanoseconds
+
+    final FileSystemServer server;
+    final int pid;
+    final String jinixPath; // the absolute pathname of the Jinix file
+    final Path filePath; // the absolute pathname of the file in the underlying OS
+    final Set<? extends OpenOption> openOptions;
+    java.nio.channels.FileChannel fc;
+    private AsynchronousFileChannel afc; // Only used when the server has the asynchronous I/O backend enabled
+    GroupCommitEngine.FileSyncState syncState;
+    private ByteBuffer mappedFile; // The whole file mapped into memory, only on a read only mount
+    private SharedAppendManager.SharedAppendFile appendFile; // Only when opened with APPEND
+    private PageCache.Key pageCacheKey; // Only when the file is served from the server's PageCache
+    private long cachedSize = -1; // valid while the file's write generation equals cachedSizeGeneration
+    private long cachedSizeGeneration;
+    private long cachedSizeTime; // System.nanoTime() when the size was read
+    private long preallocationIncrement; // 0 when preallocation is disabled
+    private long preallocatedSize; // the physical size of the file while preallocation is enabled
+    private long logicalSize; // the size of the file as seen by the client while preallocation is enabled
+
+    OpenFile(FileSystemServer server, int pid, String fullPath, Path path, Set<? extends OpenOption> options)
+            throws IOException {
+        this.server = server;
+        this.pid = pid;
+        this.jinixPath = fullPath;
+        this.filePath = path;
+        this.openOptions = options;
+        long size;
+        try {
+            fc = java.nio.channels.FileChannel.open(path, options);
+            if (server.readOnlyCache != null && Files.isRegularFile(path)) {
+                mappedFile = server.readOnlyCache.getMappedFile(path, fc);
+            } else if (server.asyncIOEngine != null) {
+                afc = server.asyncIOEngine.open(path, options);
+            }
+            if (server.pageCache != null && mappedFile == null && PageCache.isCacheable(options)) {
+                pageCacheKey = server.pageCache.keyFor(path);
+            }
+            if (options.contains(StandardOpenOption.APPEND)) {
+                appendFile = server.sharedAppendManager.open(path);
+            }
+            size = fc.size();
+        } catch (IOException e) {
+            try {
+                closeChannels();
+            } catch (IOException e1) {
+                // Ignore, the open failure is reported
+            }
+            throw e;
+        }
+        server.groupCommitEngine.register(this, options.contains(StandardOpenOption.WRITE) ||
+                options.contains(StandardOpenOption.APPEND), size);
+        if (options.contains(StandardOpenOption.TRUNCATE_EXISTING)) {
+            server.groupCommitEngine.truncated(this, size);
+            server.groupCommitEngine.markDirty(this); // Invalidate the cached size of other accessors
+            server.sharedAppendManager.truncate(path, () -> { }); // Already truncated by the open
+            server.fileChangeNotifier.notifyChange(jinixPath, FileChangeEvent.Kind.MODIFY);
+        }
+    }
+
+    public String toString() {
+        return filePath.toString() + (fc != null ? ":" + fc.hashCode() : "");
+    }
+
+    synchronized byte[] read(int len) throws IOException {
+        int priorityClass = -1;
+        try {
+            if (server.ioScheduler != null) {
+                priorityClass = server.ioScheduler.acquire(this.pid, len);
+            }
+            if (mappedFile != null) {
+                byte[] b = readMapped(len);
+                server.readSizes.record(b != null ? b.length : 0);
+                return b;
+            }
+            if (pageCacheKey != null) {
+                long p = fc.position();
+                byte[] b = server.pageCache.read(pageCacheKey, jinixPath, fc, p, len);
+                if (b != null) {
+                    server.readSizes.record(b.length);
+                    if (b.length == 0) {
+                        return null;
+                    }
+                    fc.position(p + b.length);
+                    return b;
+                }
+                pageCacheKey = null; // The file changed since it was opened, so it is read from now on
+            }
+            if (preallocationIncrement > 0) {
+                // Do not return the reserved space beyond the logical end of the file
+                long remaining = logicalSize - fc.position();
+                if (remaining <= 0) {
+                    return null;
+                }
+                len = (int) Math.min(len, remaining);
+            }
+            byte[] b = new byte[len];
+            int r;
+            if (afc != null) {
+                long p = fc.position();
+                r = server.asyncIOEngine.read(afc, ByteBuffer.wrap(b), p);
+                if (r > 0) {
+                    fc.position(p + r);
+                }
+            } else {
+                r = fc.read(ByteBuffer.wrap(b));
+            }
+            if (r == -1) {
+                server.readSizes.record(0);
+                return null;
+            }
+            server.readSizes.record(r);
+
+            if (r < len) {
+                byte[] rb = new byte[r];
+                System.arraycopy(b, 0, rb, 0, r);
+                return rb;
+            } else {
+                return b;
+            }
+        } finally {
+            if (priorityClass != -1) {
+                server.ioScheduler.release(this.pid, priorityClass);
+            }
+        }
+    }
+
+    private byte[] readMapped(int len) throws IOException {
+        long p = fc.position();
+        if (p >= mappedFile.limit()) {
+            return null;
+        }
+        byte[] b = new byte[(int) Math.min(len, mappedFile.limit() - p)];
+        ByteBuffer view = mappedFile.duplicate();
+        view.position((int) p);
+        view.get(b);
+        fc.position(p + b.length);
+        return b;
+    }
+
+    /**
+     * Not synchronized, as a file opened with APPEND writes through the file's shared append offset and does not use
+     * its own position.
+     */
+    int write(byte[] b) throws IOException {
+        if (appendFile != null) {
+            append(b, false);
+            return b.length;
+        }
+        return writeAtPosition(b);
+    }
+
+    private synchronized int writeAtPosition(byte[] b) throws IOException {
+        int priorityClass = -1;
+        try {
+            if (server.ioScheduler != null) {
+                priorityClass = server.ioScheduler.acquire(this.pid, b.length);
+            }
+            long p = fc.position();
+            if (preallocationIncrement > 0) {
+                preallocate(p + b.length);
+            }
+            server.groupCommitEngine.written(this, p + b.length);
+            int w;
+            if (afc != null) {
+                w = server.asyncIOEngine.write(afc, ByteBuffer.wrap(b), p);
+                fc.position(p + w);
+            } else {
+                w = fc.write(ByteBuffer.wrap(b));
+            }
+            if (preallocationIncrement > 0) {
+                logicalSize = Math.max(logicalSize, p + w);
+            }
+            server.writeSizes.record(w);
+            server.sharedAppendManager.written(filePath, p + w);
+            server.groupCommitEngine.markDirty(this);
+            server.fileChangeNotifier.notifyChange(jinixPath, FileChangeEvent.Kind.MODIFY);
+            return w;
+        } finally {
+            if (priorityClass != -1) {
+                server.ioScheduler.release(this.pid, priorityClass);
+            }
+        }
+    }
+
+    long append(byte[] b, boolean force) throws IOException {
+        if (appendFile == null) {
+            throw new UnsupportedOperationException("File not opened for APPEND: " + jinixPath);
+        }
+        long position;
+        int priorityClass = -1;
+        try {
+            if (server.ioScheduler != null) {
+                priorityClass = server.ioScheduler.acquire(this.pid, b.length);
+            }
+            position = server.sharedAppendManager.append(appendFile, b);
+            server.groupCommitEngine.written(this, position + b.length);
+            server.writeSizes.record(b.length);
+            server.groupCommitEngine.markDirty(this);
+            server.fileChangeNotifier.notifyChange(jinixPath, FileChangeEvent.Kind.MODIFY);
+        } finally {
+            if (priorityClass != -1) {
+                server.ioScheduler.release(this.pid, priorityClass);
+            }
+        }
+        if (force) {
+            force(false);
+        }
+        return position;
+    }
+
+    /**
+     * Read at an offset without moving the file pointer. Not synchronized, as positional reads of the same file can
+     * run concurrently.
+     *
+     * @return the bytes read, fewer than len only at the end of the file, or null if position is at or beyond it
+     */
+    byte[] readAt(long position, int len) throws IOException {
+        int priorityClass = -1;
+        try {
+            if (server.ioScheduler != null) {
+                priorityClass = server.ioScheduler.acquire(this.pid, len);
+            }
+            ByteBuffer b = ByteBuffer.allocate(len);
+            if (mappedFile != null) {
+                if (position < mappedFile.limit()) {
+                    ByteBuffer view = mappedFile.duplicate();
+                    view.position((int) position);
+                    view.limit((int) Math.min(mappedFile.limit(), position + len));
+                    b.put(view);
+                }
+            } else {
+                while (b.hasRemaining()) {
+                    if (fc.read(b, position + b.position()) == -1) {
+                        break;
+                    }
+                }
+            }
+            server.readSizes.record(b.position());
+            if (b.position() == 0) {
+                return null;
+            }
+            if (b.position() < len) {
+                byte[] rb = new byte[b.position()];
+                System.arraycopy(b.array(), 0, rb, 0, rb.length);
+                return rb;
+            }
+            return b.array();
+        } finally {
+            if (priorityClass != -1) {
+                server.ioScheduler.release(this.pid, priorityClass);
+            }
+        }
+    }
+
+    /**
+     * Write at an offset without moving the file pointer. Not synchronized, as positional writes to different ranges
+     * of the same file can run concurrently.
+     */
+    int writeAt(byte[] b, long position) throws IOException {
+        int priorityClass = -1;
+        try {
+            if (server.ioScheduler != null) {
+                priorityClass = server.ioScheduler.acquire(this.pid, b.length);
+            }
+            server.groupCommitEngine.written(this, position + b.length);
+            ByteBuffer buffer = ByteBuffer.wrap(b);
+            while (buffer.hasRemaining()) {
+                fc.write(buffer, position + buffer.position());
+            }
+            server.writeSizes.record(b.length);
+            server.sharedAppendManager.written(filePath, position + b.length);
+            server.groupCommitEngine.markDirty(this);
+            server.fileChangeNotifier.notifyChange(jinixPath, FileChangeEvent.Kind.MODIFY);
+            return b.length;
+        } finally {
+            if (priorityClass != -1) {
+                server.ioScheduler.release(this.pid, priorityClass);
+            }
+        }
+    }
+
+    synchronized long skip(long n) throws IOException {
+        return fc.position(fc.position()+n).position();
+    }
+
+    synchronized int available() throws IOException {
+        long position = fc.position();
+        long size = size();
+        if (position >= size - 1 && preallocationIncrement == 0) {
+            // A reader at the end of the file, such as tail -f, must see the file grow without waiting for the cache
+            size = readSize();
+        }
+        return (int) Math.min(size-position-1,Integer.MAX_VALUE);
+    }
+
+    synchronized long getFilePointer() throws IOException {
+        return fc.position();
+    }
+
+    synchronized void seek(long l) throws IOException {
+        fc.position(l);
+    }
+
+    synchronized long length() throws IOException {
+        return size();
+    }
+
+    /**
+     * Truncate or extend the file. As with RandomAccessFile.setLength(), the file pointer is moved to the new end of
+     * the file only if it was beyond it. An extension is not filled in, so the file is sparse if the underlying file
+     * system supports it, unless preallocation is enabled.
+     */
+    synchronized void setLength(long l) throws IOException {
+        if (l < 0) {
+            throw new IllegalArgumentException("Negative length: " + l);
+        }
+        if (preallocationIncrement > 0) {
+            if (l > preallocatedSize) {
+                preallocate(l);
+                server.groupCommitEngine.written(this, l);
+                server.sharedAppendManager.written(filePath, l);
+            } else if (l < logicalSize) {
+                // Release the reserved space so that bytes beyond the new end of the file read as zeros if it is
+                // extended again
+                server.sharedAppendManager.truncate(filePath, () -> server.groupCommitEngine.truncate(this, fc, l));
+                preallocatedSize = l;
+            } else {
+                server.groupCommitEngine.written(this, l);
+                server.sharedAppendManager.written(filePath, l);
+            }
+            logicalSize = l;
+            if (fc.position() > l) {
+                fc.position(l);
+            }
+        } else {
+            long size = fc.size();
+            if (l < size) {
+                server.sharedAppendManager.truncate(filePath, () -> server.groupCommitEngine.truncate(this, fc, l));
+            } else if (l > size) {
+                server.groupCommitEngine.written(this, l);
+                fc.write(ByteBuffer.wrap(new byte[1]), l - 1);
+                server.sharedAppendManager.written(filePath, l);
+            }
+            if (fc.position() > l) {
+                fc.position(l);
+            }
+        }
+        server.groupCommitEngine.markDirty(this);
+        server.fileChangeNotifier.notifyChange(jinixPath, FileChangeEvent.Kind.MODIFY);
+    }
+
+    synchronized long setPreallocation(long increment) throws IOException {
+        if (!openOptions.contains(StandardOpenOption.WRITE) || openOptions.contains(StandardOpenOption.APPEND)) {
+            return 0;
+        }
+        if (increment <= 0) {
+            releasePreallocation();
+            return 0;
+        }
+        if (preallocationIncrement == 0) {
+            logicalSize = fc.size();
+            preallocatedSize = logicalSize;
+        }
+        preallocationIncrement = Math.max(increment, ZERO_FILL_SIZE);
+        return preallocationIncrement;
+    }
+
+    /**
+     * The size of the file, without a system call unless the file has been written or resized through any of its
+     * accessors since the size was last read. The write generation only counts writes through this server, so the
+     * size is also read again once it is MAX_CACHED_SIZE_AGE old.
+     */
+    private long size() throws IOException {
+        if (preallocationIncrement > 0) {
+            return logicalSize;
+        }
+        long generation = server.groupCommitEngine.getWriteGeneration(this);
+        if (cachedSize < 0 || generation != cachedSizeGeneration ||
+                System.nanoTime() - cachedSizeTime > MAX_CACHED_SIZE_AGE) {
+            return readSize();
+        }
+        return cachedSize;
+    }
+
+    private long readSize() throws IOException {
+        // Read the generation first, so that a concurrent write invalidates the size that is read
+        cachedSizeGeneration = server.groupCommitEngine.getWriteGeneration(this);
+        cachedSizeTime = System.nanoTime();
+        cachedSize = fc.size();
+        return cachedSize;
+    }
+
+    /**
+     * Reserve space to at least the given end position, rounded up to a whole preallocation increment beyond it. The
+     * space is filled with zeros, since Java has no portable way to allocate blocks without writing them. Only the
+     * space beyond the current end of the file is filled, so bytes written there through other accessors are kept.
+     */
+    private void preallocate(long end) throws IOException {
+        if (end <= preallocatedSize) {
+            return;
+        }
+        long target = (end / preallocationIncrement + 1) * preallocationIncrement;
+        long position = Math.max(preallocatedSize, fc.size());
+        while (position < target) {
+            ByteBuffer zeros = ZERO_FILL.duplicate();
+            zeros.limit((int) Math.min(ZERO_FILL_SIZE, target - position));
+            position += fc.write(zeros, position);
+        }
+        preallocatedSize = target;
+    }
+
+    /**
+     * Trim the zeros reserved beyond the logical end of the file, but not the bytes that other accessors have written
+     * or appended into the reserved space.
+     */
+    private void releasePreallocation() throws IOException {
+        if (preallocationIncrement > 0) {
+            preallocationIncrement = 0;
+            if (preallocatedSize > logicalSize) {
+                server.sharedAppendManager.truncate(filePath, () -> server.groupCommitEngine.trimPreallocation(this,
+                        fc, Math.max(logicalSize, server.sharedAppendManager.getEnd(filePath)), preallocatedSize));
+                server.groupCommitEngine.markDirty(this);
+            }
+        }
+    }
+
+    /**
+     * Not synchronized, so that other operations on this file can proceed while the force waits to join a group
+     * commit.
+     */
+    void force(boolean metaData) throws IOException {
+        server.groupCommitEngine.force(this, metaData);
+    }
+
+    synchronized void close() throws IOException {
+        server.groupCommitEngine.unregister(this);
+        try {
+            releasePreallocation();
+            if (appendFile != null) {
+                server.sharedAppendManager.close(filePath, appendFile);
+            }
+        } finally {
+            closeChannels();
+        }
+    }
+
+    private void closeChannels() throws IOException {
+        try {
+            if (afc != null) {
+                afc.close();
+            }
+        } finally {
+            if (fc != null) {
+                fc.close();
+            }
+        }
+    }
+}
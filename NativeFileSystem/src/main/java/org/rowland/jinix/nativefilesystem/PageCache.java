@@ -0,0 +1,388 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A server wide cache of the contents of small files, held in fixed size pages allocated outside of the heap. Files are
+ * cached by their file key, last modified time and size, which are read when a file is opened, so a file changed by
+ * other means is loaded again on its next open. Changes made through the server, and changes seen by the
+ * FileChangeNotifier's WatchService, invalidate the file's entry immediately.
+ *
+ * Eviction is segmented LRU. A file enters the probationary segment when it is loaded, and moves to the protected
+ * segment when it is read again from its start while cached. Files are evicted from the probationary segment first, so a scan of
+ * files that are read once cannot evict the files that are read repeatedly.
+ */
+class PageCache {
+
+    static final long DEFAULT_CAPACITY = 16L * 1024 * 1024;
+    static final int PAGE_SIZE = 4096;
+    private static final long MAX_FILE_SIZE = 256 * 1024;
+    private static final int INVALIDATION_STRIPES = 64;
+
+    private final int maxPages;
+    private final int maxProtectedPages;
+    private final long maxFileSize;
+    private final ArrayDeque<ByteBuffer> freePages = new ArrayDeque<>();
+    private int allocatedPages;
+    private int protectedPages;
+    private final LinkedHashMap<Key, CachedFile> probationMap = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<Key, CachedFile> protectedMap = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, Key> pathMap = new ConcurrentHashMap<>(); // keyed by Jinix path
+    // A load is only added to the cache if no change to a path in its stripe was seen while it was reading the file
+    private final AtomicLongArray invalidations = new AtomicLongArray(INVALIDATION_STRIPES);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidated = new AtomicLong();
+
+    PageCache(long capacity) {
+        this.maxPages = (int) Math.min(capacity / PAGE_SIZE, Integer.MAX_VALUE);
+        this.maxProtectedPages = maxPages * 4 / 5;
+        this.maxFileSize = Math.min(MAX_FILE_SIZE, capacity / 8);
+    }
+
+    /**
+     * Only files opened for reading alone are served from the cache.
+     */
+    static boolean isCacheable(Set<? extends OpenOption> options) {
+        return !(options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND) ||
+                options.contains(StandardOpenOption.TRUNCATE_EXISTING) ||
+                options.contains(StandardOpenOption.DELETE_ON_CLOSE));
+    }
+
+    /**
+     * Get the cache key for a file being opened, or null if the file is not a regular file small enough to cache.
+     */
+    Key keyFor(Path path) throws IOException {
+        BasicFileAttributes fa = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!fa.isRegularFile() || fa.size() > maxFileSize) {
+            return null;
+        }
+        return new Key((fa.fileKey() != null ? fa.fileKey() : path), fa.lastModifiedTime(), fa.size());
+    }
+
+    /**
+     * Read from a cached file, loading it through fc if it is not cached.
+     *
+     * @return the bytes read, an empty array at the end of the file, or null if the file cannot be served from the
+     * cache, in which case the caller must read the file itself
+     */
+    byte[] read(Key key, String jinixPath, FileChannel fc, long position, int len) throws IOException {
+        if (position >= key.size) {
+            // A reader at the end, such as tail -f, must see the file grow, so the end is checked against the file
+            return (fc.size() == key.size ? new byte[0] : null);
+        }
+        CachedFile file = acquire(key, position == 0);
+        if (file == null) {
+            misses.incrementAndGet();
+            file = load(key, jinixPath, fc);
+            if (file == null) {
+                return null;
+            }
+        } else {
+            hits.incrementAndGet();
+        }
+        try {
+            byte[] b = new byte[(int) Math.min(len, key.size - position)];
+            int copied = 0;
+            while (copied < b.length) {
+                long p = position + copied;
+                ByteBuffer page = file.pages[(int) (p / PAGE_SIZE)].duplicate();
+                page.position((int) (p % PAGE_SIZE));
+                int n = Math.min(b.length - copied, page.remaining());
+                page.get(b, copied, n);
+                copied += n;
+            }
+            return b;
+        } finally {
+            release(file);
+        }
+    }
+
+    /**
+     * Drop the cached contents of a file that has changed.
+     */
+    void invalidate(String jinixPath) {
+        invalidations.incrementAndGet(stripe(jinixPath));
+        // A load adds the path before it checks the invalidation count, so either the load sees the increment or
+        // the path is seen here
+        if (!pathMap.containsKey(jinixPath)) {
+            return;
+        }
+        synchronized (this) {
+            Key key = pathMap.remove(jinixPath);
+            if (key != null) {
+                CachedFile file = probationMap.remove(key);
+                if (file == null) {
+                    file = protectedMap.remove(key);
+                    if (file != null) {
+                        protectedPages -= file.pages.length;
+                    }
+                }
+                if (file != null) {
+                    invalidated.incrementAndGet();
+                    discard(file);
+                }
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        for (int i = 0; i < INVALIDATION_STRIPES; i++) {
+            invalidations.incrementAndGet(i);
+        }
+        pathMap.clear();
+        for (CachedFile file : probationMap.values()) {
+            discard(file);
+        }
+        for (CachedFile file : protectedMap.values()) {
+            discard(file);
+        }
+        probationMap.clear();
+        protectedMap.clear();
+        protectedPages = 0;
+    }
+
+    private static int stripe(String jinixPath) {
+        return (jinixPath.hashCode() & 0x7fffffff) % INVALIDATION_STRIPES;
+    }
+
+    /**
+     * Find a cached file and pin it, so that its pages are not reused until it is released. A file that is found in
+     * the probationary segment is promoted to the protected segment if it is being read again from its start, so that
+     * the later reads of a reader that loaded the file do not promote it.
+     */
+    private synchronized CachedFile acquire(Key key, boolean promote) {
+        CachedFile file = protectedMap.get(key);
+        if (file == null) {
+            if (!promote) {
+                file = probationMap.get(key);
+                if (file != null) {
+                    file.pins++;
+                }
+                return file;
+            }
+            file = probationMap.remove(key);
+            if (file == null) {
+                return null;
+            }
+            protectedMap.put(key, file);
+            protectedPages += file.pages.length;
+            // Demote the least recently used protected files to the most recently used end of the probationary segment
+            Iterator<Map.Entry<Key, CachedFile>> i = protectedMap.entrySet().iterator();
+            while (protectedPages > maxProtectedPages && i.hasNext()) {
+                Map.Entry<Key, CachedFile> e = i.next();
+                if (e.getValue() == file) {
+                    continue;
+                }
+                i.remove();
+                protectedPages -= e.getValue().pages.length;
+                probationMap.put(e.getKey(), e.getValue());
+            }
+        }
+        file.pins++;
+        return file;
+    }
+
+    private synchronized void release(CachedFile file) {
+        file.pins--;
+        if (file.discarded && file.pins == 0) {
+            freePages(file);
+        }
+    }
+
+    /**
+     * Load a file into newly allocated pages and add it to the probationary segment. The file is returned pinned,
+     * or null if it could not be loaded.
+     */
+    private CachedFile load(Key key, String jinixPath, FileChannel fc) throws IOException {
+        int stripe = stripe(jinixPath);
+        long invalidation = invalidations.get(stripe);
+        CachedFile file = allocate(key, jinixPath);
+        if (file == null) {
+            return null;
+        }
+        boolean loaded = false;
+        try {
+            long position = 0;
+            for (ByteBuffer page : file.pages) {
+                page.clear();
+                while (page.hasRemaining() && position < key.size) {
+                    int r = fc.read(page, position);
+                    if (r == -1) {
+                        return null; // The file was truncated since it was opened
+                    }
+                    position += r;
+                }
+            }
+            loaded = (fc.size() == key.size);
+        } finally {
+            synchronized (this) {
+                if (!loaded) {
+                    freePages(file);
+                    file = null;
+                } else {
+                    boolean added = false;
+                    if (!probationMap.containsKey(key) && !protectedMap.containsKey(key)) {
+                        pathMap.put(jinixPath, key);
+                        if (invalidations.get(stripe) == invalidation) {
+                            probationMap.put(key, file);
+                            added = true;
+                        } else {
+                            pathMap.remove(jinixPath, key);
+                        }
+                    }
+                    if (!added) {
+                        // Another reader loaded the file first, or it changed while it was loaded. Serve this read
+                        // from the pages that were loaded, and free them when it is done.
+                        file.discarded = true;
+                    }
+                    file.pins++;
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Allocate the pages for a file, evicting probationary files and then protected files to make room. Returns null
+     * if not enough pages can be freed, which happens when the files holding them are pinned by reads in progress.
+     */
+    private synchronized CachedFile allocate(Key key, String jinixPath) {
+        int n = (int) ((key.size + PAGE_SIZE - 1) / PAGE_SIZE);
+        while (freePages.size() + (maxPages - allocatedPages) < n) {
+            if (!evict(probationMap) && !evict(protectedMap)) {
+                return null;
+            }
+        }
+        CachedFile file = new CachedFile(key, jinixPath, new ByteBuffer[n]);
+        for (int i = 0; i < n; i++) {
+            ByteBuffer page = freePages.poll();
+            if (page == null) {
+                page = ByteBuffer.allocateDirect(PAGE_SIZE);
+                allocatedPages++;
+            }
+            file.pages[i] = page;
+        }
+        return file;
+    }
+
+    private boolean evict(LinkedHashMap<Key, CachedFile> segment) {
+        Iterator<CachedFile> i = segment.values().iterator();
+        if (!i.hasNext()) {
+            return false;
+        }
+        CachedFile file = i.next();
+        i.remove();
+        if (segment == protectedMap) {
+            protectedPages -= file.pages.length;
+        }
+        evictions.incrementAndGet();
+        discard(file);
+        return true;
+    }
+
+    /**
+     * Remove a file that is no longer in either segment. Its pages are freed now, or by the last read that has it
+     * pinned.
+     */
+    private void discard(CachedFile file) {
+        pathMap.remove(file.jinixPath, file.key);
+        file.discarded = true;
+        if (file.pins == 0) {
+            freePages(file);
+        }
+    }
+
+    private void freePages(CachedFile file) {
+        for (ByteBuffer page : file.pages) {
+            freePages.push(page);
+        }
+    }
+
+    synchronized long getCachedBytes() {
+        long pages = protectedPages;
+        for (CachedFile file : probationMap.values()) {
+            pages += file.pages.length;
+        }
+        return pages * PAGE_SIZE;
+    }
+
+    synchronized long getAllocatedBytes() {
+        return (long) allocatedPages * PAGE_SIZE;
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    long getEvictionCount() {
+        return evictions.get();
+    }
+
+    long getInvalidationCount() {
+        return invalidated.get();
+    }
+
+    static class Key {
+        private final Object fileKey;
+        private final FileTime lastModified;
+        final long size;
+
+        Key(Object fileKey, FileTime lastModified, long size) {
+            this.fileKey = fileKey;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return size == k.size && fileKey.equals(k.fileKey) && lastModified.equals(k.lastModified);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileKey, lastModified, size);
+        }
+    }
+
+    private static class CachedFile {
+        final Key key;
+        final String jinixPath; // the path the file was loaded through
+        final ByteBuffer[] pages;
+        int pins; // reads in progress, guarded by the PageCache
+        boolean discarded;
+
+        CachedFile(Key key, String jinixPath, ByteBuffer[] pages) {
+            this.key = key;
+            this.jinixPath = jinixPath;
+            this.pages = pages;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.Serializable;
+
+/**
+ * A batch of jar entries returned by RemoteJarPrefetchAccessor.getPrefetchBundle(). names[i] is the entry name and
+ * entries[i] its uncompressed bytes.
+ */
+public class PrefetchBundle implements Serializable {
+
+    public String[] names;
+    public byte[][] entries;
+
+    public PrefetchBundle(String[] names, byte[][] entries) {
+        this.names = names;
+        this.entries = entries;
+    }
+}
@@ -0,0 +1,24 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.Serializable;
+
+/**
+ * A jar entry as it is stored in the jar, returned by RemoteJarRawEntryAccessor.getRawEntry(). When method is
+ * ZipEntry.DEFLATED, data holds the raw DEFLATE bytes of the entry (no zlib header), to be inflated with
+ * Inflater(true). When method is ZipEntry.STORED, data holds the entry bytes. crc is the CRC-32 of the size
+ * uncompressed bytes, as recorded in the jar.
+ */
+public class RawJarEntry implements Serializable {
+
+    public int method;
+    public long crc;
+    public long size; // The uncompressed size
+    public byte[] data;
+
+    public RawJarEntry(int method, long crc, long size, byte[] data) {
+        this.method = method;
+        this.crc = crc;
+        this.size = size;
+        this.data = data;
+    }
+}
@@ -0,0 +1,184 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.naming.DirectoryFileData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches for a FileSystemServer mounted with the 'ro' option. The files of a read only mount are not expected to change
+ * while it is mounted, so file attributes, directory listings, lookups and jar indexes are cached for the life of the
+ * server, and files are mapped into memory when they are first opened. Changes made to the underlying files by other
+ * means are not seen until the file system is remounted. The attributes, listing, lookup and jar index caches each
+ * hold a limited number of the most recently used paths, so lookups of many missing files cannot grow them without
+ * bound. The mapped files are kept within a byte budget, and the least recently opened are dropped to make room. A
+ * dropped mapping stays valid for the files that are still open on it, and is unmapped once they are closed.
+ */
+class ReadOnlyCache {
+
+    static final long MAX_MAPPED_FILE_SIZE = 64L * 1024 * 1024;
+    static final long DEFAULT_MAPPED_MB = 512;
+    private static final int MAX_CACHED_JAR_INDEXES = 1024;
+    private static final int MAX_CACHED_ATTRIBUTES = 65536;
+    private static final int MAX_CACHED_LISTS = 4096;
+    private static final int MAX_CACHED_LOOKUPS = 65536;
+
+    private static final Object NO_SUCH_FILE = new Object();
+
+    private final Map<String, Object> attributesMap = newLruMap(MAX_CACHED_ATTRIBUTES);
+    private final Map<String, String[]> listMap = newLruMap(MAX_CACHED_LISTS);
+    private final Map<String, Boolean> lookupMap = newLruMap(MAX_CACHED_LOOKUPS);
+    private final Map<String, JarFileSystemChannelServer.JarIndex> jarIndexMap = newLruMap(MAX_CACHED_JAR_INDEXES);
+    private final long maxMappedBytes;
+    private final Map<Path, ByteBuffer> mappedFileMap = new LinkedHashMap<>(256, 0.75f, true); // guarded by itself
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long mappedBytes; // guarded by mappedFileMap
+
+    /**
+     * @param maxMappedBytes the most bytes of files to keep mapped, 0 to not map files
+     */
+    ReadOnlyCache(long maxMappedBytes) {
+        this.maxMappedBytes = maxMappedBytes;
+    }
+
+    /**
+     * @return a copy of the cached attributes, NO_SUCH_FILE if the file is known not to exist, or null if the file
+     * has not been seen
+     */
+    Object getAttributes(String path) {
+        Object attributes = count(attributesMap.get(path));
+        if (attributes instanceof DirectoryFileData) {
+            return copy((DirectoryFileData) attributes);
+        }
+        return attributes;
+    }
+
+    static boolean isNoSuchFile(Object attributes) {
+        return attributes == NO_SUCH_FILE;
+    }
+
+    void putAttributes(String path, DirectoryFileData attributes) {
+        attributesMap.put(path, copy(attributes));
+    }
+
+    void putNoSuchFile(String path) {
+        attributesMap.put(path, NO_SUCH_FILE);
+    }
+
+    String[] getList(String path) {
+        String[] list = count(listMap.get(path));
+        return (list != null ? list.clone() : null);
+    }
+
+    void putList(String path, String[] list) {
+        listMap.put(path, list.clone());
+    }
+
+    Boolean getLookup(String path) {
+        return count(lookupMap.get(path));
+    }
+
+    void putLookup(String path, boolean exists) {
+        lookupMap.put(path, exists);
+    }
+
+    JarFileSystemChannelServer.JarIndex getJarIndex(String path) {
+        return count(jarIndexMap.get(path));
+    }
+
+    void putJarIndex(String path, JarFileSystemChannelServer.JarIndex index) {
+        jarIndexMap.putIfAbsent(path, index);
+    }
+
+    /**
+     * Get a read only view of the whole of a file mapped into memory, mapping the file if it is not mapped. The pages
+     * of the file are read as they are touched. The returned buffer must be duplicated before its position is changed.
+     *
+     * @return the mapped file, or null if the file is too large to map
+     */
+    ByteBuffer getMappedFile(Path path, FileChannel fc) throws IOException {
+        ByteBuffer mapped;
+        synchronized (mappedFileMap) {
+            mapped = count(mappedFileMap.get(path));
+        }
+        if (mapped != null) {
+            return mapped;
+        }
+
+        long size = fc.size();
+        if (size > MAX_MAPPED_FILE_SIZE || size > maxMappedBytes) {
+            return null;
+        }
+        ByteBuffer m = fc.map(FileChannel.MapMode.READ_ONLY, 0, size).asReadOnlyBuffer();
+        synchronized (mappedFileMap) {
+            ByteBuffer existing = mappedFileMap.get(path);
+            if (existing != null) {
+                return existing;
+            }
+            Iterator<ByteBuffer> i = mappedFileMap.values().iterator();
+            while (mappedBytes + size > maxMappedBytes && i.hasNext()) {
+                mappedBytes -= i.next().capacity();
+                i.remove();
+            }
+            mappedFileMap.put(path, m);
+            mappedBytes += size;
+        }
+        return m;
+    }
+
+    private static <V> Map<String, V> newLruMap(int maxEntries) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    private <T> T count(T cached) {
+        if (cached != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return cached;
+    }
+
+    private static DirectoryFileData copy(DirectoryFileData attributes) {
+        DirectoryFileData dfd = new DirectoryFileData();
+        dfd.name = attributes.name;
+        dfd.length = attributes.length;
+        dfd.type = attributes.type;
+        dfd.lastModified = attributes.lastModified;
+        return dfd;
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    int getMappedFileCount() {
+        synchronized (mappedFileMap) {
+            return mappedFileMap.size();
+        }
+    }
+
+    long getMappedBytes() {
+        synchronized (mappedFileMap) {
+            return mappedBytes;
+        }
+    }
+}
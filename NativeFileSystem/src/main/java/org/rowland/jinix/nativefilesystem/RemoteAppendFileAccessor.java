@@ -0,0 +1,26 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.naming.RemoteFileAccessor;
+
+import java.rmi.RemoteException;
+
+/**
+ * A RemoteFileAccessor opened with APPEND. All of the APPEND accessors of a file share one end of file offset, and
+ * each write atomically reserves a contiguous region at the end of the file before writing it, so that writes from
+ * several processes never interleave and writes to different regions proceed in parallel. Used for log files with
+ * many writers.
+ */
+public interface RemoteAppendFileAccessor extends RemoteFileAccessor {
+
+    /**
+     * Append the bytes to the end of the file as one contiguous region.
+     *
+     * @param pid
+     * @param b the bytes to append
+     * @param force if true, the appended bytes are durable when the call returns. Forces from concurrent appenders
+     *              are coalesced into group commits.
+     * @return the offset in the file that the bytes were written at
+     * @throws RemoteException
+     */
+    long append(int pid, byte[] b, boolean force) throws RemoteException;
+}
@@ -0,0 +1,37 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.naming.RemoteFileAccessor;
+
+import java.rmi.RemoteException;
+
+/**
+ * A RemoteFileAccessor that can move read and write payloads in compressed form. Compression must be negotiated
+ * before readCompressed() returns compressed payloads. Small payloads, and payloads that do not compress well, are
+ * always sent uncompressed with CODEC_NONE.
+ */
+public interface RemoteCompressedFileAccessor extends RemoteFileAccessor {
+
+    int CODEC_NONE = 0;
+    int CODEC_DEFLATE = 1; // Raw DEFLATE (no zlib header), as produced by Deflater(level, true)
+    int MAX_PAYLOAD_LENGTH = 16 * 1024 * 1024; // The largest uncompressed length of a compressed write
+
+    /**
+     * Request compression of read payloads with the given codec.
+     *
+     * @param codec the codec the client would like to use
+     * @return the codec the accessor will use, CODEC_NONE if the requested codec is not supported
+     * @throws RemoteException
+     */
+    int negotiateCompression(int codec) throws RemoteException;
+
+    /**
+     * The same as read(), but the bytes are returned in a CompressedPayload
+     */
+    CompressedPayload readCompressed(int pid, int len) throws RemoteException;
+
+    /**
+     * The same as write(), but the bytes are provided in a CompressedPayload with any supported codec. A compressed
+     * payload may not have an uncompressed length greater than MAX_PAYLOAD_LENGTH.
+     */
+    int writeCompressed(int pid, CompressedPayload payload) throws RemoteException;
+}
@@ -0,0 +1,22 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.naming.RemoteJarFileAccessor;
+
+import java.rmi.RemoteException;
+
+/**
+ * A RemoteJarFileAccessor that can hand the entries a program is expected to load to the client in bulk. The
+ * expected entries come from a class load profile recorded on an earlier launch of the same jar and main class.
+ */
+public interface RemoteJarPrefetchAccessor extends RemoteJarFileAccessor {
+
+    /**
+     * Get the next bundle of prefetched entries, in the order they were loaded when the profile was recorded. Blocks
+     * until at least one entry is available.
+     *
+     * @param maxBytes the approximate maximum number of entry bytes to return
+     * @return the next bundle, or null if there is no profile or all prefetched entries have been returned
+     * @throws RemoteException
+     */
+    PrefetchBundle getPrefetchBundle(int maxBytes) throws RemoteException;
+}
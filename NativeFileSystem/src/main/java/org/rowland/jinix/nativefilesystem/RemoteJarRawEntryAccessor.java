@@ -0,0 +1,25 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.naming.RemoteJarFileAccessor;
+
+import java.rmi.RemoteException;
+
+/**
+ * A RemoteJarFileAccessor that can return entries in the form they are stored in the jar, so that the client inflates
+ * them instead of the file server. This moves the inflate work of class loading from the server to the client JVMs,
+ * and the compressed entries are smaller to transfer.
+ */
+public interface RemoteJarRawEntryAccessor extends RemoteJarFileAccessor {
+
+    int MAX_RAW_ENTRY_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Get an entry without inflating it. The client should verify the CRC of the inflated bytes. Entries whose stored
+     * size is larger than MAX_RAW_ENTRY_SIZE must be read with findEntry() and read().
+     *
+     * @param name the entry name
+     * @return the entry, or null if there is no entry with the name
+     * @throws RemoteException
+     */
+    RawJarEntry getRawEntry(String name) throws RemoteException;
+}
@@ -0,0 +1,29 @@
+package org.rowland.jinix.nativefilesystem;
+
+import org.rowland.jinix.naming.RemoteFileAccessor;
+
+import java.rmi.RemoteException;
+
+/**
+ * A RemoteFileAccessor that can reserve space ahead of its write cursor. While preallocation is enabled, writes that
+ * cross the end of the reserved space extend it by a whole increment, so a file that is written sequentially grows in
+ * a few large steps instead of one small step per write. This reduces fragmentation, and most writes do not change
+ * the size of the file, so forcing them does not require a metadata update. length() and available() report the
+ * logical size of the file, and the reserved space beyond it is released when the accessor is closed.
+ *
+ * Preallocation is intended for a single writer. Other accessors of the same file can see the reserved space as zero
+ * bytes at the end of the file until the writer is closed.
+ */
+public interface RemotePreallocatingFileAccessor extends RemoteFileAccessor {
+
+    /**
+     * Enable, change or disable preallocation.
+     *
+     * @param increment the number of bytes to reserve at a time, or 0 to disable preallocation and release any
+     *                  reserved space
+     * @return the increment the accessor will use, 0 if the accessor does not support preallocation (not opened for
+     * writing, or opened for APPEND)
+     * @throws RemoteException
+     */
+    long setPreallocation(long increment) throws RemoteException;
+}
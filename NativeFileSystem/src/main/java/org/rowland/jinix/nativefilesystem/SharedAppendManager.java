@@ -0,0 +1,148 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Shares one end of file offset between the APPEND accessors of each file open in a FileSystemServer. A write
+ * reserves its region by atomically advancing the offset, then writes the region with a positional write, so
+ * appenders never wait for each other. The shared channel is opened without APPEND, as positional writes to a channel
+ * opened for APPEND go to the end of the file on some platforms.
+ *
+ * Writes and extensions made through the other accessors of the file only move the offset forward, so a region that
+ * has been reserved is never reserved again. A truncation waits for the appends that are writing their regions to
+ * finish, and holds off new appends until the offset has been reset to the new end of the file. A region whose write
+ * fails is left as zeros.
+ */
+class SharedAppendManager {
+
+    private final Map<Path, SharedAppendFile> fileMap = new ConcurrentHashMap<>();
+
+    private final AtomicLong appends = new AtomicLong();
+    private final AtomicLong appendedBytes = new AtomicLong();
+
+    SharedAppendFile open(Path path) throws IOException {
+        IOException[] failure = new IOException[1];
+        SharedAppendFile file = fileMap.compute(path, (p, f) -> {
+            if (f == null) {
+                try {
+                    f = new SharedAppendFile(FileChannel.open(p, StandardOpenOption.WRITE));
+                } catch (IOException e) {
+                    failure[0] = e;
+                    return null;
+                }
+            }
+            f.refCount++;
+            return f;
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return file;
+    }
+
+    void close(Path path, SharedAppendFile file) throws IOException {
+        boolean[] last = new boolean[1];
+        fileMap.computeIfPresent(path, (p, f) -> {
+            if (f != file || --f.refCount > 0) {
+                return f;
+            }
+            last[0] = true;
+            return null;
+        });
+        if (last[0]) {
+            file.channel.close();
+        }
+    }
+
+    /**
+     * Record a write or extension through an accessor that is not an APPEND accessor, so that later appends start
+     * after it.
+     */
+    void written(Path path, long end) {
+        SharedAppendFile file = fileMap.get(path);
+        if (file != null) {
+            file.end.accumulateAndGet(end, Math::max);
+        }
+    }
+
+    /**
+     * @return the end of the regions reserved by appends and of the writes recorded through other accessors, or 0 if
+     * the file has no APPEND accessors
+     */
+    long getEnd(Path path) {
+        SharedAppendFile file = fileMap.get(path);
+        return (file != null ? file.end.get() : 0);
+    }
+
+    /**
+     * Truncate the file through an accessor that is not an APPEND accessor. The truncation waits for appends in
+     * progress to finish writing, and later appends start at the new end of the file.
+     */
+    void truncate(Path path, Truncation truncation) throws IOException {
+        SharedAppendFile file = fileMap.get(path);
+        if (file == null) {
+            truncation.truncate();
+            return;
+        }
+        file.lock.writeLock().lock();
+        try {
+            truncation.truncate();
+            file.end.set(file.channel.size());
+        } finally {
+            file.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the offset the bytes were written at
+     */
+    long append(SharedAppendFile file, byte[] b) throws IOException {
+        long position;
+        file.lock.readLock().lock();
+        try {
+            position = file.end.getAndAdd(b.length);
+            ByteBuffer bb = ByteBuffer.wrap(b);
+            while (bb.hasRemaining()) {
+                file.channel.write(bb, position + bb.position());
+            }
+        } finally {
+            file.lock.readLock().unlock();
+        }
+        appends.incrementAndGet();
+        appendedBytes.addAndGet(b.length);
+        return position;
+    }
+
+    long getAppendCount() {
+        return appends.get();
+    }
+
+    long getAppendedBytes() {
+        return appendedBytes.get();
+    }
+
+    static class SharedAppendFile {
+        private final FileChannel channel;
+        private final AtomicLong end;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock(); // Shared by appends, exclusive to truncation
+        private int refCount; // Guarded by the fileMap entry
+
+        private SharedAppendFile(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.end = new AtomicLong(channel.size());
+        }
+    }
+
+    interface Truncation {
+        void truncate() throws IOException;
+    }
+}
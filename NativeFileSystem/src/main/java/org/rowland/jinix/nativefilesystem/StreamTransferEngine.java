@@ -0,0 +1,424 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.rmi.RemoteException;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Runs the download and upload sessions of a FileSystemServer's StreamTransferNameSpace. A download has a sender
+ * thread that reads the file ahead of the sink, and hands each chunk to its own delivery thread, so that as many
+ * remote deliver() calls are in flight as the session's credit allows. An upload is driven by the client, and the
+ * server only checks that the client stays within its window.
+ *
+ * Session IDs are random, and a session can only be used by the process that started it. A download whose sink grants
+ * no credit for SESSION_IDLE_MILLIS fails, and an upload that receives no chunk for as long is forgotten when the next
+ * session starts, so a client that dies does not keep its file open.
+ */
+class StreamTransferEngine {
+
+    static final long SESSION_IDLE_MILLIS = 10 * 60 * 1000;
+
+    private final FileSystemServer server;
+    private final ExecutorService executor;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<Long, Session> sessionMap = new ConcurrentHashMap<>();
+
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    StreamTransferEngine(FileSystemServer server) {
+        this.server = server;
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "fs-transfer-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    TransferSession download(int pid, String path, long position, long length, int chunkSize, int window,
+                             StreamTransferSink sink) throws IOException {
+        OpenFile file = server.openFile(pid, path, EnumSet.of(StandardOpenOption.READ));
+        long end;
+        try {
+            long size = file.length();
+            position = Math.min(Math.max(position, 0), size);
+            end = (length < 0 ? size : Math.min(size, position + length));
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+
+        expireIdleUploads();
+        DownloadSession s = new DownloadSession(newSessionId(), pid, file, chunkSize, window, sink, position, end);
+        sessionMap.put(s.id, s);
+        downloads.incrementAndGet();
+        executor.execute(s::send);
+        return s.toTransferSession(end - position);
+    }
+
+    TransferSession openUpload(int pid, String path, Set<? extends OpenOption> options, int chunkSize, int window)
+            throws IOException {
+        if (options.contains(StandardOpenOption.APPEND)) {
+            throw new UnsupportedOperationException("Uploads are written by position and cannot use APPEND: " + path);
+        }
+        Set<OpenOption> uploadOptions = new HashSet<>(options);
+        uploadOptions.add(StandardOpenOption.WRITE);
+        OpenFile file = server.openFile(pid, path, uploadOptions);
+
+        expireIdleUploads();
+        UploadSession s = new UploadSession(newSessionId(), pid, file, chunkSize, window);
+        sessionMap.put(s.id, s);
+        uploads.incrementAndGet();
+        return s.toTransferSession(0);
+    }
+
+    /**
+     * Credits granted to a download that has already ended are ignored, as the sink cannot know when the last
+     * delivery will be.
+     */
+    void grantCredit(int pid, long sessionId, int credits) {
+        Session s = sessionMap.get(sessionId);
+        if (s instanceof DownloadSession && s.pid == pid) {
+            ((DownloadSession) s).grant(credits);
+        }
+    }
+
+    int upload(int pid, long sessionId, long position, byte[] data) throws IOException {
+        return getSession(pid, sessionId, UploadSession.class).write(position, data);
+    }
+
+    long finishUpload(int pid, long sessionId, boolean force) throws IOException {
+        UploadSession s = getSession(pid, sessionId, UploadSession.class);
+        try {
+            if (force) {
+                s.file.force(true);
+            }
+            return s.file.length();
+        } finally {
+            sessionMap.remove(sessionId);
+            s.file.close();
+        }
+    }
+
+    /**
+     * Cancelling a session that has already ended is ignored, as a download can end at any time.
+     */
+    void cancel(int pid, long sessionId) throws IOException {
+        Session s = sessionMap.get(sessionId);
+        if (s != null && s.pid == pid) {
+            end(s);
+        }
+    }
+
+    private void end(Session s) throws IOException {
+        if (!sessionMap.remove(s.id, s)) {
+            return;
+        }
+        if (s instanceof DownloadSession) {
+            ((DownloadSession) s).cancel(); // The sender closes the file
+        } else {
+            s.file.close();
+        }
+    }
+
+    /**
+     * Get a session of the given type. A session used by a process other than the one that started it is treated as
+     * invalid, so that a process cannot tell whether another process's session exists.
+     */
+    private <T extends Session> T getSession(int pid, long sessionId, Class<T> type) {
+        Session s = sessionMap.get(sessionId);
+        if (!type.isInstance(s) || s.pid != pid) {
+            throw new IllegalArgumentException("Invalid transfer session: " + Long.toHexString(sessionId));
+        }
+        return type.cast(s);
+    }
+
+    private long newSessionId() {
+        long id;
+        do {
+            id = random.nextLong();
+        } while (id == 0 || sessionMap.containsKey(id));
+        return id;
+    }
+
+    /**
+     * Forget the uploads that have not received a chunk for SESSION_IDLE_MILLIS, closing their files. The chunks they
+     * wrote are kept, as for a cancelled upload.
+     */
+    private void expireIdleUploads() {
+        long expired = System.currentTimeMillis() - SESSION_IDLE_MILLIS;
+        for (Session s : sessionMap.values()) {
+            if (s instanceof UploadSession && ((UploadSession) s).isIdleSince(expired)) {
+                try {
+                    end(s);
+                    FileSystemServer.logger.fine("Upload abandoned by client: " + s.file.jinixPath);
+                } catch (IOException e) {
+                    FileSystemServer.logger.log(Level.FINE, "Failed closing idle upload", e);
+                }
+            }
+        }
+    }
+
+    void shutdown() {
+        for (Session s : sessionMap.values()) {
+            try {
+                end(s);
+            } catch (IOException e) {
+                // Ignore on shutdown
+            }
+        }
+        executor.shutdownNow();
+    }
+
+    int getSessionCount() {
+        return sessionMap.size();
+    }
+
+    long getDownloadCount() {
+        return downloads.get();
+    }
+
+    long getUploadCount() {
+        return uploads.get();
+    }
+
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    private static abstract class Session {
+        final long id;
+        final int pid;
+        final OpenFile file;
+        final int chunkSize;
+        final int window;
+
+        Session(long id, int pid, OpenFile file, int chunkSize, int window) {
+            this.id = id;
+            this.pid = pid;
+            this.file = file;
+            this.chunkSize = Math.max(1, Math.min(chunkSize, StreamTransferNameSpace.MAX_CHUNK_SIZE));
+            this.window = Math.max(1, Math.min(window, StreamTransferNameSpace.MAX_WINDOW));
+        }
+
+        TransferSession toTransferSession(long length) {
+            TransferSession t = new TransferSession();
+            t.sessionId = id;
+            t.chunkSize = chunkSize;
+            t.window = window;
+            t.length = length;
+            return t;
+        }
+    }
+
+    private class DownloadSession extends Session {
+        private final StreamTransferSink sink;
+        private final long start;
+        private final long end;
+        private final AtomicLong sent = new AtomicLong();
+        private int credit; // guarded by this
+        private int inFlight;
+        private boolean cancelled;
+        private IOException failure;
+
+        DownloadSession(long id, int pid, OpenFile file, int chunkSize, int window, StreamTransferSink sink,
+                        long start, long end) {
+            super(id, pid, file, chunkSize, window);
+            this.sink = sink;
+            this.start = start;
+            this.end = end;
+            this.credit = this.window;
+        }
+
+        /**
+         * Read the range a chunk at a time, waiting for credit before each chunk, then wait for the chunks in flight
+         * and report the outcome to the sink.
+         */
+        void send() {
+            try {
+                long position = start;
+                while (position < end) {
+                    synchronized (this) {
+                        awaitCredit();
+                        if (cancelled || failure != null) {
+                            break;
+                        }
+                        credit--;
+                        inFlight++;
+                    }
+                    int len = (int) Math.min(chunkSize, end - position);
+                    byte[] data = file.readAt(position, len);
+                    if (data == null) {
+                        synchronized (this) {
+                            inFlight--;
+                        }
+                        break; // The file was truncated during the transfer
+                    }
+                    long chunkPosition = position;
+                    executor.execute(() -> deliver(chunkPosition, data));
+                    if (data.length < len) {
+                        break;
+                    }
+                    position += data.length;
+                }
+                synchronized (this) {
+                    while (inFlight > 0) {
+                        wait();
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+                waitForDeliveries();
+            } catch (InterruptedException e) {
+                fail(new InterruptedIOException("Transfer interrupted"));
+            } finally {
+                sessionMap.remove(id);
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    FileSystemServer.logger.log(Level.FINE, "Failed closing transfer " + id, e);
+                }
+            }
+
+            IOException e;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                e = failure;
+            }
+            try {
+                if (e != null) {
+                    sink.failed(id, e);
+                } else {
+                    sink.complete(id, sent.get());
+                }
+            } catch (RemoteException | RuntimeException e1) {
+                FileSystemServer.logger.log(Level.FINE, "Failed reporting the end of transfer " + id, e1);
+            }
+        }
+
+        /**
+         * Deliver a chunk to the sink. The chunk is no longer in flight however deliver() ends, as RMI rethrows an
+         * unchecked exception thrown by the sink as it is.
+         */
+        private void deliver(long position, byte[] data) {
+            int granted = 0;
+            try {
+                granted = sink.deliver(id, position, data);
+                sent.addAndGet(data.length);
+                bytesSent.addAndGet(data.length);
+            } catch (RemoteException | RuntimeException e) {
+                fail(new IOException("Transfer sink failed", e));
+            } finally {
+                synchronized (this) {
+                    inFlight--;
+                    credit = Math.min(credit + Math.max(granted, 0), window);
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Wait for credit, failing the transfer if the sink grants none for SESSION_IDLE_MILLIS. Called holding the
+         * session's monitor.
+         */
+        private void awaitCredit() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + SESSION_IDLE_MILLIS;
+            while (credit == 0 && !cancelled && failure == null) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    fail(new IOException("Transfer sink granted no credit for " + SESSION_IDLE_MILLIS + " ms"));
+                    return;
+                }
+                wait(remaining);
+            }
+        }
+
+        synchronized void grant(int credits) {
+            credit = Math.min(credit + Math.max(credits, 0), window);
+            notifyAll();
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        private synchronized void fail(IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+            notifyAll();
+        }
+
+        private synchronized void waitForDeliveries() {
+            try {
+                while (inFlight > 0) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private class UploadSession extends Session {
+        private int inFlight; // guarded by this
+        private long lastWriteTime = System.currentTimeMillis(); // guarded by this
+
+        UploadSession(long id, int pid, OpenFile file, int chunkSize, int window) {
+            super(id, pid, file, chunkSize, window);
+        }
+
+        synchronized boolean isIdleSince(long time) {
+            return (inFlight == 0 && lastWriteTime < time);
+        }
+
+        /**
+         * Write a chunk at its position. The credit returned is the one the chunk used, so a client that keeps
+         * window chunks in flight never waits for anything but the writes themselves.
+         */
+        int write(long position, byte[] data) throws IOException {
+            if (data.length > chunkSize) {
+                throw new IllegalArgumentException("Chunk larger than the session chunk size: " + data.length);
+            }
+            synchronized (this) {
+                if (inFlight >= window) {
+                    throw new IllegalStateException("Upload exceeded its window: " + Long.toHexString(id));
+                }
+                inFlight++;
+                lastWriteTime = System.currentTimeMillis();
+            }
+            try {
+                file.writeAt(data, position);
+                bytesReceived.addAndGet(data.length);
+                return 1;
+            } finally {
+                synchronized (this) {
+                    inFlight--;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.Set;
+
+/**
+ * Streams large files to and from a file system with several chunks in flight, so that a transfer is limited by
+ * bandwidth instead of by the round trip time of each read or write. Both directions use credit based flow control.
+ * The sender may have at most as many chunks outstanding as the credit it holds, and each chunk that the receiver
+ * has consumed returns one credit.
+ *
+ * A session can only be used by the process that started it, and the pid passed to each call must be that process's.
+ * A download whose sink grants no credit for ten minutes fails, and an upload that receives no chunk for ten minutes
+ * may be abandoned by the server.
+ */
+public interface StreamTransferNameSpace extends Remote {
+
+    int MAX_CHUNK_SIZE = 1024 * 1024;
+    int MAX_WINDOW = 64;
+
+    /**
+     * Start streaming a range of a file to a sink. Chunks are delivered concurrently and may arrive out of order.
+     * Each call to deliver() returns the credits that the sink grants back, and a sink that buffers chunks can
+     * return 0 and grant the credits later with grantCredit(). Once every chunk has been delivered, the sink's
+     * complete() is called. If the transfer fails, failed() is called instead.
+     *
+     * @param pid the process ID of the client
+     * @param path the file to read
+     * @param position the offset of the first byte to send
+     * @param length the number of bytes to send, or -1 to send to the end of the file
+     * @param chunkSize the size of each chunk, at most MAX_CHUNK_SIZE
+     * @param window the initial credit, and the most chunks that can be in flight, at most MAX_WINDOW
+     * @param sink the remote sink to deliver the chunks to
+     * @return the session, with the chunk size, window and length that are used
+     * @throws NoSuchFileException
+     * @throws RemoteException
+     */
+    TransferSession download(int pid, String path, long position, long length, int chunkSize, int window,
+                             StreamTransferSink sink) throws NoSuchFileException, RemoteException;
+
+    /**
+     * Return credits to a download whose sink returned fewer credits from deliver() than chunks it was given.
+     * Credits for a download that has ended are ignored.
+     */
+    void grantCredit(int pid, long sessionId, int credits) throws RemoteException;
+
+    /**
+     * Open a file to be written with upload(). The returned window is the credit the client starts with.
+     */
+    TransferSession openUpload(int pid, String path, Set<? extends OpenOption> options, int chunkSize, int window)
+            throws FileAlreadyExistsException, NoSuchFileException, RemoteException;
+
+    /**
+     * Write a chunk of an upload at the given offset. Chunks may be sent concurrently, up to the credit the client
+     * holds, and are written in the order they arrive.
+     *
+     * @return the credits granted back to the client
+     */
+    int upload(int pid, long sessionId, long position, byte[] data) throws RemoteException;
+
+    /**
+     * Close an upload once all of its chunks have been acknowledged.
+     *
+     * @param force true to force the file to the storage device before returning
+     * @return the size of the file
+     */
+    long finishUpload(int pid, long sessionId, boolean force) throws RemoteException;
+
+    /**
+     * Stop a download or abandon an upload. The chunks already written by an upload are kept.
+     */
+    void cancel(int pid, long sessionId) throws RemoteException;
+}
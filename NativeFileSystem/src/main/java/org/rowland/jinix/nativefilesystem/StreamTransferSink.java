@@ -0,0 +1,20 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.IOException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Implemented by clients of StreamTransferNameSpace to receive the chunks of a download.
+ */
+public interface StreamTransferSink extends Remote {
+
+    /**
+     * @return the credits granted back to the sender, normally 1 once the chunk has been consumed
+     */
+    int deliver(long sessionId, long position, byte[] data) throws RemoteException;
+
+    void complete(long sessionId, long bytes) throws RemoteException;
+
+    void failed(long sessionId, IOException e) throws RemoteException;
+}
@@ -0,0 +1,15 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.io.Serializable;
+
+/**
+ * A download or upload started through a StreamTransferNameSpace. The chunk size and window are those requested,
+ * limited to the server maximums. length is the number of bytes a download will send, and is 0 for an upload.
+ */
+public class TransferSession implements Serializable {
+
+    public long sessionId;
+    public int chunkSize;
+    public int window;
+    public long length;
+}
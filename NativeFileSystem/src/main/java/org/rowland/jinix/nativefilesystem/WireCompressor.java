@@ -0,0 +1,90 @@
+package org.rowland.jinix.nativefilesystem;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses the payloads of a RemoteCompressedFileAccessor using DEFLATE at its fastest level.
+ * Payloads below a size threshold are not compressed. A payload that does not shrink by at least an eighth is sent
+ * uncompressed, and compression is not attempted again for the next few payloads, so streams of incompressible data
+ * pay very little for the attempt.
+ */
+class WireCompressor {
+
+    static final int MIN_COMPRESS_SIZE = 4096;
+    private static final int INCOMPRESSIBLE_BACKOFF = 16;
+
+    private Deflater deflater;
+    private Inflater inflater;
+    private int skipCount;
+
+    synchronized CompressedPayload compress(byte[] b) {
+        if (b.length < MIN_COMPRESS_SIZE) {
+            return new CompressedPayload(RemoteCompressedFileAccessor.CODEC_NONE, b.length, b);
+        }
+        if (skipCount > 0) {
+            skipCount--;
+            return new CompressedPayload(RemoteCompressedFileAccessor.CODEC_NONE, b.length, b);
+        }
+
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+        }
+        deflater.reset();
+        deflater.setInput(b);
+        deflater.finish();
+
+        byte[] out = new byte[b.length - (b.length / 8)];
+        int n = 0;
+        while (!deflater.finished() && n < out.length) {
+            n += deflater.deflate(out, n, out.length - n);
+        }
+        if (!deflater.finished()) {
+            skipCount = INCOMPRESSIBLE_BACKOFF;
+            return new CompressedPayload(RemoteCompressedFileAccessor.CODEC_NONE, b.length, b);
+        }
+        return new CompressedPayload(RemoteCompressedFileAccessor.CODEC_DEFLATE, b.length, Arrays.copyOf(out, n));
+    }
+
+    synchronized byte[] decompress(CompressedPayload payload) throws DataFormatException {
+        switch (payload.codec) {
+            case RemoteCompressedFileAccessor.CODEC_NONE:
+                return payload.data;
+            case RemoteCompressedFileAccessor.CODEC_DEFLATE:
+                // The length comes from the client, so check it before allocating the buffer
+                if (payload.length < 0 || payload.length > RemoteCompressedFileAccessor.MAX_PAYLOAD_LENGTH) {
+                    throw new DataFormatException("Invalid compressed payload length: " + payload.length);
+                }
+                if (inflater == null) {
+                    inflater = new Inflater(true);
+                }
+                inflater.reset();
+                inflater.setInput(payload.data);
+                byte[] b = new byte[payload.length];
+                int n = 0;
+                while (n < b.length) {
+                    int r = inflater.inflate(b, n, b.length - n);
+                    if (r == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new DataFormatException("Compressed payload shorter than its length");
+                    }
+                    n += r;
+                }
+                return b;
+            default:
+                throw new DataFormatException("Unsupported payload codec: " + payload.codec);
+        }
+    }
+
+    synchronized void end() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+}
@@ -89,6 +89,42 @@ public class LineDiscipline {
         }
     }
 
+    /**
+     * Write a span of bytes. In raw mode the bytes are put into the output buffer a contiguous run at a time, and the
+     * buffer is flushed once at the end, instead of putting and flushing each byte. The writer's process group is
+     * checked by each run that is put, so once per call unless the writer has to wait for the buffer to drain.
+     *
+     * @return the number of bytes written. This is less than len if the writer was blocked after some of the bytes
+     * were written, in which case the next write throws the TerminalBlockedOperationException.
+     */
+    public int write(byte[] b, int off, int len) throws IOException {
+        int written = 0;
+        try {
+            if (raw) {
+                while (written < len) {
+                    int n = this.outputBuffer.put(b, off + written, len - written);
+                    if (n == 0) {
+                        break; // Interrupted waiting for space
+                    }
+                    written += n;
+                }
+            } else {
+                while (written < len) {
+                    write(b[off + written]);
+                    written++;
+                }
+            }
+        } catch (TerminalBlockedOperationException e) {
+            if (written == 0) {
+                throw e;
+            }
+        }
+        if (raw && !parentTerminal.localModes.contains(LocalMode.ICANON)) {
+            this.outputBuffer.flush();
+        }
+        return written;
+    }
+
     protected void handleOutputCR() throws IOException {
         if (parentTerminal.inputModes.contains(InputMode.IGNCR)) {
             return;    // Ignore CR on input
@@ -1,293 +1,360 @@
 package org.rowland.jinix.terminal;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
 /**
+ * A ring buffer between the threads that put bytes into a terminal and the threads that get them. Bytes that are put
+ * are not visible to the getter until they are committed by flush(), or when the buffer fills, so that the line
+ * discipline can erase and kill the bytes of a line that is being edited. The head, committed and tail indices only
+ * increase, and each is kept on its own cache line. The producer and the consumer never take a common lock. A getter
+ * parks only when the buffer is empty and a putter only when it is full, and the other side unparks it on the
+ * transition.
+ *
+ * The ring is single producer, single consumer. Concurrent putters (a program's output and the master's echo) are
+ * serialized by the producer lock, and concurrent getters by the consumer lock.
+ *
  * Created by rsmith on 11/28/2016.
  */
 public class TermBuffer {
 
-    byte[] buffer;
-    enum mode_value {read, write};
-    mode_value mode;
-    int position;
-    int limit;
+    // The indices are PAD longs apart in the array, so that each is on its own cache line
+    private static final int PAD = 16;
+    private static final int HEAD = PAD; // The next byte to get, written by the consumer
+    private static final int COMMITTED = 2 * PAD; // The end of the bytes that can be got
+    private static final int TAIL = 3 * PAD; // The next byte to put, written by the producer
+
+    final byte[] buffer;
+    private final int mask;
+    private final AtomicLongArray indices = new AtomicLongArray(4 * PAD);
     Terminal parentTerminal;
+    private final Object producerLock = new Object();
+    private final Object consumerLock = new Object();
+    private final Queue<Thread> waitingProducers = new ConcurrentLinkedQueue<>();
+    private volatile Thread waitingConsumer;
+    // While suspended (XOFF) nothing more is committed, so puts continue until the buffer is full, but the getter
+    // only sees the bytes that were committed before the suspend.
     private volatile boolean suspended = false;
-    private volatile boolean requestSuspend = false;
+    private final AtomicBoolean eof = new AtomicBoolean();
+    private volatile long erasedCount; // Only updated holding the producer lock
 
+    /**
+     * @param capacity the size of the buffer, rounded up to a power of two
+     */
     TermBuffer(Terminal parent, int capacity) {
         this.parentTerminal = parent;
-        this.buffer = new byte[capacity];
-        this.mode = mode_value.write;
-        this.position = 0;
-        this.limit = 0;
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.buffer = new byte[size];
+        this.mask = size - 1;
     }
 
-    synchronized int putIfPossible(byte b) {
-
-        int bytesAvailable = buffer.length-position;
-
-        if (bytesAvailable > 0) {
-            return put(b);
-        } else {
-            return 0;
+    /**
+     * Put a byte only if there is space for it now. Used to echo input, which must never wait for the program's
+     * output to be read.
+     */
+    int putIfPossible(byte b) {
+        synchronized (producerLock) {
+            long tail = indices.get(TAIL);
+            if (tail - indices.get(HEAD) == buffer.length) {
+                return 0;
+            }
+            buffer[(int) tail & mask] = b;
+            advanceTail(tail + 1);
+            return 1;
         }
     }
 
-    synchronized int put(byte b) {
-
-        int bytesAvailable = buffer.length - position;
+    int put(byte b) {
+        while (true) {
+            synchronized (producerLock) {
+                long tail = indices.get(TAIL);
+                if (tail - indices.get(HEAD) < buffer.length) {
+                    checkWriter();
+                    buffer[(int) tail & mask] = b;
+                    advanceTail(tail + 1);
+                    return 1;
+                }
+                // Make the full buffer visible so that the consumer can drain it
+                commit();
+            }
+            if (!awaitSpace()) {
+                return 0;
+            }
+        }
+    }
 
-        while (mode == mode_value.read || bytesAvailable == 0) {
-            try {
-                this.wait();
-            } catch (InterruptedException e) {
+    /**
+     * Put as many of the bytes as there is space for, waiting only if the buffer is full.
+     *
+     * @return the number of bytes put, which may be less than length
+     */
+    int put(byte[] b, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        while (true) {
+            synchronized (producerLock) {
+                long tail = indices.get(TAIL);
+                int free = buffer.length - (int) (tail - indices.get(HEAD));
+                if (free > 0) {
+                    checkWriter();
+                    int bytesToWrite = Math.min(length, free);
+                    int index = (int) tail & mask;
+                    int firstPart = Math.min(bytesToWrite, buffer.length - index);
+                    System.arraycopy(b, offset, buffer, index, firstPart);
+                    System.arraycopy(b, offset + firstPart, buffer, 0, bytesToWrite - firstPart);
+                    advanceTail(tail + bytesToWrite);
+                    return bytesToWrite;
+                }
+                commit();
+            }
+            if (!awaitSpace()) {
                 return 0;
             }
-            bytesAvailable = buffer.length - position;
         }
+    }
 
-        if (parentTerminal.activeWriterThreads.get(Thread.currentThread()) != null) {
-            Integer processGroupId = parentTerminal.activeWriterThreads.get(Thread.currentThread());
+    /**
+     * A program that is not in the foreground process group may not write to the terminal when TOSTOP is set. Only the
+     * slave populates the map, so a thread that is not in it is the master.
+     */
+    private void checkWriter() {
+        Integer processGroupId = parentTerminal.activeWriterThreads.get(Thread.currentThread());
+        if (processGroupId != null) {
             if (parentTerminal.localModes.contains(LocalMode.TOSTOP) && processGroupId != parentTerminal.foregroundProcessGroupId) {
                 throw new TerminalBlockedOperationException();
             }
         }
+    }
 
-        bytesAvailable = buffer.length-position;
-
-        if (bytesAvailable > 0) {
-            buffer[position++] = b;
-            limit = position;
-        } else {
-            flip();
-            return put(b);
-        }
-
-        bytesAvailable = buffer.length-position;
-        if (bytesAvailable == 0) {
-            flip();
+    private void advanceTail(long tail) {
+        indices.set(TAIL, tail);
+        if (tail - indices.get(HEAD) == buffer.length) {
+            commit();
         }
-
-        return 1;
     }
 
-    synchronized int put(byte[] b, int offset, int length) {
-        while (mode == mode_value.read) {
-            try {
-                this.wait();
-            } catch (InterruptedException e) {
-                return 0;
-            }
-
-            if (parentTerminal.activeWriterThreads.get(Thread.currentThread()) != null) {
-                Integer processGroupId = parentTerminal.activeWriterThreads.get(Thread.currentThread());
-                if (processGroupId != parentTerminal.foregroundProcessGroupId) {
-                    throw new TerminalBlockedOperationException();
+    /**
+     * Wait until the buffer is not full. Called without the producer lock, so that putIfPossible() and the other
+     * putters are not blocked by a putter that is waiting.
+     *
+     * @return false if the thread was interrupted
+     */
+    private boolean awaitSpace() {
+        Thread current = Thread.currentThread();
+        waitingProducers.add(current);
+        try {
+            while (indices.get(TAIL) - indices.get(HEAD) == buffer.length) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    return false;
                 }
             }
+            return true;
+        } finally {
+            waitingProducers.remove(current);
         }
-
-        int bytesToWrite = Math.min(length, buffer.length-position);
-
-        System.arraycopy(b, offset, buffer, position, bytesToWrite);
-        position = position + bytesToWrite;
-        limit = position;
-
-        return bytesToWrite;
     }
 
-    synchronized boolean erase() {
-        if (mode == mode_value.read) {
-            try {
-                this.wait();
-            } catch (InterruptedException e) {
+    boolean erase() {
+        synchronized (producerLock) {
+            long tail = indices.get(TAIL);
+            if (tail == indices.get(COMMITTED)) {
                 return false;
             }
-        }
-
-        if (position > 0) {
-            position--;
+            indices.set(TAIL, tail - 1);
+            erasedCount++;
             return true;
         }
-
-        return false;
     }
 
-    synchronized int kill() {
-        if (mode == mode_value.read) {
-            try {
-                this.wait();
-            } catch (InterruptedException e) {
+    int kill() {
+        synchronized (producerLock) {
+            long tail = indices.get(TAIL);
+            long committed = indices.get(COMMITTED);
+            if (tail == committed) {
                 return 0;
             }
+            indices.set(TAIL, committed);
+            erasedCount += (tail - committed);
+            return (int) (tail - committed);
         }
-
-        if (position > 0) {
-            int rtrnVal = position;
-            position = 0;
-            return rtrnVal;
-        }
-
-        return 0;
     }
 
-    synchronized int get() {
-
-        while (mode == mode_value.write || suspended) {
-            try {
-                this.wait();
-            } catch (InterruptedException e) {
+    int get() {
+        synchronized (consumerLock) {
+            long head = indices.get(HEAD);
+            if (!awaitData(head)) {
                 return 0; // This should never happen
             }
-        }
 
-        // If this thread is not in the process group that is the foreground, so it should not receive input. get() is
-        // call by both master and the slave. Only the slave will populate the map, if the thread is not in the map, it
-        // means that the master is calling.
-        if (parentTerminal.activeReaderThreads.get(Thread.currentThread()) != null) {
-            Integer processGroupId = parentTerminal.activeReaderThreads.get(Thread.currentThread());
-            if (processGroupId != parentTerminal.foregroundProcessGroupId) {
-                throw new TerminalBlockedOperationException();
-            }
-        }
+            checkReader();
 
-        if (this.limit == 0) {
-            flip();
-            return -1;
-        }
-
-        int rtrn = buffer[this.position++];
+            if (head == indices.get(COMMITTED)) {
+                eof.set(false);
+                return -1;
+            }
 
-        if (this.position == this.limit) {
-            limit = 0;
-            flip();
+            int rtrn = buffer[(int) head & mask];
+            advanceHead(head + 1);
+            return rtrn;
         }
-
-        return rtrn;
     }
 
-    synchronized int get(byte[] b) {
-        while (mode == mode_value.write || suspended) {
-            try {
-                this.wait();
-            } catch (InterruptedException e) {
+    int get(byte[] b) {
+        synchronized (consumerLock) {
+            long head = indices.get(HEAD);
+            if (!awaitData(head)) {
                 return 0;
             }
 
-            if (parentTerminal.activeReaderThreads.get(Thread.currentThread()) != null) {
-                Integer processGroupId = parentTerminal.activeReaderThreads.get(Thread.currentThread());
-                if (processGroupId != parentTerminal.foregroundProcessGroupId) {
-                    throw new TerminalBlockedOperationException();
-                }
-            }
-        }
-
-        // If position equals limit and the buffer is in read mode, then the buffer has been reset.
-        if (this.position == this.limit) {
-            return -1;
-        }
+            checkReader();
 
-        int rtrn = Math.min(b.length, this.limit - this.position);
-        System.arraycopy(buffer, this.position, b, 0, rtrn);
+            long committed = indices.get(COMMITTED);
+            if (head == committed) {
+                eof.set(false);
+                return -1;
+            }
 
-        this.position = this.position + rtrn;
-        if (this.position == this.limit) {
-            limit = 0;
-            flip();
+            int rtrn = (int) Math.min(b.length, committed - head);
+            int index = (int) head & mask;
+            int firstPart = Math.min(rtrn, buffer.length - index);
+            System.arraycopy(buffer, index, b, 0, firstPart);
+            System.arraycopy(buffer, 0, b, firstPart, rtrn - firstPart);
+            advanceHead(head + rtrn);
+            return rtrn;
         }
-
-        return rtrn;
     }
 
-    private synchronized void flip() {
-
-        // Once we enter suspend state we should be locked in write mode. This will allow echo characters to be added
-        // to the buffer, and for the slave OS to continue writing until the buffer is full
-        if (suspended) {
-            return;
-        }
-
-        if (mode == mode_value.read) {
-            mode = mode_value.write;
-        } else {
-            mode = mode_value.read;
+    /**
+     * If this thread is not in the process group that is the foreground, it should not receive input. get() is called
+     * by both the master and the slave. Only the slave will populate the map, if the thread is not in the map, it means
+     * that the master is calling.
+     */
+    private void checkReader() {
+        Integer processGroupId = parentTerminal.activeReaderThreads.get(Thread.currentThread());
+        if (processGroupId != null) {
+            if (processGroupId != parentTerminal.foregroundProcessGroupId) {
+                throw new TerminalBlockedOperationException();
+            }
         }
+    }
 
-        // If we are transitioning back to read, and a suspend has been requested, enter true suspend state.
-        if (mode == mode_value.read && requestSuspend == true) {
-            mode = mode_value.write;
-            requestSuspend = false;
-            suspended = true;
-            notifyAll();
-            return;
+    private void advanceHead(long head) {
+        indices.set(HEAD, head);
+        if (!waitingProducers.isEmpty()) {
+            for (Thread t : waitingProducers) {
+                LockSupport.unpark(t);
+            }
         }
-
-        this.position = 0;
-
-        this.notifyAll();
     }
 
-    synchronized void flush() {
-        while (mode == mode_value.read) {
-            try {
-                this.wait();
-            } catch (InterruptedException e) {
-                return ;
+    /**
+     * Wait until there are committed bytes after head, or an EOF from reset(). An EOF is held while the flow is
+     * suspended, as the bytes are.
+     *
+     * @return false if the thread was interrupted
+     */
+    private boolean awaitData(long head) {
+        if (head != indices.get(COMMITTED)) {
+            return true;
+        }
+        waitingConsumer = Thread.currentThread();
+        try {
+            while (head == indices.get(COMMITTED) && (suspended || !eof.get())) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    return false;
+                }
             }
+            return true;
+        } finally {
+            waitingConsumer = null;
         }
+    }
 
-        if (position == 0) {
+    /**
+     * Make the bytes that have been put visible to the getter, unless the flow is suspended. Only called holding the
+     * producer lock, so that the tail cannot be moved back by erase() or kill() while it is committed.
+     */
+    private void commit() {
+        if (suspended) {
             return;
         }
-
-        flip();
-    }
-
-    synchronized int available() {
-
-        if (mode == mode_value.write) {
-            return 0;
+        long tail = indices.get(TAIL);
+        if (tail > indices.get(COMMITTED)) {
+            indices.set(COMMITTED, tail);
+            Thread t = waitingConsumer;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
         }
-        return limit - position;
     }
 
-    synchronized public void reset() {
-         if (mode == mode_value.read) {
-            try {
-                this.wait();
-            } catch (InterruptedException e) {
-                return;
-            }
+    void flush() {
+        synchronized (producerLock) {
+            commit();
         }
+    }
 
-        // Setting the limit to 0 and the mode back to read will cause any waiting getter to receive -1 indicating EOF.
-        this.limit = 0;
-        flip();
+    int available() {
+        return (int) (indices.get(COMMITTED) - indices.get(HEAD));
     }
 
-    public synchronized void suspendFlow() {
-        if (requestSuspend || suspended) {
-            return;
+    /**
+     * Signal EOF. A getter receives -1 once, after it has got the bytes that were committed before the reset. Bytes
+     * that have not been committed are left in the buffer.
+     */
+    public void reset() {
+        eof.set(true);
+        Thread t = waitingConsumer;
+        if (t != null) {
+            LockSupport.unpark(t);
         }
+    }
 
-        requestSuspend = true;
+    public void suspendFlow() {
+        suspended = true;
     }
 
-    public synchronized void resumeFlow() {
+    public void resumeFlow() {
         if (!suspended) {
-            requestSuspend = false;
             return;
         }
 
-        requestSuspend = false;
-        suspended = false;
+        // A putter waiting for space does not hold the producer lock, so this never waits for the getter
+        synchronized (producerLock) {
+            suspended = false;
+            commit();
+        }
 
-        if (mode == mode_value.write) {
-            mode = mode_value.read;
-            position = 0;
+        // Wake the getter even if nothing was committed, in case an EOF was held
+        Thread t = waitingConsumer;
+        if (t != null) {
+            LockSupport.unpark(t);
         }
+    }
+
+    long getPutCount() {
+        return indices.get(TAIL) + erasedCount;
+    }
+
+    long getGetCount() {
+        return indices.get(HEAD);
+    }
+
+    int getCapacity() {
+        return buffer.length;
+    }
 
-        notifyAll();
+    /**
+     * The number of bytes in the buffer, committed or not, for stats.
+     */
+    int getBufferedBytes() {
+        return (int) (indices.get(TAIL) - indices.get(HEAD));
     }
 
     private String bytesToString(byte[] ba) {
@@ -6,12 +6,17 @@ import org.rowland.jinix.io.JinixFileDescriptor;
 import org.rowland.jinix.lang.JinixRuntime;
 import org.rowland.jinix.lang.ProcessSignalHandler;
 import org.rowland.jinix.naming.FileNameSpace;
+import org.rowland.jinix.naming.JinixContext;
 import org.rowland.jinix.naming.NameSpace;
 import org.rowland.jinix.naming.RemoteFileAccessor;
+import org.rowland.jinix.naming.RemoteFileHandle;
 import org.rowland.jinix.proc.EventData;
 import org.rowland.jinix.proc.EventNotificationHandler;
 import org.rowland.jinix.proc.ProcessManager;
+import org.rowland.jinix.stats.StatsDirectory;
+import org.rowland.jinix.stats.StatsRenderer;
 
+import javax.naming.NamingException;
 import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
@@ -19,11 +24,12 @@ import java.rmi.registry.Registry;
 import java.rmi.server.RMISocketFactory;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by rsmith on 11/28/2016.
  */
-class TermServerServer extends JinixKernelUnicastRemoteObject implements TermServer {
+class TermServerServer extends StatsDirectory implements TermServer {
 
     static TermServerServer server;
     private static Thread mainThread;
@@ -32,6 +38,7 @@ class TermServerServer extends JinixKernelUnicastRemoteObject implements TermSer
     private NameSpace rootNamespace;
     ProcessManager processManager;
     private ResumeEventNotificationHandler processManagerEventHandler;
+    private AtomicLong createdTerminalCount = new AtomicLong();
 
     private TermServerServer() throws RemoteException {
 
@@ -55,6 +62,17 @@ class TermServerServer extends JinixKernelUnicastRemoteObject implements TermSer
         processManagerEventHandler = new ResumeEventNotificationHandler();
         processManager.registerGlobalEventNotificationHandler(ProcessManager.EventName.RESUME,
                 processManagerEventHandler);
+
+        addFile("terminals", out -> {
+            int active = 0;
+            for (Terminal t : term) {
+                if (t != null) {
+                    active++;
+                }
+            }
+            StatsRenderer.value(out, "active", active);
+            StatsRenderer.value(out, "created", createdTerminalCount.get());
+        });
     }
 
 
@@ -70,7 +88,10 @@ class TermServerServer extends JinixKernelUnicastRemoteObject implements TermSer
 
         for (short i = 0; i < 255; i++) {
             if(term[i]==null) {
-                term[i] = new Terminal(server, i, im, om, lm, cc);
+                Terminal t = new Terminal(server, i, im, om, lm, cc);
+                term[i] = t;
+                createdTerminalCount.incrementAndGet();
+                addFile("term" + i, t::renderStats);
                 return i;
             }
         }
@@ -184,6 +205,7 @@ class TermServerServer extends JinixKernelUnicastRemoteObject implements TermSer
                 if (t != null) {
                     t.close();
                     term[((EventData) eventData).terminalId] = null;
+                    removeFile("term" + ((EventData) eventData).terminalId);
                 }
             }
         }
@@ -215,7 +237,8 @@ class TermServerServer extends JinixKernelUnicastRemoteObject implements TermSer
         }
     }
 
-    // FileNameSpace implementation starts here
+    // FileNameSpace implementation is inherited from StatsDirectory. The translator's namespace is a read only
+    // directory with a terminals summary file and a termN file for each allocated terminal.
 
     public static void main(String[] args) {
 
@@ -228,7 +251,9 @@ class TermServerServer extends JinixKernelUnicastRemoteObject implements TermSer
 
             try {
                 server = new TermServerServer();
-            } catch (RemoteException e) {
+                RemoteFileHandle file = (RemoteFileHandle) (new JinixContext()).lookup(translatorFile.getAbsolutePath());
+                server.attach(file.getParent(), file.getPath());
+            } catch (NamingException | RemoteException e) {
                 throw new RuntimeException("Translator failed initialization",e);
             }
 
@@ -2,6 +2,7 @@ package org.rowland.jinix.terminal;
 
 import org.rowland.jinix.naming.RemoteFileAccessor;
 import org.rowland.jinix.proc.ProcessManager;
+import org.rowland.jinix.stats.StatsRenderer;
 
 import java.rmi.RemoteException;
 import java.util.*;
@@ -131,6 +132,26 @@ public class Terminal {
         }
     }
 
+    /**
+     * Append the terminal's stats file. The slave writes the process output to the outputTermBuffer, and the master
+     * writes the process input to the inputTermBuffer.
+     */
+    void renderStats(StringBuilder out) {
+        StatsRenderer.value(out, "id", id);
+        StatsRenderer.value(out, "linked_pid", linkedProcess);
+        StatsRenderer.value(out, "foreground_pgid", foregroundProcessGroupId);
+        StatsRenderer.value(out, "columns", columns);
+        StatsRenderer.value(out, "lines", lines);
+        StatsRenderer.value(out, "output_buffered", outputTermBuffer.getBufferedBytes());
+        StatsRenderer.value(out, "output_capacity", outputTermBuffer.getCapacity());
+        StatsRenderer.value(out, "output_put_bytes", outputTermBuffer.getPutCount());
+        StatsRenderer.value(out, "output_get_bytes", outputTermBuffer.getGetCount());
+        StatsRenderer.value(out, "input_buffered", inputTermBuffer.getBufferedBytes());
+        StatsRenderer.value(out, "input_capacity", inputTermBuffer.getCapacity());
+        StatsRenderer.value(out, "input_put_bytes", inputTermBuffer.getPutCount());
+        StatsRenderer.value(out, "input_get_bytes", inputTermBuffer.getGetCount());
+    }
+
     void setLinkedProcess(int pid) {
         linkedProcess = pid;
     }
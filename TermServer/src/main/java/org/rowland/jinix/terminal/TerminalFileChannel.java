@@ -102,24 +102,21 @@ public class TerminalFileChannel extends JinixKernelUnicastRemoteObject implemen
         }
 
         try {
-            for (byte b : bs) {
-                while (true) {
-                    try {
-                        lineDiscipline.write(b);
-                        break;
-                    } catch (TerminalBlockedOperationException e) {
-                        Integer lockObject = parentTerminal.activeWriterThreads.get(Thread.currentThread());
-                        if (parentTerminal.foregroundProcessGroupId != -1) {
-                            parentTerminal.signalProcessGroup(lockObject.intValue(), ProcessManager.Signal.TERMINAL_OUTPUT);
-                        }
-                        synchronized (lockObject) {
-                            try {
-                                lockObject.wait();
-                            } catch (InterruptedException e1) {
-                                return 0; // this should never happen
-                            }
+            int offset = 0;
+            while (offset < bs.length) {
+                try {
+                    offset += lineDiscipline.write(bs, offset, bs.length - offset);
+                } catch (TerminalBlockedOperationException e) {
+                    Integer lockObject = parentTerminal.activeWriterThreads.get(Thread.currentThread());
+                    if (parentTerminal.foregroundProcessGroupId != -1) {
+                        parentTerminal.signalProcessGroup(lockObject.intValue(), ProcessManager.Signal.TERMINAL_OUTPUT);
+                    }
+                    synchronized (lockObject) {
+                        try {
+                            lockObject.wait();
+                        } catch (InterruptedException e1) {
+                            return 0; // this should never happen
                         }
-                        continue;
                     }
                 }
             }
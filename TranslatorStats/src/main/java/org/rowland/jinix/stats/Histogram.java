@@ -0,0 +1,53 @@
+package org.rowland.jinix.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non negative values with power of two buckets. Bucket 0 counts zeros and bucket n counts the values
+ * from 2^(n-1) to 2^n-1. Recording a value is two atomic increments and an atomic add, so histograms can be kept on
+ * hot paths.
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Append the count and sum as name_count and name_sum lines, followed by a "name[low-high] n" line for each
+     * bucket that is not empty. The counters are read without locking, so a render concurrent with record() may be
+     * off by the values being recorded.
+     */
+    public void render(StringBuilder out, String name) {
+        StatsRenderer.value(out, name + "_count", count.get());
+        StatsRenderer.value(out, name + "_sum", sum.get());
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = buckets.get(i);
+            if (n > 0) {
+                long low = (i == 0 ? 0 : 1L << (i - 1));
+                long high = (i == 0 ? 0 : (1L << i) - 1);
+                StatsRenderer.value(out, name + "[" + low + "-" + high + "]", n);
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package org.rowland.jinix.stats;
+
+import org.rowland.jinix.JinixKernelUnicastRemoteObject;
+import org.rowland.jinix.io.BaseRemoteFileHandleImpl;
+import org.rowland.jinix.naming.*;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.rmi.RemoteException;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A read only FileNameSpace of stats files, in the style of /proc. The directory is flat, and each file is produced by
+ * a StatsRenderer when it is opened. Nothing is rendered unless a file is read, so a translator can keep its stats
+ * directory populated at no cost beyond maintaining the counters that the renderers report.
+ *
+ * A translator either mounts a StatsDirectory below its own root by redirecting lookups to it, or extends it, in which
+ * case the translator's own namespace is the stats directory.
+ */
+public class StatsDirectory extends JinixKernelUnicastRemoteObject implements FileNameSpace {
+
+    private final Map<String, StatsRenderer> fileMap = new ConcurrentSkipListMap<>();
+    private FileNameSpace parent;
+    private String pathWithinParent = "";
+
+    public StatsDirectory() throws RemoteException {
+        super();
+    }
+
+    public StatsDirectory(FileNameSpace parent, String pathWithinParent) throws RemoteException {
+        this();
+        attach(parent, pathWithinParent);
+    }
+
+    /**
+     * Set the namespace and path where the directory appears. A translator that extends StatsDirectory only knows
+     * these after it has looked up its translator file.
+     */
+    public void attach(FileNameSpace parent, String pathWithinParent) {
+        this.parent = parent;
+        this.pathWithinParent = pathWithinParent;
+    }
+
+    public void addFile(String name, StatsRenderer renderer) {
+        if (name.isEmpty() || name.indexOf('/') != -1) {
+            throw new IllegalArgumentException("Invalid stats file name: " + name);
+        }
+        fileMap.put(name, renderer);
+    }
+
+    public void removeFile(String name) {
+        fileMap.remove(name);
+    }
+
+    private StatsRenderer getRenderer(String path) {
+        if (!path.startsWith("/")) {
+            return null;
+        }
+        return fileMap.get(path.substring(1));
+    }
+
+    private static boolean isRoot(String path) {
+        return path.isEmpty() || path.equals("/");
+    }
+
+    private static byte[] render(StatsRenderer renderer) {
+        StringBuilder out = new StringBuilder(256);
+        renderer.render(out);
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public URI getURI() throws RemoteException {
+        try {
+            String parentURIPath = "";
+            if (parent != null) {
+                parentURIPath = parent.getURI().getPath();
+            }
+            return new URI("file", null, parentURIPath+"/"+getPathWithinParent(), null);
+        } catch (URISyntaxException e) {
+            throw new RemoteException("Unexpected failure creating FileNameSpace URI", e);
+        }
+    }
+
+    /**
+     * The length of a stats file is the length it would have if it were opened now, so it can change between a call
+     * to getFileAttributes() and a read.
+     */
+    @Override
+    public DirectoryFileData getFileAttributes(String filePathName) throws NoSuchFileException, RemoteException {
+        DirectoryFileData dfd = new DirectoryFileData();
+        dfd.lastModified = System.currentTimeMillis();
+        if (isRoot(filePathName)) {
+            dfd.name = pathWithinParent.substring(pathWithinParent.lastIndexOf('/') + 1);
+            dfd.type = DirectoryFileData.FileType.DIRECTORY;
+            return dfd;
+        }
+        StatsRenderer renderer = getRenderer(filePathName);
+        if (renderer == null) {
+            throw new NoSuchFileException(filePathName);
+        }
+        dfd.name = filePathName.substring(1);
+        dfd.type = DirectoryFileData.FileType.FILE;
+        dfd.length = render(renderer).length;
+        return dfd;
+    }
+
+    @Override
+    public void setFileAttributes(String filePathName, DirectoryFileData attributes) throws NoSuchFileException, RemoteException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public String[] list(String directoryPathName) throws RemoteException {
+        if (isRoot(directoryPathName)) {
+            return fileMap.keySet().toArray(new String[0]);
+        }
+        if (getRenderer(directoryPathName) != null) {
+            return null;
+        }
+        return new String[0];
+    }
+
+    @Override
+    public boolean createFileAtomically(String directoryPathName, String fileName) throws FileAlreadyExistsException, RemoteException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public boolean createDirectory(String parentDirectory, String directoryName) throws FileAlreadyExistsException, RemoteException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(String filePathName) throws NoSuchFileException, DirectoryNotEmptyException, RemoteException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    /**
+     * Stats files may be copied out to another file system, which saves a snapshot of them.
+     */
+    @Override
+    public void copy(RemoteFileHandle sourceFile, RemoteFileHandle destinationDirectory, String fileName, CopyOption... options)
+            throws NoSuchFileException, FileAlreadyExistsException, UnsupportedOperationException, RemoteException {
+
+        if (destinationDirectory.getParent().getURI().equals(this.getURI())) {
+            throw new ReadOnlyFileSystemException();
+        }
+
+        RemoteFileAccessor sourceFileAccessor = getRemoteFileAccessor(0, sourceFile.getPath(), EnumSet.of(StandardOpenOption.READ));
+        try {
+            RemoteFileAccessor destinationFileAccessor = destinationDirectory.getParent().getRemoteFileAccessor(0,
+                    destinationDirectory.getPath() + "/" + fileName,
+                    EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
+            try {
+                byte[] buffer = sourceFileAccessor.read(0, 2048);
+                while (buffer != null) {
+                    destinationFileAccessor.write(0, buffer);
+                    buffer = sourceFileAccessor.read(0, 2048);
+                }
+            } finally {
+                destinationFileAccessor.close();
+            }
+        } finally {
+            sourceFileAccessor.close();
+        }
+    }
+
+    @Override
+    public void move(RemoteFileHandle sourceFile, RemoteFileHandle destinationDirectory, String fileName, CopyOption... options)
+            throws DirectoryNotEmptyException, NoSuchFileException, FileAlreadyExistsException, UnsupportedOperationException, RemoteException {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public RemoteFileAccessor getRemoteFileAccessor(int pid, String name, Set<? extends OpenOption> options)
+            throws FileAlreadyExistsException, NoSuchFileException, RemoteException {
+        if (options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND) ||
+                options.contains(StandardOpenOption.CREATE_NEW) ||
+                options.contains(StandardOpenOption.TRUNCATE_EXISTING) ||
+                options.contains(StandardOpenOption.DELETE_ON_CLOSE)) {
+            throw new ReadOnlyFileSystemException();
+        }
+        if (isRoot(name)) {
+            throw new RemoteException("Cannot open a directory: " + name);
+        }
+        StatsRenderer renderer = getRenderer(name);
+        if (renderer == null) {
+            throw new NoSuchFileException(name);
+        }
+        return new StatsFileAccessor(this, name, render(renderer));
+    }
+
+    @Override
+    public RemoteFileAccessor getRemoteFileAccessor(int pid, RemoteFileHandle remoteFileHandle, Set<? extends OpenOption> options) throws FileAlreadyExistsException, NoSuchFileException, RemoteException {
+        return getRemoteFileAccessor(pid, remoteFileHandle.getPath(), options);
+    }
+
+    @Override
+    public Object lookup(int pid, String path) {
+        if (isRoot(path)) {
+            return new BaseRemoteFileHandleImpl(this, "/");
+        }
+        if (getRenderer(path) != null) {
+            return new BaseRemoteFileHandleImpl(this, path);
+        }
+        return null;
+    }
+
+    @Override
+    public FileNameSpace getParent() throws RemoteException {
+        return parent;
+    }
+
+    @Override
+    public String getPathWithinParent() throws RemoteException {
+        return pathWithinParent;
+    }
+
+    /**
+     * Stats files are snapshots that hold no resources in the translator, so they are not reported as open files.
+     */
+    @Override
+    public List<FileAccessorStatistics> getOpenFiles(int pid) throws RemoteException {
+        return null;
+    }
+}
@@ -0,0 +1,100 @@
+package org.rowland.jinix.stats;
+
+import org.rowland.jinix.JinixKernelUnicastRemoteObject;
+import org.rowland.jinix.io.BaseRemoteFileHandleImpl;
+import org.rowland.jinix.naming.RemoteFileAccessor;
+import org.rowland.jinix.naming.RemoteFileHandle;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.rmi.RemoteException;
+
+/**
+ * A read only RemoteFileAccessor for a stats file. The file is rendered once when it is opened, so a reader sees a
+ * consistent snapshot however it splits its reads.
+ */
+public class StatsFileAccessor extends JinixKernelUnicastRemoteObject implements RemoteFileAccessor {
+
+    private StatsDirectory directory;
+    private String jinixPath;
+    private ByteBuffer data;
+    private int openCount;
+
+    StatsFileAccessor(StatsDirectory directory, String jinixPath, byte[] data) throws RemoteException {
+        super();
+        this.directory = directory;
+        this.jinixPath = jinixPath;
+        this.data = ByteBuffer.wrap(data);
+        this.openCount = 1;
+    }
+
+    @Override
+    public RemoteFileHandle getRemoteFileHandle() throws RemoteException {
+        return new BaseRemoteFileHandleImpl(directory, jinixPath);
+    }
+
+    @Override
+    public synchronized byte[] read(int pid, int len) throws RemoteException {
+        if (!data.hasRemaining()) {
+            return null;
+        }
+        byte[] b = new byte[Math.min(len, data.remaining())];
+        data.get(b);
+        return b;
+    }
+
+    @Override
+    public int write(int pid, byte[] b) throws NonWritableChannelException, RemoteException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long skip(long n) throws RemoteException {
+        data.position((int) Math.max(Math.min(data.position() + n, data.limit()), 0));
+        return data.position();
+    }
+
+    @Override
+    public synchronized int available() throws RemoteException {
+        return data.remaining();
+    }
+
+    @Override
+    public synchronized long getFilePointer() throws RemoteException {
+        return data.position();
+    }
+
+    @Override
+    public synchronized void seek(long l) throws RemoteException {
+        data.position((int) Math.min(Math.max(l, 0), data.limit()));
+    }
+
+    @Override
+    public long length() throws RemoteException {
+        return data.limit();
+    }
+
+    @Override
+    public void setLength(long l) throws RemoteException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized void close() throws RemoteException {
+        if (openCount > 0) {
+            openCount--;
+            if (openCount == 0) {
+                unexport();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void duplicate() throws RemoteException {
+        openCount++;
+    }
+
+    @Override
+    public void force(boolean metaData) throws RemoteException {
+    }
+}
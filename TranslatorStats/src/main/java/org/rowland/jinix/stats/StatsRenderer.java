@@ -0,0 +1,18 @@
+package org.rowland.jinix.stats;
+
+/**
+ * Renders the current contents of a stats file. A renderer is only called when the file is opened or its attributes
+ * are read, so it may do work proportional to the state it reports, but it must not block on the operations it is
+ * reporting on.
+ */
+public interface StatsRenderer {
+
+    void render(StringBuilder out);
+
+    /**
+     * Append one "name value" line, the format used by all stats files.
+     */
+    static void value(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+}